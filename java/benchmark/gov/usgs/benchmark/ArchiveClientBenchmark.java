@@ -0,0 +1,101 @@
+package gov.usgs.benchmark;
+
+import java.util.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import gov.usgs.archiveclient.ArchiveClient;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the ArchiveClient write loop, appending batches of picks
+ * to an archive file in a temporary directory.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArchiveClientBenchmark {
+
+	/**
+	 * The number of messages written in each batch
+	 */
+	@Param({"1", "100", "1000"})
+	public int batchSize;
+
+	/**
+	 * The temporary output directory
+	 */
+	private File outputDirectory;
+
+	/**
+	 * The picks to write
+	 */
+	private ArrayList<String> picks;
+
+	/**
+	 * The archive file writer
+	 */
+	private PrintWriter archiveWriter;
+
+	/**
+	 * Sets up the output directory and the picks to write
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		outputDirectory = File.createTempFile("benchmark", "");
+		outputDirectory.delete();
+		outputDirectory.mkdirs();
+
+		picks = BenchmarkMessages.picks(batchSize);
+	}
+
+	/**
+	 * Starts a new archive file for each iteration, so the file doesn't grow
+	 * without bound
+	 */
+	@Setup(Level.Iteration)
+	public void openArchive() throws IOException {
+		archiveWriter = new PrintWriter(new BufferedWriter(new FileWriter(
+			new File(outputDirectory, "archive.jsonl"), false)));
+	}
+
+	/**
+	 * Closes the archive file
+	 */
+	@TearDown(Level.Iteration)
+	public void closeArchive() {
+		archiveWriter.close();
+	}
+
+	/**
+	 * Removes the output directory
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		File[] outputFiles = outputDirectory.listFiles();
+		if (outputFiles != null) {
+			for (File outputFile : outputFiles) {
+				outputFile.delete();
+			}
+		}
+		outputDirectory.delete();
+	}
+
+	/**
+	 * Benchmarks writing a batch of messages to the ArchiveClient archive file
+	 */
+	@Benchmark
+	public void writeMessagesToArchive() {
+		ArchiveClient.writeMessagesToArchive(archiveWriter, picks);
+	}
+}
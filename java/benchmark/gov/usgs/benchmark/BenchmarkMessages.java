@@ -0,0 +1,77 @@
+package gov.usgs.benchmark;
+
+import java.util.*;
+
+import gov.usgs.hazdevbroker.Heartbeat;
+import gov.usgs.hazdevbroker.Utility;
+
+/**
+ * a class used by the hazdev-broker benchmarks to build the synthetic
+ * messages used as input, so every benchmark measures the same kind of data
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class BenchmarkMessages {
+
+	/**
+	 * String constant containing the topic used by the benchmarks
+	 */
+	public static final String TOPIC = "benchmark-picks";
+
+	/**
+	 * String constant containing the client id used by the benchmarks
+	 */
+	public static final String CLIENT_ID = "benchmark";
+
+	/**
+	 * String constant containing the stations used in the synthetic picks
+	 */
+	private static final String[] STATIONS = {"BOZ", "HLID", "LKWY", "MCID",
+		"BMO", "DUG", "ELK", "HWUT", "ISCO", "TPAW"};
+
+	/**
+	 * Builds a synthetic pick message similar to those sent through the
+	 * broker, in json
+	 *
+	 * @param index
+	 *            - An int used to vary the pick id, station, and time
+	 * @return Returns a String containing the pick
+	 */
+	public static String pick(int index) {
+		String station = STATIONS[index % STATIONS.length];
+		long pickTime = 1500000000000L + (index * 250L);
+
+		return ("{\"Type\":\"Pick\",\"ID\":\"" + String.valueOf(index) +
+			"\",\"Site\":{\"Station\":\"" + station + "\",\"Channel\":\"BHZ\"," +
+			"\"Network\":\"US\",\"Location\":\"00\"},\"Source\":{\"AgencyID\":" +
+			"\"US\",\"Author\":\"" + CLIENT_ID + "\"},\"Time\":\"" +
+			Utility.formatDate(new Date(pickTime)) + "\",\"Phase\":\"P\"," +
+			"\"Polarity\":\"up\",\"Onset\":\"impulsive\",\"Picker\":\"raypicker\"," +
+			"\"Filter\":[{\"HighPass\":1.05,\"LowPass\":2.65}],\"Amplitude\":" +
+			"{\"Amplitude\":21.5,\"Period\":2.65,\"SNR\":3.8}}");
+	}
+
+	/**
+	 * Builds a list of synthetic pick messages
+	 *
+	 * @param count
+	 *            - An int containing the number of picks to build
+	 * @return Returns an ArrayList&lt;String&gt; containing the picks
+	 */
+	public static ArrayList<String> picks(int count) {
+		ArrayList<String> picks = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			picks.add(pick(i));
+		}
+		return (picks);
+	}
+
+	/**
+	 * Builds a heartbeat message for the benchmark topic, in json
+	 *
+	 * @return Returns a String containing the heartbeat
+	 */
+	public static String heartbeat() {
+		return (new Heartbeat(new Date(), TOPIC, CLIENT_ID).toJSONString());
+	}
+}
@@ -0,0 +1,87 @@
+package gov.usgs.benchmark;
+
+import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import gov.usgs.consumerclient.ConsumerClient;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the ConsumerClient file writing path, writing files of
+ * picks to a temporary directory. Files are written with writeMessageFile,
+ * which leaves out the fixed file name uniqueness sleep in
+ * writeMessagesToDisk.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsumerClientBenchmark {
+
+	/**
+	 * The number of messages written in each file
+	 */
+	@Param({"1", "100", "1000"})
+	public int batchSize;
+
+	/**
+	 * The temporary output directory
+	 */
+	private File outputDirectory;
+
+	/**
+	 * The picks to write
+	 */
+	private ArrayList<String> picks;
+
+	/**
+	 * Sets up the output directory and the picks to write
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		outputDirectory = File.createTempFile("benchmark", "");
+		outputDirectory.delete();
+		outputDirectory.mkdirs();
+
+		picks = BenchmarkMessages.picks(batchSize);
+
+		ConsumerClient.setupOutput(outputDirectory.getPath(), "jsonl", "");
+	}
+
+	/**
+	 * Queues a batch of picks for the next ConsumerClient file
+	 */
+	@Setup(Level.Invocation)
+	public void queuePicks() {
+		ConsumerClient.getFileQueue().addAll(picks);
+	}
+
+	/**
+	 * Removes the output directory
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		File[] outputFiles = outputDirectory.listFiles();
+		if (outputFiles != null) {
+			for (File outputFile : outputFiles) {
+				outputFile.delete();
+			}
+		}
+		outputDirectory.delete();
+	}
+
+	/**
+	 * Benchmarks writing a ConsumerClient output file
+	 */
+	@Benchmark
+	public boolean writeMessageFile() {
+		return (ConsumerClient.writeMessageFile(batchSize));
+	}
+}
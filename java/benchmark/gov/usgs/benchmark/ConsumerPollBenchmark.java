@@ -0,0 +1,141 @@
+package gov.usgs.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import gov.usgs.hazdevbroker.Consumer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the per record path of Consumer.poll and
+ * Consumer.pollString, using a kafka MockConsumer so no broker is needed.
+ * Each invocation polls one batch of picks, with a heartbeat every
+ * heartbeatEvery records.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsumerPollBenchmark {
+
+	/**
+	 * The number of records returned by each poll
+	 */
+	@Param({"1", "500"})
+	public int batchSize;
+
+	/**
+	 * One record in this many is a heartbeat
+	 */
+	@Param({"100"})
+	public int heartbeatEvery;
+
+	/**
+	 * Whether the consumer reports metrics
+	 */
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	/**
+	 * The kafka mock consumer
+	 */
+	private MockConsumer<String, byte[]> mockConsumer;
+
+	/**
+	 * The hazdev broker consumer being benchmarked
+	 */
+	private Consumer consumer;
+
+	/**
+	 * The partition the records are added to
+	 */
+	private TopicPartition partition;
+
+	/**
+	 * The records added before each poll
+	 */
+	private byte[][] recordData;
+
+	/**
+	 * The next record offset
+	 */
+	private long offset;
+
+	/**
+	 * Sets up the mock consumer and the records to poll
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		partition = new TopicPartition(BenchmarkMessages.TOPIC, 0);
+		offset = 0;
+
+		mockConsumer = new MockConsumer<String, byte[]>(
+			OffsetResetStrategy.EARLIEST);
+		consumer = new Consumer(mockConsumer, null);
+		if (metrics) {
+			consumer.setMetricsRegistry(new MetricsRegistry());
+		}
+
+		consumer.subscribe(BenchmarkMessages.TOPIC);
+		mockConsumer.rebalance(Arrays.asList(partition));
+		HashMap<TopicPartition, Long> beginningOffsets =
+			new HashMap<TopicPartition, Long>();
+		beginningOffsets.put(partition, 0L);
+		mockConsumer.updateBeginningOffsets(beginningOffsets);
+
+		byte[] heartbeat = BenchmarkMessages.heartbeat().getBytes();
+		recordData = new byte[batchSize][];
+		for (int i = 0; i < batchSize; i++) {
+			if ((i % heartbeatEvery) == (heartbeatEvery - 1)) {
+				recordData[i] = heartbeat;
+			} else {
+				recordData[i] = BenchmarkMessages.pick(i).getBytes();
+			}
+		}
+	}
+
+	/**
+	 * Adds a batch of records for the next poll
+	 */
+	@Setup(Level.Invocation)
+	public void addRecords() {
+		for (int i = 0; i < batchSize; i++) {
+			mockConsumer.addRecord(new ConsumerRecord<String, byte[]>(
+				BenchmarkMessages.TOPIC, 0, offset++, null, recordData[i]));
+		}
+	}
+
+	/**
+	 * Closes the mock consumer
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mockConsumer.close();
+	}
+
+	/**
+	 * Benchmarks Consumer.poll
+	 */
+	@Benchmark
+	public ArrayList<byte[]> poll() {
+		return (consumer.poll(0));
+	}
+
+	/**
+	 * Benchmarks Consumer.pollString
+	 */
+	@Benchmark
+	public ArrayList<String> pollString() {
+		return (consumer.pollString(0));
+	}
+}
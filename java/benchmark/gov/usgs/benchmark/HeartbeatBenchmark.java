@@ -0,0 +1,120 @@
+package gov.usgs.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import gov.usgs.hazdevbroker.Heartbeat;
+import gov.usgs.hazdevbroker.Utility;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the heartbeat and json / date conversion functions used
+ * for every message the Consumer receives and every heartbeat the Producer
+ * sends
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeartbeatBenchmark {
+
+	/**
+	 * The heartbeat to convert to json
+	 */
+	private Heartbeat heartbeat;
+
+	/**
+	 * The heartbeat used to parse json
+	 */
+	private Heartbeat parsedHeartbeat;
+
+	/**
+	 * A heartbeat in json
+	 */
+	private String heartbeatString;
+
+	/**
+	 * A pick in json, the common case for fromJSONString in Consumer.poll
+	 */
+	private String pickString;
+
+	/**
+	 * The date to format
+	 */
+	private Date date;
+
+	/**
+	 * The date to parse
+	 */
+	private String dateString;
+
+	/**
+	 * Sets up the benchmark inputs
+	 */
+	@Setup
+	public void setup() {
+		date = new Date();
+		dateString = Utility.formatDate(date);
+		heartbeat = new Heartbeat(date, BenchmarkMessages.TOPIC,
+			BenchmarkMessages.CLIENT_ID);
+		parsedHeartbeat = new Heartbeat();
+		heartbeatString = BenchmarkMessages.heartbeat();
+		pickString = BenchmarkMessages.pick(0);
+	}
+
+	/**
+	 * Benchmarks Heartbeat.toJSONString
+	 */
+	@Benchmark
+	public String heartbeatToJSONString() {
+		return (heartbeat.toJSONString());
+	}
+
+	/**
+	 * Benchmarks Heartbeat.fromJSONString with a heartbeat
+	 */
+	@Benchmark
+	public boolean heartbeatFromJSONString() {
+		return (parsedHeartbeat.fromJSONString(heartbeatString));
+	}
+
+	/**
+	 * Benchmarks Heartbeat.fromJSONString with a pick, which is what
+	 * Consumer.poll does to every message that is not a heartbeat
+	 */
+	@Benchmark
+	public boolean pickFromJSONString() {
+		return (parsedHeartbeat.fromJSONString(pickString));
+	}
+
+	/**
+	 * Benchmarks Utility.fromJSONString with a pick
+	 */
+	@Benchmark
+	public JSONObject utilityFromJSONString() throws ParseException {
+		return (Utility.fromJSONString(pickString));
+	}
+
+	/**
+	 * Benchmarks Utility.formatDate
+	 */
+	@Benchmark
+	public String utilityFormatDate() {
+		return (Utility.formatDate(date));
+	}
+
+	/**
+	 * Benchmarks Utility.getDate
+	 */
+	@Benchmark
+	public Date utilityGetDate() {
+		return (Utility.getDate(dateString));
+	}
+}
@@ -0,0 +1,121 @@
+package gov.usgs.benchmark;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.usgs.hazdevbroker.ClientThreads;
+import gov.usgs.hazdevbroker.Utility;
+
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmark of how many concurrent client pipelines one host can
+ * sustain with platform threads and with virtual threads. Each pipeline is
+ * modeled the way the clients spend their time: it blocks waiting for data,
+ * as in a poll of a quiet topic, then parses the pick that arrived, for a
+ * fixed number of cycles. Each run starts every pipeline on a thread from
+ * ClientThreads and measures the time until all of them finish. A host
+ * sustains a pipeline count while the run time stays near the ideal of
+ * CYCLES times POLL_MILLIS; past that, thread creation, memory, and
+ * scheduling overhead take over. The Virtual mode requires JDK 21 or newer,
+ * on an older JDK its runs fail in setup.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineThreadsBenchmark {
+
+	/**
+	 * The number of wait and parse cycles each pipeline runs
+	 */
+	public static final int CYCLES = 20;
+
+	/**
+	 * The time each pipeline blocks waiting for data per cycle in
+	 * milliseconds
+	 */
+	public static final long POLL_MILLIS = 10;
+
+	/**
+	 * The thread mode, ClientThreads.PLATFORM_MODE or
+	 * ClientThreads.VIRTUAL_MODE
+	 */
+	@Param({"Platform", "Virtual"})
+	public String mode;
+
+	/**
+	 * The number of concurrent pipelines
+	 */
+	@Param({"100", "1000", "10000"})
+	public int pipelines;
+
+	/**
+	 * The pick each pipeline parses per cycle
+	 */
+	private String pickString;
+
+	/**
+	 * Sets the thread mode and the message to parse
+	 */
+	@Setup
+	public void setup() {
+		if (!ClientThreads.setMode(mode)) {
+			throw new IllegalStateException("Thread mode " + mode +
+				" is not supported by this JVM.");
+		}
+		pickString = BenchmarkMessages.pick(0);
+	}
+
+	/**
+	 * Restores the default thread mode
+	 */
+	@TearDown
+	public void tearDown() {
+		ClientThreads.setMode(ClientThreads.PLATFORM_MODE);
+	}
+
+	/**
+	 * Benchmarks running every pipeline to completion
+	 *
+	 * @return Returns the number of picks parsed
+	 * @throws InterruptedException if interrupted waiting for the pipelines
+	 */
+	@Benchmark
+	public long runPipelines() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(pipelines);
+		final AtomicLong parsed = new AtomicLong();
+
+		for (int i = 0; i < pipelines; i++) {
+			ClientThreads.newThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int cycle = 0; cycle < CYCLES; cycle++) {
+							Thread.sleep(POLL_MILLIS);
+							if (Utility.fromJSONString(pickString) != null) {
+								parsed.incrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (ParseException e) {
+						// not counted
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "pipeline-" + String.valueOf(i)).start();
+		}
+
+		done.await();
+		return (parsed.get());
+	}
+}
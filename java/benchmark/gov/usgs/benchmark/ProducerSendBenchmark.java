@@ -0,0 +1,122 @@
+package gov.usgs.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import gov.usgs.hazdevbroker.Producer;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks of the per message overhead of Producer.send and
+ * Producer.sendString, using a kafka MockProducer that completes every send
+ * immediately so no broker is needed, with and without heartbeats and send
+ * time headers.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProducerSendBenchmark {
+
+	/**
+	 * The number of sends between clearing the mock producer's history, so
+	 * the history does not grow for the whole run
+	 */
+	public static final int CLEAR_EVERY = 10000;
+
+	/**
+	 * Whether the producer sends heartbeats, every 30 seconds
+	 */
+	@Param({"false", "true"})
+	public boolean heartbeats;
+
+	/**
+	 * Whether the producer stamps each message with send time and client id
+	 * headers
+	 */
+	@Param({"false", "true"})
+	public boolean stampHeaders;
+
+	/**
+	 * The kafka mock producer
+	 */
+	private MockProducer<String, byte[]> mockProducer;
+
+	/**
+	 * The hazdev broker producer being benchmarked
+	 */
+	private Producer producer;
+
+	/**
+	 * A pick to send
+	 */
+	private String pickString;
+
+	/**
+	 * The pick to send as bytes
+	 */
+	private byte[] pickData;
+
+	/**
+	 * The sends since the history was last cleared
+	 */
+	private int sends;
+
+	/**
+	 * Sets up the producer and the message to send
+	 */
+	@Setup
+	public void setup() {
+		mockProducer = new MockProducer<String, byte[]>(true,
+			new StringSerializer(), new ByteArraySerializer());
+		producer = new Producer(mockProducer, BenchmarkMessages.CLIENT_ID,
+			heartbeats ? Long.valueOf(30) : null);
+		producer.setStampHeaders(stampHeaders);
+		pickString = BenchmarkMessages.pick(0);
+		pickData = pickString.getBytes();
+		sends = 0;
+	}
+
+	/**
+	 * Stops the heartbeat scheduler
+	 */
+	@TearDown
+	public void tearDown() {
+		producer.stopHeartbeats();
+	}
+
+	/**
+	 * Benchmarks Producer.send with a message already in bytes
+	 */
+	@Benchmark
+	public void send() {
+		producer.send(BenchmarkMessages.TOPIC, pickData);
+		clearHistory();
+	}
+
+	/**
+	 * Benchmarks Producer.sendString
+	 */
+	@Benchmark
+	public void sendString() {
+		producer.sendString(BenchmarkMessages.TOPIC, pickString);
+		clearHistory();
+	}
+
+	/**
+	 * Clears the mock producer's history every CLEAR_EVERY sends
+	 */
+	private void clearHistory() {
+		if (++sends >= CLEAR_EVERY) {
+			mockProducer.clear();
+			sends = 0;
+		}
+	}
+}
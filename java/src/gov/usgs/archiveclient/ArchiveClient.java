@@ -6,6 +6,12 @@ import org.apache.log4j.PropertyConfigurator;
 
 import gov.usgs.hazdevbroker.Utility;
 import gov.usgs.hazdevbroker.Consumer;
+import gov.usgs.hazdevbroker.Counter;
+import gov.usgs.hazdevbroker.GracefulShutdown;
+import gov.usgs.hazdevbroker.LatencyHistogram;
+import gov.usgs.hazdevbroker.MetricsHttpServer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
+import gov.usgs.hazdevbroker.RebalanceHandler;
 
 import java.util.*;
 import java.io.BufferedWriter;
@@ -17,6 +23,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 
+import org.apache.kafka.common.TopicPartition;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONArray;
 
@@ -40,6 +47,8 @@ public class ArchiveClient {
 	public static final String FILE_NAME = "FileName";
 	public static final String OUTPUT_DIRECTORY = "OutputDirectory";
 	public static final String POLL_TIMEOUT = "PollTimeout";
+	public static final String METRICS_PORT = "MetricsPort";
+	public static final String SHUTDOWN_TIMEOUT = "ShutdownTimeout";
 
 	/**
 	 * Required configuration string defining the output directory
@@ -62,6 +71,13 @@ public class ArchiveClient {
 	 */
 	private static long pollTimeout = 10;
 
+	/**
+	 * Optional configuration value defining the time allowed to close the
+	 * archive file and the consumer when shutting down in seconds, default
+	 * is GracefulShutdown.DEFAULT_TIMEOUT
+	 */
+	private static long shutdownTimeout = GracefulShutdown.DEFAULT_TIMEOUT;
+
 	/**
 	 * Log4J logger for ConsumerClient
 	 */
@@ -76,12 +92,45 @@ public class ArchiveClient {
 	 * Long defining the number seconds between logging kafka metrics, 
 	 * default is 30 seconds
 	 */
-	private static Long metricInterval;
+	private static long metricInterval;
+
+	/**
+	 * Variable containing the System.nanoTime() metrics were last logged.
+	 */
+	private static long lastMetricNanos;
+
+	/**
+	 * Optional configuration Long defining the port to serve metrics on,
+	 * default is null
+	 */
+	private static Long metricsPort;
+
+	/**
+	 * The server used to serve metrics, null if not serving metrics
+	 */
+	private static MetricsHttpServer metricsServer;
+
+	/**
+	 * Required configuration JSONObject containing the broker configuration
+	 */
+	private static JSONObject brokerConfig;
 
 	/**
-	 * Variable containing time the last time metrics were logged.
+	 * Required configuration list of the topics to archive
 	 */
-	private static Long lastMetricTime;
+	private static ArrayList<String> topicList;
+
+	/**
+	 * Flag indicating whether the client is hosted by MultiClient, which sets
+	 * up logging and logs the shared metrics itself
+	 */
+	private static boolean hosted;
+
+	/**
+	 * Flag indicating whether every message polled so far was flushed to the
+	 * archive file without an error, offsets are not committed once false
+	 */
+	private static boolean archiveFlushed;
 
 	/**
 	 * main function for ArchiveClient
@@ -98,20 +147,47 @@ public class ArchiveClient {
 			System.exit(1);
 		}
 
+		if (!configure(args[0], false)) {
+			System.exit(1);
+		}
+
+		run();
+	}
+
+	/**
+	 * configuration function for ArchiveClient, reads the provided
+	 * configuration file into the client settings
+	 *
+	 * @param configFile
+	 *            - A String containing the configuration file
+	 * @param isHosted
+	 *            - A boolean flag indicating whether the client is hosted by
+	 *            MultiClient, in which case logging is already set up and 
+	 *            the shared metrics are not logged by the client
+	 * @return Returns true if the configuration is valid, false otherwise
+	 */
+	public static boolean configure(String configFile, boolean isHosted) {
+
 		// init to default values
+		hosted = isHosted;
+		archiveFlushed = true;
+		brokerConfig = null;
+		topicList = null;
 		outputDirectory = null;
 		fileExtension = null;
 		fileName = new String();
 		metricInterval = 30L;
-		lastMetricTime = (Long) (System.currentTimeMillis() / 1000);
+		metricsPort = null;
+		metricsServer = null;
+		lastMetricNanos = System.nanoTime();
 
 		// parse config file into json
-		JSONObject configJSON = Utility.readConfigurationFromFile(args[0]);
+		JSONObject configJSON = Utility.readConfigurationFromFile(configFile);
 
 		// nullcheck
 		if (configJSON == null) {
 			System.out.println("Error, invalid json from configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// type check
@@ -119,16 +195,18 @@ public class ArchiveClient {
 			String type = configJSON.get(TYPE_KEY).toString();
 			if (!type.equals("ArchiveClient")) {
 				System.out.println("Error, wrong configuration.");
-				System.exit(1);
+				return (false);
 			}
 		} else {
 			System.out.println("Error, missing type in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
-		// get log4j config
+		// get log4j config, unless hosted
 		String logConfigString = null;
-		if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
+		if (hosted) {
+			logger.info("Using hosted logging configuration");
+		} else if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
 			logConfigString = (String) configJSON.get(LOG4J_CONFIGFILE);
 			System.out.println("Using custom logging configuration");
 			PropertyConfigurator.configure(logConfigString);
@@ -145,7 +223,7 @@ public class ArchiveClient {
 			logger.info("Using configured fileExtension of: " + fileExtension);
 		} else {
 			logger.error("Error, did not find FileExtension in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get file name
@@ -171,7 +249,7 @@ public class ArchiveClient {
 		} else {
 			logger.error(
 					"Error, did not find OutputDirectory in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get poll timeout
@@ -181,19 +259,34 @@ public class ArchiveClient {
 		} else {
 			logger.info("Using default poll timeout of: " + String.valueOf(pollTimeout));
 		}
-	
+
+		// get shutdown timeout
+		if (configJSON.containsKey(SHUTDOWN_TIMEOUT)) {
+			shutdownTimeout = (long) configJSON.get(SHUTDOWN_TIMEOUT);
+			logger.info("Using configured shutdown timeout of: " + String.valueOf(shutdownTimeout));
+		} else {
+			logger.info("Using default shutdown timeout of: " + String.valueOf(shutdownTimeout));
+		}
+
+		// get metrics port
+		if (configJSON.containsKey(METRICS_PORT)) {
+			metricsPort = (Long) configJSON.get(METRICS_PORT);
+			logger.info("Using configured metricsPort of: "
+					+ metricsPort.toString());
+		} else {
+			logger.info("Not using metricsPort, not serving metrics.");
+		}
+
 		// get broker config
-		JSONObject brokerConfig = null;
 		if (configJSON.containsKey(BROKER_CONFIG)) {
 			brokerConfig = (JSONObject) configJSON.get(BROKER_CONFIG);
 		} else {
 			logger.error(
 					"Error, did not find HazdevBrokerConfig in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get topic list
-		ArrayList<String> topicList = null;
 		if (configJSON.containsKey(TOPIC_LIST)) {
 			topicList = new ArrayList<String>();
 			JSONArray topicArray = (JSONArray) configJSON.get(TOPIC_LIST);
@@ -206,23 +299,90 @@ public class ArchiveClient {
 			}
 		} else {
 			logger.error("Error, did not find TopicList in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// nullcheck
 		if (topicList == null) {
 			logger.error("Error, invalid TopicList from configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		logger.info("----------Processed Config----------");
+		return (true);
+	}
+
+	/**
+	 * run function for ArchiveClient, consumes messages and writes them to
+	 * archive files until stopped, must be called after a successful 
+	 * configure
+	 */
+	public static void run() {
 
 		// get client id
 		JSONObject brokerProps = (JSONObject) brokerConfig.get("Properties");
 		String clientID = (String) brokerProps.get("client.id");
 
+		// offsets are committed once messages are flushed to the archive
+		// file, not by the kafka consumer on its own
+		brokerProps.put("enable.auto.commit", "false");
+		logger.info("Using enable.auto.commit of: false");
+
 		// create consumer
-		Consumer m_Consumer = new Consumer(brokerConfig);
+		final Consumer m_Consumer = new Consumer(brokerConfig);
+
+		// close the archive file and consumer when stopped
+		GracefulShutdown shutdown = new GracefulShutdown("ArchiveClient", 
+			shutdownTimeout);
+		shutdown.addWakeup(new Runnable() {
+			@Override
+			public void run() {
+				m_Consumer.wakeup();
+			}
+		});
+		shutdown.install();
+
+		// set up metrics
+		MetricsRegistry registry = MetricsRegistry.getDefault();
+		m_Consumer.setMetricsRegistry(registry);
+		String metricsClientId = String.valueOf(clientID);
+		LatencyHistogram archiveWriteLatency = registry.histogram(
+			"hazdev_archiveclient_write_latency", 
+			"Time taken to write and flush each batch of messages", 
+			"client_id", metricsClientId);
+		Counter messagesArchived = registry.counter(
+			"hazdev_archiveclient_messages_written_total", 
+			"Messages written to archive files", 
+			"client_id", metricsClientId);
+
+		// serve metrics if configured
+		if (metricsPort != null) {
+			metricsServer = new MetricsHttpServer(registry);
+			try {
+				metricsServer.start(metricsPort.intValue());
+			} catch (IOException e) {
+				logger.error("Error starting metrics server: " + e.toString());
+			}
+		}
+
+		// commit offsets before partitions move to another consumer, so the
+		// new owner does not archive the same messages again
+		m_Consumer.setRebalanceHandler(new RebalanceHandler() {
+			@Override
+			public boolean partitionsRevoked(
+				Collection<TopicPartition> partitions) {
+				// every batch is flushed to the archive file as it is 
+				// written, so nothing is pending unless a flush failed
+				return (archiveFlushed);
+			}
+
+			@Override
+			public void partitionsAssigned(
+				Map<TopicPartition, Long> positions) {
+				// the archive file is not kept per partition, so there is
+				// nothing to warm
+			}
+		});
 
 		// subscribe to topics
 		m_Consumer.subscribe(topicList);
@@ -233,6 +393,7 @@ public class ArchiveClient {
 
 		PrintWriter fileWriter = null;
 		Calendar fileCreationDate = null;
+		boolean stopped = false;
 
 		try {
 			// create printwriter to write to disk
@@ -243,13 +404,13 @@ public class ArchiveClient {
 					.getInstance(TimeZone.getTimeZone("GMT"));
 
 			// run until stopped
-			while (true) {
+			while (!shutdown.isStopping()) {
 
 				// get messages from broker, wait for a maximum of 10 seconds before 
 				// giving up
 				ArrayList<String> brokerMessages = m_Consumer.pollString(pollTimeout * 1000);
 
-				logKafkaMetrics(m_Consumer, clientID, topicList);
+				logMetrics();
 
 				// nullcheck brokerMessages
 				if (brokerMessages == null) {
@@ -260,33 +421,25 @@ public class ArchiveClient {
 					continue;
 				}
 
-				// add all messages in brokerMessages to queue
-				for (int i = 0; i < brokerMessages.size(); i++) {
-					// get string
-					String message = brokerMessages.get(i);
-
-					// nullcheck
-					if (message == null) {
-						continue;
-					}
-					if (message.length() == 0) {
-						continue;
-					}
-
-					logger.debug(message);
-
-					// check to see if we were newline terminated, add a
-					// newline if we were not
-					if (message.charAt(message.length() - 1) != '\n') {
-						message = message.concat("\n");
-					}
-
-					// just call print
-					fileWriter.print(message);
+				long writeStart = System.nanoTime();
+
+				// write all messages in brokerMessages to the file
+				writeMessagesToArchive(fileWriter, brokerMessages);
+
+				archiveWriteLatency.record(System.nanoTime() - writeStart);
+				messagesArchived.add(brokerMessages.size());
+
+				// the messages are flushed, commit their offsets, once a flush
+				// fails no later offsets are committed past its messages
+				if (fileWriter.checkError()) {
+					archiveFlushed = false;
+				}
+				if (archiveFlushed) {
+					m_Consumer.commitAsync(m_Consumer.getReturnedOffsets());
+				} else {
+					logger.error("Error writing archive file: " + outFileName 
+						+ ", offsets not committed.");
 				}
-				
-				// make sure all messages written to disk
-				fileWriter.flush();
 				
 				logger.info("Updated Archive File: " + outFileName + " with " 
 					+ String.valueOf(brokerMessages.size()) + " additional message(s).");
@@ -311,6 +464,7 @@ public class ArchiveClient {
 					logger.info("Switched to new Archive File: " + outFileName + ".");
 				}
 			}
+			stopped = true;
 		} catch (Exception e) {
 
 			// log exception
@@ -320,9 +474,63 @@ public class ArchiveClient {
 			if (fileWriter != null) {
 				fileWriter.close();
 			}
+
+			// if every polled message has been flushed to the archive file,
+			// commit, then leave the consumer group, after an error the 
+			// messages not committed yet are read again on restart
+			m_Consumer.close(shutdown.getRemainingMillis(), 
+				stopped && archiveFlushed);
+
+			if (metricsServer != null) {
+				metricsServer.stop();
+			}
+
+			logger.info("ArchiveClient stopped.");
+			shutdown.finished();
 		}
 	}
 
+	/**
+	 * Archive writing function for ArchiveClient, writes the provided messages
+	 * to the archive file, newline terminated, and flushes the file.
+	 *
+	 * @param fileWriter
+	 *            - A PrintWriter for the archive file
+	 * @param messages
+	 *            - An ArrayList&lt;String&gt; containing the messages to write
+	 */
+	public static void writeMessagesToArchive(PrintWriter fileWriter, 
+		ArrayList<String> messages) {
+
+		// add all messages to the file
+		for (int i = 0; i < messages.size(); i++) {
+			// get string
+			String message = messages.get(i);
+
+			// nullcheck
+			if (message == null) {
+				continue;
+			}
+			if (message.length() == 0) {
+				continue;
+			}
+
+			logger.debug(message);
+
+			// check to see if we were newline terminated, add a
+			// newline if we were not
+			if (message.charAt(message.length() - 1) != '\n') {
+				message = message.concat("\n");
+			}
+
+			// just call print
+			fileWriter.print(message);
+		}
+		
+		// make sure all messages written to disk
+		fileWriter.flush();
+	}
+
 	public static PrintWriter createPrintWriter(String name)
 			throws IOException {
 		
@@ -350,56 +558,25 @@ public class ArchiveClient {
 		return utcTime;
 	}
 
-	public static void logKafkaMetrics(Consumer myConsumer, 
-		String clientID, ArrayList<String> topicList) {
-
-		// get current time in seconds
-		Long timeNow = System.currentTimeMillis() / 1000;
+	/**
+	 * Metrics logging function for ArchiveClient, logs every metric in the 
+	 * metrics registry, including the kafka client metrics, once every 
+	 * metricInterval seconds, unless hosted by MultiClient, which logs the
+	 * shared metrics once itself
+	 */
+	public static void logMetrics() {
+		if (hosted) {
+			return;
+		}
 
 		// calculate elapsed time
-		Long elapsedTime = timeNow - lastMetricTime;
-
-		if (elapsedTime >= metricInterval) {
-			// overall metrics
-			ArrayList<String> recordsLagMax = myConsumer.getKafkaMetric(
-				"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" + 
-				clientID, "records-lag-max");
-			logger.info("KafkaMetric - " + recordsLagMax.toString());
-	
-			ArrayList<String> fetchRate = myConsumer.getKafkaMetric(
-				"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" + 
-				clientID, "fetch-rate");
-			logger.info("KafkaMetric - " + fetchRate.toString());
-	
-			// topic specific metrics
-			for (int i = 0; i < topicList.size(); i++) {
-				String topic = topicList.get(i);
-	
-				// for records lag, we need to check all partitions
-				ArrayList<String> partitionList = myConsumer.getPartitions(topic);
-				for (int j = 0; j < partitionList.size(); j++) {
-					String partition = partitionList.get(j);
-
-					ArrayList<String> recordsLag = myConsumer.getKafkaMetric(
-						"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" 
-						+ clientID + ",topic=" + topic + ",partition=" + partition, 
-						"records-lag");
-					logger.info("KafkaMetric - " + topic + " - " + partition + " - " + 
-						recordsLag.toString());
-				}
+		long timeNow = System.nanoTime();
+		long elapsedNanos = timeNow - lastMetricNanos;
 
-				ArrayList<String> bytesConsumedRate = myConsumer.getKafkaMetric(
-					"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" 
-					+ clientID + ",topic=" + topic, "bytes-consumed-rate");
-				logger.info("KafkaMetric - " + topic + " - " + bytesConsumedRate.toString());
-	
-				ArrayList<String> recordsConsumedRate =myConsumer.getKafkaMetric(
-					"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" 
-					+ clientID + ",topic=" + topic, "records-consumed-rate");
-				logger.info("KafkaMetric - " + topic + " - " + recordsConsumedRate.toString());
-			}
+		if (elapsedNanos >= (metricInterval * 1000000000L)) {
+			MetricsRegistry.getDefault().logMetrics(logger);
 
-			lastMetricTime = timeNow;
+			lastMetricNanos = timeNow;
 		}
 	}
 }
@@ -5,8 +5,17 @@ import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.PropertyConfigurator;
 
 import gov.usgs.hazdevbroker.Utility;
+import gov.usgs.hazdevbroker.AllocationProfiler;
 import gov.usgs.hazdevbroker.Consumer;
 import gov.usgs.hazdevbroker.Heartbeat;
+import gov.usgs.hazdevbroker.HeartbeatTable;
+import gov.usgs.hazdevbroker.Counter;
+import gov.usgs.hazdevbroker.Gauge;
+import gov.usgs.hazdevbroker.GracefulShutdown;
+import gov.usgs.hazdevbroker.LatencyHistogram;
+import gov.usgs.hazdevbroker.MetricsHttpServer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
+import gov.usgs.hazdevbroker.RebalanceHandler;
 
 import java.util.*;
 import java.io.BufferedReader;
@@ -17,6 +26,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 
+import org.apache.kafka.common.TopicPartition;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONArray;
 import org.json.simple.parser.JSONParser;
@@ -45,6 +55,9 @@ public class ConsumerClient {
 	public static final String OUTPUT_DIRECTORY = "OutputDirectory";
 	public static final String HEARTBEAT_INTERVAL = "HeartbeatInterval";
 	public static final String WRITE_HEARTBEAT_FILE = "WriteHeartbeatFile";
+	public static final String METRICS_PORT = "MetricsPort";
+	public static final String ALLOCATION_PROFILING = "AllocationProfiling";
+	public static final String SHUTDOWN_TIMEOUT = "ShutdownTimeout";
 
 	/** 
 	 * Long constant containing the time to sleep in ms between file writes to 
@@ -91,6 +104,18 @@ public class ConsumerClient {
 	 */
 	private static Boolean writeHeartbeatFile;
 
+	/**
+	 * The time each missing heartbeat was last logged in seconds, keyed by 
+	 * topic, or by topic and producer client id, so each is only logged once
+	 * per heartbeat interval
+	 */
+	private static HashMap<String, Long> heartbeatErrorTimes;
+
+	/**
+	 * The time heartbeats were last checked in seconds
+	 */
+	private static long lastHeartbeatCheckTime;
+
 	/**
 	 * Log4J logger for ConsumerClient
 	 */
@@ -102,20 +127,136 @@ public class ConsumerClient {
 	private static Queue<String> fileQueue;
 
 	/**
-	 * Variable containing time the last file was written.
+	 * Variable containing the System.nanoTime() the last file was written.
+	 */
+	private static long lastFileWriteNanos;
+
+	/**
+	 * Variable containing the time in milliseconds used to name the last
+	 * file written.
+	 */
+	private static long lastFileMillis = 0;
+
+	/**
+	 * The number of messages added to the file queue so far
+	 */
+	private static long queuedCount;
+
+	/**
+	 * The number of messages taken off the file queue and written so far
 	 */
-	private static Long lastFileWriteTime;
+	private static long writtenCount;
+
+	/**
+	 * The offsets returned by each poll not yet committed, along with the 
+	 * number of messages queued by then, committed once that many have been
+	 * written
+	 */
+	private static LinkedList<WriteCheckpoint> writeCheckpoints;
+
+	/**
+	 * A class holding the offsets returned by a poll, and the number of 
+	 * messages that must be written before they can be committed
+	 */
+	private static class WriteCheckpoint {
+		/**
+		 * The number of messages queued after the poll
+		 */
+		long queuedCount;
+
+		/**
+		 * The offsets returned by the poll and every poll before it
+		 */
+		Map<TopicPartition, Long> offsets;
+	}
 
 	/**
 	 * Long defining the number seconds between logging kafka metrics, 
 	 * default is 30 seconds
 	 */
-	private static Long metricInterval;
+	private static long metricInterval;
+
+	/**
+	 * Variable containing the System.nanoTime() metrics were last logged.
+	 */
+	private static long lastMetricNanos;
+
+	/**
+	 * Optional configuration Long defining the port to serve metrics on,
+	 * default is null
+	 */
+	private static Long metricsPort;
+
+	/**
+	 * The server used to serve metrics, null if not serving metrics
+	 */
+	private static MetricsHttpServer metricsServer;
+
+	/**
+	 * Histogram of the time taken to write each output file
+	 */
+	private static LatencyHistogram fileWriteLatency;
+
+	/**
+	 * Counter of the output files written
+	 */
+	private static Counter filesWritten;
+
+	/**
+	 * Counter of the messages written to output files
+	 */
+	private static Counter messagesWritten;
+
+	/**
+	 * Optional configuration Boolean defining whether to measure the bytes
+	 * allocated by each stage of the main loop, default is false
+	 */
+	private static Boolean allocationProfiling;
+
+	/**
+	 * The allocation profiler, null if not profiling
+	 */
+	private static AllocationProfiler allocationProfiler;
+
+	/**
+	 * The allocation measured adding polled messages to the file queue, null
+	 * if not profiling
+	 */
+	private static AllocationProfiler.Stage queueAllocation;
+
+	/**
+	 * The allocation measured writing each output file, null if not profiling
+	 */
+	private static AllocationProfiler.Stage writeAllocation;
+
+	/**
+	 * The allocation measured for each whole iteration of the main loop, null
+	 * if not profiling
+	 */
+	private static AllocationProfiler.Stage loopAllocation;
+
+	/**
+	 * Optional configuration Long defining the time allowed to write the
+	 * remaining messages and close the consumer when shutting down in
+	 * seconds, default is GracefulShutdown.DEFAULT_TIMEOUT
+	 */
+	private static Long shutdownTimeout;
+
+	/**
+	 * Required configuration JSONObject containing the broker configuration
+	 */
+	private static JSONObject brokerConfig;
 
 	/**
-	 * Variable containing time the last time metrics were logged.
+	 * Required configuration list of the topics to consume
 	 */
-	private static Long lastMetricTime;
+	private static ArrayList<String> topicList;
+
+	/**
+	 * Flag indicating whether the client is hosted by MultiClient, which sets
+	 * up logging and logs the shared metrics itself
+	 */
+	private static boolean hosted;
 
 	/**
 	 * main function for ConsumerClient
@@ -132,8 +273,35 @@ public class ConsumerClient {
 			System.exit(1);
 		}
 
+		if (!configure(args[0], false)) {
+			System.exit(1);
+		}
+
+		run();
+	}
+
+	/**
+	 * configuration function for ConsumerClient, reads the provided
+	 * configuration file into the client settings
+	 *
+	 * @param configFile
+	 *            - A String containing the configuration file
+	 * @param isHosted
+	 *            - A boolean flag indicating whether the client is hosted by
+	 *            MultiClient, in which case logging is already set up and 
+	 *            the shared metrics are not logged by the client
+	 * @return Returns true if the configuration is valid, false otherwise
+	 */
+	public static boolean configure(String configFile, boolean isHosted) {
+
 		// init to default values
+		hosted = isHosted;
+		brokerConfig = null;
+		topicList = null;
 		fileQueue = new LinkedList<String>();
+		queuedCount = 0;
+		writtenCount = 0;
+		writeCheckpoints = new LinkedList<WriteCheckpoint>();
 		outputDirectory = null;
 		fileExtension = null;
 		fileName = new String();
@@ -141,19 +309,26 @@ public class ConsumerClient {
 		timePerFile = null;
 		heartbeatInterval = null;
 		writeHeartbeatFile = (boolean) false;
+		heartbeatErrorTimes = new HashMap<String, Long>();
+		lastHeartbeatCheckTime = 0;
 		metricInterval = 30L;
-		lastMetricTime = (Long) (System.currentTimeMillis() / 1000);
+		metricsPort = null;
+		metricsServer = null;
+		allocationProfiling = (boolean) false;
+		setAllocationProfiler(null);
+		shutdownTimeout = GracefulShutdown.DEFAULT_TIMEOUT;
+		lastMetricNanos = System.nanoTime();
 
 		// init last write time to now
-		lastFileWriteTime = (Long) (System.currentTimeMillis() / 1000);
+		lastFileWriteNanos = System.nanoTime();
 
 		// parse config file into json
-		JSONObject configJSON = Utility.readConfigurationFromFile(args[0]);
+		JSONObject configJSON = Utility.readConfigurationFromFile(configFile);
 
 		// nullcheck
 		if (configJSON == null) {
 			System.out.println("Error, invalid json from configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// type check
@@ -161,16 +336,18 @@ public class ConsumerClient {
 			String type = configJSON.get(TYPE_KEY).toString();
 			if (!type.equals("ConsumerClient")) {
 				System.out.println("Error, wrong configuration.");
-				System.exit(1);
+				return (false);
 			}
 		} else {
 			System.out.println("Error, missing type in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
-		// get log4j config
+		// get log4j config, unless hosted
 		String logConfigString = null;
-		if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
+		if (hosted) {
+			logger.info("Using hosted logging configuration");
+		} else if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
 			logConfigString = (String) configJSON.get(LOG4J_CONFIGFILE);
 			System.out.println("Using custom logging configuration");
 			PropertyConfigurator.configure(logConfigString);
@@ -187,7 +364,7 @@ public class ConsumerClient {
 			logger.info("Using configured fileExtension of: " + fileExtension);
 		} else {
 			logger.error("Error, did not find FileExtension in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get file name
@@ -213,7 +390,7 @@ public class ConsumerClient {
 		} else {
 			logger.error(
 					"Error, did not find OutputDirectory in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get messages per file
@@ -256,24 +433,46 @@ public class ConsumerClient {
 						+ "files.");
 		}
 
-		// setup heartbeat files
-		String heartbeatDirectory = null;
-		if (writeHeartbeatFile == true) {
-			heartbeatDirectory = outputDirectory;
+		// get metrics port
+		if (configJSON.containsKey(METRICS_PORT)) {
+			metricsPort = (Long) configJSON.get(METRICS_PORT);
+			logger.info("Using configured metricsPort of: "
+					+ metricsPort.toString());
+		} else {
+			logger.info("Not using metricsPort, not serving metrics.");
+		}
+
+		// get allocation profiling
+		if (configJSON.containsKey(ALLOCATION_PROFILING)) {
+			allocationProfiling = (Boolean) configJSON.get(
+				ALLOCATION_PROFILING);
+			logger.info("Using configured allocationProfiling of: "
+					+ allocationProfiling.toString());
+		} else {
+			logger.info("Not using allocationProfiling, not measuring " 
+						+ "allocation.");
+		}
+
+		// get shutdown timeout
+		if (configJSON.containsKey(SHUTDOWN_TIMEOUT)) {
+			shutdownTimeout = (Long) configJSON.get(SHUTDOWN_TIMEOUT);
+			logger.info("Using configured shutdownTimeout of: "
+					+ shutdownTimeout.toString());
+		} else {
+			logger.info("Using default shutdownTimeout of: "
+					+ shutdownTimeout.toString());
 		}
 
 		// get broker config
-		JSONObject brokerConfig = null;
 		if (configJSON.containsKey(BROKER_CONFIG)) {
 			brokerConfig = (JSONObject) configJSON.get(BROKER_CONFIG);
 		} else {
 			logger.error(
 					"Error, did not find HazdevBrokerConfig in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get topic list
-		ArrayList<String> topicList = null;
 		if (configJSON.containsKey(TOPIC_LIST)) {
 			topicList = new ArrayList<String>();
 			JSONArray topicArray = (JSONArray) configJSON.get(TOPIC_LIST);
@@ -286,23 +485,125 @@ public class ConsumerClient {
 			}
 		} else {
 			logger.error("Error, did not find TopicList in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// nullcheck
 		if (topicList == null) {
 			logger.error("Error, invalid TopicList from configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		logger.info("----------Processed Config----------");
+		return (true);
+	}
+
+	/**
+	 * run function for ConsumerClient, consumes messages and writes them to
+	 * files until stopped, must be called after a successful configure
+	 */
+	public static void run() {
+
+		// setup heartbeat files
+		String heartbeatDirectory = null;
+		if (writeHeartbeatFile == true) {
+			heartbeatDirectory = outputDirectory;
+		}
 
 		// get client id
 		JSONObject brokerProps = (JSONObject) brokerConfig.get("Properties");
 		String clientID = (String) brokerProps.get("client.id");
 
+		// offsets are committed once messages are written to files, not by
+		// the kafka consumer on its own
+		brokerProps.put("enable.auto.commit", "false");
+		logger.info("Using enable.auto.commit of: false");
+
 		// create consumer
-		Consumer m_Consumer = new Consumer(brokerConfig, heartbeatDirectory);
+		final Consumer m_Consumer = new Consumer(brokerConfig, 
+			heartbeatDirectory);
+
+		// drain and close when stopped
+		GracefulShutdown shutdown = new GracefulShutdown("ConsumerClient", 
+			shutdownTimeout.longValue());
+		shutdown.addWakeup(new Runnable() {
+			@Override
+			public void run() {
+				m_Consumer.wakeup();
+			}
+		});
+		shutdown.install();
+
+		// set up metrics
+		MetricsRegistry registry = MetricsRegistry.getDefault();
+		m_Consumer.setMetricsRegistry(registry);
+		String metricsClientId = String.valueOf(clientID);
+		fileWriteLatency = registry.histogram(
+			"hazdev_consumerclient_file_write_latency", 
+			"Time taken to write each output file", 
+			"client_id", metricsClientId);
+		filesWritten = registry.counter(
+			"hazdev_consumerclient_files_written_total", 
+			"Output files written", "client_id", metricsClientId);
+		messagesWritten = registry.counter(
+			"hazdev_consumerclient_messages_written_total", 
+			"Messages written to output files", 
+			"client_id", metricsClientId);
+		registry.register(new Gauge("hazdev_consumerclient_queue_depth", 
+			"Messages waiting to be written to an output file", 
+			"client_id", metricsClientId) {
+				@Override
+				public double getValue() {
+					return (fileQueue.size());
+				}
+			});
+
+		// measure allocation if configured
+		if (allocationProfiling == true) {
+			setAllocationProfiler(new AllocationProfiler(registry, 
+				metricsClientId));
+			m_Consumer.setAllocationProfiler(allocationProfiler);
+		}
+
+		// serve metrics if configured
+		if (metricsPort != null) {
+			metricsServer = new MetricsHttpServer(registry);
+			try {
+				metricsServer.start(metricsPort.intValue());
+			} catch (IOException e) {
+				logger.error("Error starting metrics server: " + e.toString());
+			}
+		}
+
+		// write the queued messages before partitions move to another
+		// consumer, so their offsets can be committed without the new owner
+		// reprocessing them
+		m_Consumer.setRebalanceHandler(new RebalanceHandler() {
+			@Override
+			public boolean partitionsRevoked(
+				Collection<TopicPartition> partitions) {
+				// the consumer commits the returned offsets itself, older 
+				// checkpoints must not be committed after them
+				writeCheckpoints.clear();
+				if (fileQueue.isEmpty()) {
+					return (true);
+				}
+
+				// this runs inside poll and holds up the whole group's
+				// rebalance, so write the queue as one file without the
+				// sleep between files
+				logger.info("Writing " + String.valueOf(fileQueue.size()) + 
+					" pending messages before handing off partitions.");
+				return (writeMessageFile(fileQueue.size()));
+			}
+
+			@Override
+			public void partitionsAssigned(
+				Map<TopicPartition, Long> positions) {
+				// the file queue is not kept per partition, so there is
+				// nothing to warm
+			}
+		});
 
 		// subscribe to topics
 		m_Consumer.subscribe(topicList);
@@ -312,34 +613,16 @@ public class ConsumerClient {
 			m_Consumer.VERSION_PATCH);
 
 		// run until stopped
-		while (true) {
-			logKafkaMetrics(m_Consumer, clientID, topicList);
+		while (!shutdown.isStopping()) {
+			long loopAllocationStart = (loopAllocation != null) ?
+				AllocationProfiler.getAllocatedBytes() : -1;
+			int loopMessages = 0;
+
+			logMetrics();
 
 			// if we are checking heartbeat times
 			if (heartbeatInterval != null) {
-
-				// get current time in seconds
-				Long timeNow = System.currentTimeMillis() / 1000;
-
-				// get last heartbeat time
-				Long lastHB = m_Consumer.getLastHeartbeatTime();
-
-				// calculate elapsed time
-				Long elapsedTime = timeNow - lastHB;
-
-				// has it been too long since the last heartbeat?
-				if (elapsedTime > heartbeatInterval) {
-					logger.error("No Heartbeat Message seen from topic(s)" + 
-						" in " + heartbeatInterval.toString() + " seconds! (" +
-						elapsedTime.toString() + ")");
-
-					// reset last heartbeat time so that we don't fill the 
-					// log
-					m_Consumer.setLastHeartbeatTime(timeNow);
-				} else {
-					logger.debug("Heartbeat seen from topic(s) (" +
-						elapsedTime.toString() + ")");
-				}
+				checkHeartbeats(m_Consumer);
 			}
 
 			// get any messages from broker
@@ -349,6 +632,10 @@ public class ConsumerClient {
 				// nullcheck brokerMessages (null means no messages)
 				// and make sure we got some messages
 				if ((brokerMessages != null) && (brokerMessages.size() != 0)) {
+					loopMessages = brokerMessages.size();
+					long queueAllocationStart = (queueAllocation != null) ?
+						AllocationProfiler.getAllocatedBytes() : -1;
+
 					// add all messages in brokerMessages to file queue
 					for (int i = 0; i < brokerMessages.size(); i++) {
 
@@ -367,7 +654,20 @@ public class ConsumerClient {
 
 						// add string to queue
 						fileQueue.add(message);
+						queuedCount++;
 					} // end for each new broker message
+
+					// the returned offsets can be committed once every
+					// message queued so far is written
+					WriteCheckpoint checkpoint = new WriteCheckpoint();
+					checkpoint.queuedCount = queuedCount;
+					checkpoint.offsets = m_Consumer.getReturnedOffsets();
+					writeCheckpoints.add(checkpoint);
+
+					if (queueAllocation != null) {
+						queueAllocation.record(queueAllocationStart, 
+							loopMessages);
+					}
 				}	// end if there are new broker messages	
 
 				// write file containing messages to disk
@@ -391,16 +691,14 @@ public class ConsumerClient {
 				// a file
 				} else if (timePerFile != null) {
 
-					// get current time in seconds
-					Long timeNow = System.currentTimeMillis() / 1000;
-
-					// calculate elapsed time
-					Long elapsedTime = timeNow - lastFileWriteTime;
+					// calculate elapsed time in seconds
+					long elapsedTime = (System.nanoTime() - 
+						lastFileWriteNanos) / 1000000000L;
 
 					// has it been long enough:
 					if (elapsedTime > timePerFile) {
 						logger.info("Writing output file due to time, "
-								+ elapsedTime.toString()
+								+ String.valueOf(elapsedTime)
 								+ " seconds since last file");
 
 						// write all pending messages in the queue to disk
@@ -409,12 +707,88 @@ public class ConsumerClient {
 						writeMessagesToDisk(fileQueue.size());
 					}
 				}
+
+				// commit what has been written
+				commitWritten(m_Consumer);
 			} catch	(Exception e) {
 
 				// log exception
 				logger.error(e.toString());
-			}	
+			} finally {
+				if (loopAllocation != null) {
+					loopAllocation.record(loopAllocationStart, loopMessages);
+				}
+			}
+		}
+
+		// write the remaining messages, then commit what was written and
+		// leave the consumer group
+		logger.info("Shutting down, writing " + 
+			String.valueOf(fileQueue.size()) + " pending messages.");
+
+		// leave at least half the remaining time to commit and close
+		boolean drained = drainFileQueue(shutdown.getRemainingMillis() / 2);
+		if (!drained) {
+			// only commit the polls whose messages were all written, the
+			// rest are read again on restart
+			commitWritten(m_Consumer);
+		}
+		m_Consumer.close(shutdown.getRemainingMillis(), drained);
+
+		if (metricsServer != null) {
+			metricsServer.stop();
 		}
+
+		logger.info("ConsumerClient stopped.");
+		shutdown.finished();
+	}
+
+	/**
+	 * Commits the offsets of the latest poll whose messages have all been 
+	 * written to files
+	 *
+	 * @param consumer
+	 *            - The Consumer to commit with
+	 */
+	private static void commitWritten(Consumer consumer) {
+		WriteCheckpoint written = null;
+		while (!writeCheckpoints.isEmpty() && 
+			(writeCheckpoints.peek().queuedCount <= writtenCount)) {
+			written = writeCheckpoints.remove();
+		}
+
+		if (written != null) {
+			consumer.commitAsync(written.offsets);
+		}
+	}
+
+	/**
+	 * Queue draining function for ConsumerClient, used on shutdown, writes 
+	 * the messages in the file queue to files of up to messagesPerFile 
+	 * messages without sleeping between files, until the queue is empty or
+	 * the provided time runs out
+	 *
+	 * @param timeout
+	 *            - A long containing the maximum time to spend writing in
+	 *            milliseconds
+	 * @return Returns true if every message was written, false otherwise
+	 */
+	public static boolean drainFileQueue(long timeout) {
+		long drainEnd = System.nanoTime() + (timeout * 1000000L);
+		while (!fileQueue.isEmpty()) {
+			if (System.nanoTime() - drainEnd >= 0) {
+				logger.error("Out of time writing pending messages, " + 
+					String.valueOf(fileQueue.size()) + " not written.");
+				return (false);
+			}
+			if (!writeMessageFile((int) Math.min(fileQueue.size(), 
+				messagesPerFile.longValue()))) {
+				logger.error("Error writing pending messages, " + 
+					String.valueOf(fileQueue.size()) + " not written.");
+				return (false);
+			}
+		}
+		return (true);
 	}
 
 	/**
@@ -431,26 +805,61 @@ public class ConsumerClient {
 			// sleep a little while before writing the file to avoid
 			// file name duplication issues
 			Thread.sleep(FILE_SLEEP_MS);
+		} catch (InterruptedException e) {
+
+			// log exception
+			logger.error("writeMessagesToDisk: " + e.toString());
+			return (false);
+		}
+
+		return (writeMessageFile(numToWrite));
+	}
+
+	/**
+	 * File writing function for ConsumerClient, writes the file without first
+	 * sleeping, a file written within the same millisecond as the last one is
+	 * named for the next millisecond so the name is still unique. The 
+	 * messages are only taken off the file queue once the file is written.
+	 *
+	 * @param numToWrite
+	 *            - An Integer containing the number of messages to write in
+	 *            this file.
+	 * @return Returns true if successful, false otherwise
+	 */
+	public static boolean writeMessageFile(Integer numToWrite) {
 
-			// get current time in milliseconds
-			Long timeNow = System.currentTimeMillis();
+		try {
+			long writeStart = System.nanoTime();
+			long writeAllocationStart = (writeAllocation != null) ?
+				AllocationProfiler.getAllocatedBytes() : -1;
+			int messageCount = 0;
+
+			// get current time in milliseconds, after the last file's
+			long timeNow = Math.max(System.currentTimeMillis(), 
+				lastFileMillis + 1);
+			lastFileMillis = timeNow;
 
 			// build filename from desired output directory, time, optional
 			// name, and extension
-			String outFileName = outputDirectory + "/" + timeNow.toString()
+			String outFileName = outputDirectory + "/" + String.valueOf(timeNow)
 					+ fileName + "." + fileExtension;
 
 			// Create string to write to file
 			String fileString = "";
 
+			// the messages stay queued until the file is written
+			Iterator<String> queueIterator = fileQueue.iterator();
+			int queueCount = 0;
+
 			for (int i = 0; i < numToWrite; i++) {
 				// don't try to write if we're out of messages
-				if (fileQueue.isEmpty()) {
+				if (!queueIterator.hasNext()) {
 					continue;
 				}
 
 				// get the next message to write
-				String messageString = fileQueue.remove();
+				String messageString = queueIterator.next();
+				queueCount++;
 
 				// nullcheck
 				if (messageString == null) {
@@ -468,6 +877,7 @@ public class ConsumerClient {
 
 				// add the message to the file string
 				fileString += messageString;
+				messageCount++;
 			}
 
 			// make sure we have something in the filestring to write (besides 
@@ -482,71 +892,191 @@ public class ConsumerClient {
 
 				// done with file
 				fileWriter.close();
+				if (fileWriter.checkError()) {
+					throw new IOException("Error writing " + outFileName);
+				}
+
+				// count it
+				if (fileWriteLatency != null) {
+					fileWriteLatency.record(System.nanoTime() - writeStart);
+					filesWritten.increment();
+					messagesWritten.add(messageCount);
+				}
 			}
 
-			// Remember the time we wrote this file in seconds
-			lastFileWriteTime = timeNow / 1000;
+			// the file is written, take its messages off the queue
+			for (int i = 0; i < queueCount; i++) {
+				fileQueue.remove();
+			}
+			writtenCount += queueCount;
+
+			// Remember the time we wrote this file
+			lastFileWriteNanos = System.nanoTime();
+
+			if (writeAllocation != null) {
+				writeAllocation.record(writeAllocationStart, messageCount);
+			}
 		} catch (Exception e) {
 
 			// log exception
-			logger.error("writeMessagesToDisk: " + e.toString());
+			logger.error("writeMessageFile: " + e.toString());
 			return (false);
 		}
 
 		return (true);
 	}
 
-	public static void logKafkaMetrics(Consumer myConsumer, 
-			String clientID, ArrayList<String> topicList) {
-
-	// get current time in seconds
-	Long timeNow = System.currentTimeMillis() / 1000;
-
-	// calculate elapsed time
-	Long elapsedTime = timeNow - lastMetricTime;
-
-	if (elapsedTime >= metricInterval) {
-		// overall metrics
-		ArrayList<String> recordsLagMax = myConsumer.getKafkaMetric(
-			"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" + 
-			clientID, "records-lag-max");
-		logger.info("KafkaMetric - " + recordsLagMax.toString());
-
-		ArrayList<String> fetchRate = myConsumer.getKafkaMetric(
-			"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" + 
-			clientID, "fetch-rate");
-		logger.info("KafkaMetric - " + fetchRate.toString());
-
-		// topic specific metrics
-		for (int i = 0; i < topicList.size(); i++) {
-			String topic = topicList.get(i);
-
-			// for records lag, we need to check all partitions
-			ArrayList<String> partitionList = myConsumer.getPartitions(topic);
-			for (int j = 0; j < partitionList.size(); j++) {
-				String partition = partitionList.get(j);
-
-				ArrayList<String> recordsLag = myConsumer.getKafkaMetric(
-					"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" 
-					+ clientID + ",topic=" + topic + ",partition=" + partition, 
-					"records-lag");
-				logger.info("KafkaMetric - " + topic + " - " + partition + " - " + 
-					recordsLag.toString());
+	/**
+	 * Sets up the output file settings and an empty file queue, used to write
+	 * files with writeMessagesToDisk without running main, such as in the
+	 * benchmarks
+	 *
+	 * @param newOutputDirectory
+	 *            - A String containing the output directory
+	 * @param newFileExtension
+	 *            - A String containing the output file extension
+	 * @param newFileName
+	 *            - A String containing the optional output file name, empty
+	 *            if not used
+	 */
+	public static void setupOutput(String newOutputDirectory, 
+		String newFileExtension, String newFileName) {
+		outputDirectory = newOutputDirectory;
+		fileExtension = newFileExtension;
+		fileName = newFileName;
+		fileQueue = new LinkedList<String>();
+		queuedCount = 0;
+		writtenCount = 0;
+		writeCheckpoints = new LinkedList<WriteCheckpoint>();
+		lastFileWriteNanos = System.nanoTime();
+	}
+
+	/**
+	 * Checks that a heartbeat has been seen on each topic, and from each 
+	 * producer that has sent heartbeats, within the heartbeat interval, so
+	 * one healthy topic or producer does not hide a dead one. Each missing
+	 * heartbeat is logged once per heartbeat interval.
+	 *
+	 * @param consumer
+	 *            - The Consumer to check
+	 */
+	private static void checkHeartbeats(Consumer consumer) {
+		// get current time in seconds
+		long timeNow = System.currentTimeMillis() / 1000;
+
+		// once a second is plenty
+		if (timeNow == lastHeartbeatCheckTime) {
+			return;
+		}
+		lastHeartbeatCheckTime = timeNow;
+
+		// check each topic
+		for (String topic : consumer.getTopics()) {
+			long elapsedTime = timeNow - consumer.getLastHeartbeatTime(topic);
+
+			// has it been too long since the last heartbeat?
+			if (elapsedTime > heartbeatInterval) {
+				if (shouldLogHeartbeatError(topic, timeNow)) {
+					logger.error("No Heartbeat Message seen from topic " + 
+						topic + " in " + heartbeatInterval.toString() + 
+						" seconds! (" + String.valueOf(elapsedTime) + ")");
+				}
+			} else {
+				logger.debug("Heartbeat seen from topic " + topic + " (" +
+					String.valueOf(elapsedTime) + ")");
+			}
+		}
+
+		// check each producer
+		for (HeartbeatTable.Source source : 
+			consumer.getHeartbeatTable().getSources()) {
+			long elapsedTime = timeNow - 
+				(source.getLastHeartbeatTime() / 1000);
+
+			if ((elapsedTime > heartbeatInterval) && 
+				shouldLogHeartbeatError(source.getTopic() + "/" + 
+					source.getClientId(), timeNow)) {
+				logger.error("No Heartbeat Message seen from client " + 
+					source.getClientId() + " on topic " + source.getTopic() + 
+					" in " + heartbeatInterval.toString() + " seconds! (" + 
+					String.valueOf(elapsedTime) + ")");
 			}
+		}
+	}
 
-			ArrayList<String> bytesConsumedRate = myConsumer.getKafkaMetric(
-				"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" 
-				+ clientID + ",topic=" + topic, "bytes-consumed-rate");
-			logger.info("KafkaMetric - " + topic + " - " + bytesConsumedRate.toString());
+	/**
+	 * Checks whether a missing heartbeat should be logged, so that each is
+	 * only logged once per heartbeat interval and does not fill the log
+	 *
+	 * @param key
+	 *            - A String identifying the missing heartbeat
+	 * @param timeNow
+	 *            - A long containing the current time in seconds
+	 * @return Returns true if the missing heartbeat should be logged
+	 */
+	private static boolean shouldLogHeartbeatError(String key, long timeNow) {
+		Long lastErrorTime = heartbeatErrorTimes.get(key);
+		if ((lastErrorTime != null) && 
+			((timeNow - lastErrorTime) <= heartbeatInterval)) {
+			return (false);
+		}
+		heartbeatErrorTimes.put(key, timeNow);
+		return (true);
+	}
 
-			ArrayList<String> recordsConsumedRate =myConsumer.getKafkaMetric(
-				"kafka.consumer:type=consumer-fetch-manager-metrics,client-id=" 
-				+ clientID + ",topic=" + topic, "records-consumed-rate");
-			logger.info("KafkaMetric - " + topic + " - " + recordsConsumedRate.toString());
+	/**
+	 * Sets the allocation profiler used to measure the bytes allocated adding
+	 * polled messages to the file queue, as the "queue" stage, writing each
+	 * output file, as the "write" stage, and by each whole iteration of the
+	 * main loop, as the "loop" stage
+	 *
+	 * @param profiler
+	 *            - The AllocationProfiler to use, null to stop profiling
+	 */
+	public static void setAllocationProfiler(AllocationProfiler profiler) {
+		allocationProfiler = profiler;
+		if (profiler == null) {
+			queueAllocation = null;
+			writeAllocation = null;
+			loopAllocation = null;
+			return;
 		}
 
-		lastMetricTime = timeNow;
+		queueAllocation = profiler.getStage("queue");
+		writeAllocation = profiler.getStage("write");
+		loopAllocation = profiler.getStage("loop");
+	}
+
+	/**
+	 * @return the queue of messages waiting to be written to a file
+	 */
+	public static Queue<String> getFileQueue() {
+		return fileQueue;
+	}
+
+	/**
+	 * Metrics logging function for ConsumerClient, logs every metric in the 
+	 * metrics registry, including the kafka client metrics, and the allocation
+	 * of each stage of the main loop when profiling, once every 
+	 * metricInterval seconds
+	 */
+	public static void logMetrics() {
+
+		// calculate elapsed time
+		long timeNow = System.nanoTime();
+		long elapsedNanos = timeNow - lastMetricNanos;
+
+		if (elapsedNanos >= (metricInterval * 1000000000L)) {
+			// when hosted the shared metrics are logged once by MultiClient
+			if (!hosted) {
+				MetricsRegistry.getDefault().logMetrics(logger);
+			}
+			if (allocationProfiler != null) {
+				allocationProfiler.logStages(logger);
+			}
+
+			lastMetricNanos = timeNow;
+		}
 	}
-}
 
 }
@@ -0,0 +1,293 @@
+package gov.usgs.hazdevbroker;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to measure how many bytes are allocated by each
+ * stage of a client loop, such as polling or writing files, using the per
+ * thread allocation counters of the JVM. Each stage reports the bytes
+ * allocated, the messages handled, and the number of calls to the metrics
+ * registry, along with the average bytes allocated per message and per call,
+ * so allocation regressions show up without attaching a profiler. Measuring
+ * is a diagnostic mode, and does nothing on JVMs without per thread
+ * allocation counters.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class AllocationProfiler {
+
+	/**
+	 * The JVM thread bean with allocation counters, null if not supported
+	 */
+	private static final com.sun.management.ThreadMXBean threadBean =
+		getThreadBean();
+
+	/**
+	 * The registry to report the stages to
+	 */
+	private MetricsRegistry metricsRegistry;
+
+	/**
+	 * The client id to label the stages with
+	 */
+	private String clientId;
+
+	/**
+	 * The stages, keyed by name, in the order they were created
+	 */
+	private LinkedHashMap<String, Stage> stages;
+
+	/**
+	 * Log4J logger for AllocationProfiler
+	 */
+	static Logger logger = Logger.getLogger(AllocationProfiler.class);
+
+	/**
+	 * A stage of a client loop that allocation is measured for
+	 */
+	public static class Stage {
+
+		/**
+		 * The name of the stage
+		 */
+		private String name;
+
+		/**
+		 * The client id the stage is labeled with
+		 */
+		private String clientId;
+
+		/**
+		 * The bytes allocated by the stage
+		 */
+		private Counter bytes;
+
+		/**
+		 * The messages handled by the stage
+		 */
+		private Counter messages;
+
+		/**
+		 * The number of calls to the stage
+		 */
+		private Counter calls;
+
+		/**
+		 * The counts when the stage was last logged
+		 */
+		private long lastBytes = 0;
+		private long lastMessages = 0;
+		private long lastCalls = 0;
+
+		/**
+		 * The constructor for the Stage class.
+		 *
+		 * @param newName
+		 *            - A String containing the name of the stage
+		 * @param registry
+		 *            - The MetricsRegistry to report the stage to
+		 * @param newClientId
+		 *            - A String containing the client id to label the stage
+		 *            with
+		 */
+		Stage(String newName, MetricsRegistry registry, String newClientId) {
+			name = newName;
+			clientId = newClientId;
+			bytes = registry.counter("hazdev_allocated_bytes_total",
+				"Bytes allocated by each stage of the client loop",
+				"client_id", clientId, "stage", name);
+			messages = registry.counter("hazdev_allocation_messages_total",
+				"Messages handled by each profiled stage of the client loop",
+				"client_id", clientId, "stage", name);
+			calls = registry.counter("hazdev_allocation_calls_total",
+				"Calls to each profiled stage of the client loop",
+				"client_id", clientId, "stage", name);
+
+			registry.register(new Gauge("hazdev_allocated_bytes_per_message",
+				"Average bytes allocated per message by each stage of the " +
+				"client loop", "client_id", clientId, "stage", name) {
+					@Override
+					public double getValue() {
+						long count = messages.getCount();
+						return ((count > 0) ?
+							((double) bytes.getCount() / count) : 0);
+					}
+				});
+			registry.register(new Gauge("hazdev_allocated_bytes_per_call",
+				"Average bytes allocated per call by each stage of the " +
+				"client loop", "client_id", clientId, "stage", name) {
+					@Override
+					public double getValue() {
+						long count = calls.getCount();
+						return ((count > 0) ?
+							((double) bytes.getCount() / count) : 0);
+					}
+				});
+		}
+
+		/**
+		 * Records one call to the stage
+		 *
+		 * @param startBytes
+		 *            - A long containing the bytes the calling thread had
+		 *            allocated when the stage started, from
+		 *            AllocationProfiler.getAllocatedBytes()
+		 * @param messageCount
+		 *            - An int containing the number of messages the call
+		 *            handled
+		 */
+		public void record(long startBytes, int messageCount) {
+			if (startBytes < 0) {
+				return;
+			}
+			long endBytes = getAllocatedBytes();
+			if (endBytes < startBytes) {
+				return;
+			}
+
+			bytes.add(endBytes - startBytes);
+			messages.add(messageCount);
+			calls.increment();
+		}
+
+		/**
+		 * Logs the bytes allocated per message and per call since the stage
+		 * was last logged
+		 *
+		 * @param logger
+		 *            - A Logger to log to
+		 */
+		void log(Logger logger) {
+			long currentBytes = bytes.getCount();
+			long currentMessages = messages.getCount();
+			long currentCalls = calls.getCount();
+
+			long intervalBytes = currentBytes - lastBytes;
+			long intervalMessages = currentMessages - lastMessages;
+			long intervalCalls = currentCalls - lastCalls;
+
+			logger.info("Allocation - " + clientId + " " + name + " " +
+				String.valueOf((intervalMessages > 0) ?
+					(intervalBytes / intervalMessages) : 0) +
+				" bytes/message " +
+				String.valueOf((intervalCalls > 0) ?
+					(intervalBytes / intervalCalls) : 0) +
+				" bytes/call over " + String.valueOf(intervalMessages) +
+				" messages " + String.valueOf(intervalCalls) + " calls");
+
+			lastBytes = currentBytes;
+			lastMessages = currentMessages;
+			lastCalls = currentCalls;
+		}
+
+		/**
+		 * @return the name of the stage
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * The constructor for the AllocationProfiler class.
+	 *
+	 * @param registry
+	 *            - The MetricsRegistry to report the stages to
+	 * @param newClientId
+	 *            - A String containing the client id to label the stages with
+	 */
+	public AllocationProfiler(MetricsRegistry registry, String newClientId) {
+		metricsRegistry = registry;
+		clientId = String.valueOf(newClientId);
+		stages = new LinkedHashMap<String, Stage>();
+
+		if (!isSupported()) {
+			logger.warn("Thread allocation counters are not supported by " +
+				"this JVM, not measuring allocation.");
+		}
+	}
+
+	/**
+	 * Gets or creates a stage
+	 *
+	 * @param name
+	 *            - A String containing the name of the stage
+	 * @return Returns the Stage
+	 */
+	public synchronized Stage getStage(String name) {
+		Stage stage = stages.get(name);
+		if (stage == null) {
+			stage = new Stage(name, metricsRegistry, clientId);
+			stages.put(name, stage);
+		}
+		return (stage);
+	}
+
+	/**
+	 * Logs the bytes allocated per message and per call by each stage since
+	 * the stages were last logged
+	 *
+	 * @param logger
+	 *            - A Logger to log to
+	 */
+	public synchronized void logStages(Logger logger) {
+		for (Stage stage : stages.values()) {
+			stage.log(logger);
+		}
+	}
+
+	/**
+	 * Checks whether the JVM supports per thread allocation counters
+	 *
+	 * @return Returns true if supported, false otherwise
+	 */
+	public static boolean isSupported() {
+		return (threadBean != null);
+	}
+
+	/**
+	 * Gets the total bytes allocated by the calling thread
+	 *
+	 * @return Returns a long containing the bytes allocated, -1 if not
+	 *         supported
+	 */
+	public static long getAllocatedBytes() {
+		if (threadBean == null) {
+			return (-1);
+		}
+		return (threadBean.getThreadAllocatedBytes(
+			Thread.currentThread().getId()));
+	}
+
+	/**
+	 * Gets the JVM thread bean, enabling its allocation counters
+	 *
+	 * @return Returns the thread bean, null if allocation counters are not
+	 *         supported
+	 */
+	private static com.sun.management.ThreadMXBean getThreadBean() {
+		try {
+			java.lang.management.ThreadMXBean bean =
+				ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+				return (null);
+			}
+
+			com.sun.management.ThreadMXBean allocationBean =
+				(com.sun.management.ThreadMXBean) bean;
+			if (!allocationBean.isThreadAllocatedMemorySupported()) {
+				return (null);
+			}
+			if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+				allocationBean.setThreadAllocatedMemoryEnabled(true);
+			}
+			return (allocationBean);
+		} catch (Throwable e) {
+			// not a hotspot jvm
+			return (null);
+		}
+	}
+}
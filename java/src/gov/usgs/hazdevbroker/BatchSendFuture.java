@@ -0,0 +1,255 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * A hazdev broker class used to track the completion of a batch of messages
+ * sent with Producer.sendBatch. The batch is done once every message in it
+ * has been acknowledged by the broker cluster or has failed. The result of
+ * the batch is the number of messages acknowledged, or the first failure.
+ * An optional callback is notified once when the batch is done, with the
+ * metadata of the last message acknowledged, or the first failure.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class BatchSendFuture implements Future<Long>, Callback {
+
+	/**
+	 * The callback to notify when the batch is done, null for none
+	 */
+	private Callback callback;
+
+	/**
+	 * The number of messages sent in the batch
+	 */
+	private long sentMessages;
+
+	/**
+	 * The number of messages sent that have not yet completed
+	 */
+	private long pendingMessages;
+
+	/**
+	 * The number of messages acknowledged by the broker cluster
+	 */
+	private long acknowledgedMessages;
+
+	/**
+	 * Flag indicating that every message in the batch has been sent
+	 */
+	private boolean sealed;
+
+	/**
+	 * Flag indicating that every message in the batch has completed
+	 */
+	private boolean done;
+
+	/**
+	 * The first exception that occurred while sending, null if none
+	 */
+	private Exception exception;
+
+	/**
+	 * The metadata of the last message acknowledged, null if none
+	 */
+	private RecordMetadata lastMetadata;
+
+	/**
+	 * The constructor for the BatchSendFuture class.
+	 *
+	 * @param newCallback
+	 *            - A Callback to notify when the batch is done, null for none
+	 */
+	public BatchSendFuture(Callback newCallback) {
+		callback = newCallback;
+		sentMessages = 0;
+		pendingMessages = 0;
+		acknowledgedMessages = 0;
+		sealed = false;
+		done = false;
+		exception = null;
+		lastMetadata = null;
+	}
+
+	/**
+	 * Counts a message as sent, must be called before the message is handed
+	 * to the kafka producer
+	 */
+	synchronized void messageSent() {
+		sentMessages++;
+		pendingMessages++;
+	}
+
+	/**
+	 * Marks the batch as completely sent, the batch is done once all the sent
+	 * messages have completed
+	 */
+	void seal() {
+		synchronized (this) {
+			sealed = true;
+		}
+		checkDone();
+	}
+
+	/**
+	 * Kafka send completion callback, counts a message in the batch as
+	 * completed
+	 *
+	 * @param metadata
+	 *            - The RecordMetadata of the sent message, null on error
+	 * @param sendException
+	 *            - The Exception that occurred while sending, null on success
+	 */
+	@Override
+	public void onCompletion(RecordMetadata metadata,
+		Exception sendException) {
+		synchronized (this) {
+			pendingMessages--;
+
+			if (sendException != null) {
+				if (exception == null) {
+					exception = sendException;
+				}
+			} else {
+				acknowledgedMessages++;
+				lastMetadata = metadata;
+			}
+		}
+		checkDone();
+	}
+
+	/**
+	 * Finishes the batch if it has been completely sent and all sent messages
+	 * have completed, notifying the callback outside the lock
+	 */
+	private void checkDone() {
+		RecordMetadata doneMetadata;
+		Exception doneException;
+		synchronized (this) {
+			if (done || !sealed || (pendingMessages > 0)) {
+				return;
+			}
+			done = true;
+			notifyAll();
+
+			doneException = exception;
+			doneMetadata = (exception == null) ? lastMetadata : null;
+		}
+
+		if (callback != null) {
+			callback.onCompletion(doneMetadata, doneException);
+		}
+	}
+
+	/**
+	 * Batches can not be cancelled
+	 *
+	 * @return Returns false
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return (false);
+	}
+
+	/**
+	 * @return false, batches can not be cancelled
+	 */
+	@Override
+	public boolean isCancelled() {
+		return (false);
+	}
+
+	/**
+	 * @return true if every message in the batch has completed
+	 */
+	@Override
+	public synchronized boolean isDone() {
+		return (done);
+	}
+
+	/**
+	 * Waits for every message in the batch to complete
+	 *
+	 * @return Returns the number of messages acknowledged
+	 * @throws ExecutionException
+	 *             if any message in the batch failed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Override
+	public synchronized Long get() throws InterruptedException,
+		ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return (getResult());
+	}
+
+	/**
+	 * Waits for every message in the batch to complete, up to the provided
+	 * timeout
+	 *
+	 * @param timeout
+	 *            - A long containing the time to wait
+	 * @param unit
+	 *            - The TimeUnit of the timeout
+	 * @return Returns the number of messages acknowledged
+	 * @throws ExecutionException
+	 *             if any message in the batch failed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws TimeoutException
+	 *             if the batch is not done before the timeout
+	 */
+	@Override
+	public synchronized Long get(long timeout, TimeUnit unit)
+		throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException("Batch not done, " +
+					String.valueOf(pendingMessages) + " messages pending");
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return (getResult());
+	}
+
+	/**
+	 * Gets the result of a done batch
+	 */
+	private Long getResult() throws ExecutionException {
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return (acknowledgedMessages);
+	}
+
+	/**
+	 * @return the number of messages sent in the batch
+	 */
+	public synchronized long getSentMessages() {
+		return sentMessages;
+	}
+
+	/**
+	 * @return the number of messages acknowledged by the broker cluster so far
+	 */
+	public synchronized long getAcknowledgedMessages() {
+		return acknowledgedMessages;
+	}
+
+	/**
+	 * @return true if any message in the batch failed
+	 */
+	public synchronized boolean hasFailed() {
+		return (exception != null);
+	}
+}
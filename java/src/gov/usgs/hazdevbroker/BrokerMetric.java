@@ -0,0 +1,141 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.*;
+
+/**
+ * A base class for hazdev broker metrics, holding the metric name,
+ * description, and labels.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public abstract class BrokerMetric {
+
+	/**
+	 * The name of this metric
+	 */
+	private String name;
+
+	/**
+	 * The description of this metric
+	 */
+	private String description;
+
+	/**
+	 * The labels of this metric, in the order they were provided
+	 */
+	private LinkedHashMap<String, String> labels;
+
+	/**
+	 * The id of this metric, made up of the name and labels
+	 */
+	private String id;
+
+	/**
+	 * The constructor for the BrokerMetric class.
+	 *
+	 * @param newName
+	 *            - A String containing the name of the metric
+	 * @param newDescription
+	 *            - A String containing the description of the metric
+	 * @param newLabels
+	 *            - A String[] containing the labels of the metric as
+	 *            alternating label names and values
+	 */
+	public BrokerMetric(String newName, String newDescription,
+		String... newLabels) {
+		name = newName;
+		description = newDescription;
+		labels = toLabelMap(newLabels);
+		id = formatId(name, labels);
+	}
+
+	/**
+	 * Converts the provided labels to a map
+	 *
+	 * @param labelArray
+	 *            - A String[] containing the labels as alternating label 
+	 *            names and values
+	 * @return Returns a LinkedHashMap&lt;String, String&gt; containing the 
+	 *         labels, in the order they were provided
+	 */
+	public static LinkedHashMap<String, String> toLabelMap(
+		String... labelArray) {
+		LinkedHashMap<String, String> labelMap = 
+			new LinkedHashMap<String, String>();
+
+		for (int i = 0; i + 1 < labelArray.length; i += 2) {
+			labelMap.put(labelArray[i], labelArray[i + 1]);
+		}
+
+		return (labelMap);
+	}
+
+	/**
+	 * Builds the id of a metric from the provided name and labels
+	 *
+	 * @param metricName
+	 *            - A String containing the name of the metric
+	 * @param metricLabels
+	 *            - A Map&lt;String, String&gt; containing the labels
+	 * @return Returns a String containing the metric id, formatted as
+	 *         name{label="value",...}
+	 */
+	public static String formatId(String metricName,
+		Map<String, String> metricLabels) {
+		if (metricLabels.isEmpty()) {
+			return (metricName);
+		}
+
+		StringBuilder idBuilder = new StringBuilder(metricName);
+		idBuilder.append('{');
+
+		boolean first = true;
+		for (Map.Entry<String, String> label : metricLabels.entrySet()) {
+			if (!first) {
+				idBuilder.append(',');
+			}
+			first = false;
+
+			idBuilder.append(label.getKey()).append("=\"")
+				.append(label.getValue()).append('"');
+		}
+
+		idBuilder.append('}');
+		return (idBuilder.toString());
+	}
+
+	/**
+	 * Formats the current value of this metric for logging
+	 *
+	 * @return Returns a String containing the formatted value
+	 */
+	public abstract String formatValue();
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the description
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	/**
+	 * @return the labels
+	 */
+	public Map<String, String> getLabels() {
+		return Collections.unmodifiableMap(labels);
+	}
+
+	/**
+	 * @return the id, made up of the name and labels
+	 */
+	public String getId() {
+		return id;
+	}
+}
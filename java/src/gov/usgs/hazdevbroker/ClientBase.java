@@ -2,17 +2,8 @@ package gov.usgs.hazdevbroker;
 
 import java.util.*;
 
-import javax.management.MBeanServer;
-import javax.management.MalformedObjectNameException;
-import javax.management.MBeanInfo;
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanAttributeInfo;
-import javax.management.ObjectName;
-import javax.management.ReflectionException;
-import javax.management.AttributeList;
-import java.beans.IntrospectionException;
-import java.lang.management.ManagementFactory;
-
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -51,7 +42,12 @@ public class ClientBase {
 	 */
 	static Logger baseLogger = Logger.getLogger(ClientBase.class);
 
-	private MBeanServer kafkaMetrics = null;
+	/**
+	 * Cache of the kafka metric names parsed from the JMX style names passed
+	 * to getKafkaMetric, so each name is only parsed once
+	 */
+	private HashMap<String, MetricName> parsedMetricNames = 
+		new HashMap<String, MetricName>();
 
 	/**
 	 * The constructor for the ClientBase class.
@@ -60,13 +56,15 @@ public class ClientBase {
 	}
 
 	/**
-	 * A function that pulls a kafka metric or metrics from JMX
+	 * A function that pulls a kafka metric or metrics from the kafka client
 	 *
 	 * @param metricName
-	 *            - A formatted String containing the name of the metric desired
+	 *            - A JMX style formatted String containing the name of the 
+	 *            metric desired, such as 
+	 *            kafka.producer:type=producer-metrics,client-id=producer1
 	 * @param metricAttribute
 	 *            - A String containing the name of the desired attribute of the metric
-	 * 				if empty, returns all attributes for this metric
+	 * 				if null or empty, returns all attributes for this metric
 	 * @return Returns an ArrayList containing the metric values as Strings
 	 */
 	public ArrayList<String> getKafkaMetric(String metricName, String metricAttribute) {
@@ -75,33 +73,164 @@ public class ClientBase {
 		if (metricName == null) {
 			return metrics;
 		}
-		if (kafkaMetrics == null) {
-			kafkaMetrics = ManagementFactory.getPlatformMBeanServer();
+
+		Map<MetricName, ? extends Metric> clientMetrics = kafkaMetrics();
+		if (clientMetrics == null) {
+			return metrics;
+		}
+
+		// parse the name into a group and tags, once
+		MetricName groupName = parsedMetricNames.get(metricName);
+		if (groupName == null) {
+			groupName = parseJMXMetricName(metricName);
+			if (groupName == null) {
+				baseLogger.debug("Invalid kafka metric name: " + metricName);
+				return metrics;
+			}
+			parsedMetricNames.put(metricName, groupName);
 		}
 
-		try {
-			ObjectName objName = new ObjectName(metricName);
+		if ((metricAttribute == null) || metricAttribute.isEmpty()) {
+			// we don't have a specific metric, so get all of them for this 
+			// group and set of tags
+			for (Map.Entry<MetricName, ? extends Metric> entry : 
+				clientMetrics.entrySet()) {
+				MetricName aName = entry.getKey();
 
-			if (metricAttribute == "") {
-				MBeanInfo info = kafkaMetrics.getMBeanInfo(objName);
-				MBeanAttributeInfo[] attrs = info.getAttributes();
-				
-				// we don't have a specific metric, so get all of them
-				for (int i = 0; i < attrs.length; i++) {
-					Object anAttribute = kafkaMetrics.getAttribute(objName, attrs[i].getName());
-					
-					metrics.add(attrs[i].getName() + "=" + anAttribute.toString());
+				if (aName.group().equals(groupName.group()) && 
+					aName.tags().equals(groupName.tags())) {
+					metrics.add(aName.name() + "=" + 
+						String.valueOf(entry.getValue().metricValue()));
 				}
-			} else {
-				Object anAttribute = kafkaMetrics.getAttribute(objName, metricAttribute);
-				metrics.add(metricAttribute + "=" + anAttribute.toString());	
 			}
-		} catch (Exception e) {
+		} else {
+			// look the metric up directly, metric names are equal if the 
+			// name, group, and tags are equal
+			Metric aMetric = clientMetrics.get(new MetricName(metricAttribute, 
+				groupName.group(), "", groupName.tags()));
+
+			if (aMetric != null) {
+				metrics.add(metricAttribute + "=" + 
+					String.valueOf(aMetric.metricValue()));
+			}
 		}
 
 		return metrics;
 	}
 
+	/**
+	 * A function that parses a JMX style kafka metric name into a kafka 
+	 * MetricName containing the group and tags (the name is left empty)
+	 *
+	 * @param metricName
+	 *            - A JMX style formatted String containing the name of the 
+	 *            metric, such as 
+	 *            kafka.producer:type=producer-metrics,client-id=producer1
+	 * @return Returns the MetricName, null if the name could not be parsed
+	 */
+	public static MetricName parseJMXMetricName(String metricName) {
+		
+		// skip the domain
+		int domainEnd = metricName.indexOf(':');
+		String keyProperties = metricName.substring(domainEnd + 1);
+
+		String group = null;
+		LinkedHashMap<String, String> tags = 
+			new LinkedHashMap<String, String>();
+
+		// the type is the group, everything else is a tag
+		for (String keyProperty : keyProperties.split(",")) {
+			int equalsIndex = keyProperty.indexOf('=');
+			if (equalsIndex <= 0) {
+				return (null);
+			}
+
+			String key = keyProperty.substring(0, equalsIndex).trim();
+			String value = keyProperty.substring(equalsIndex + 1).trim();
+
+			if (key.equals("type")) {
+				group = value;
+			} else {
+				tags.put(key, value);
+			}
+		}
+
+		if (group == null) {
+			return (null);
+		}
+
+		return (new MetricName("", group, "", tags));
+	}
+
+	/**
+	 * Gets the current values of all the numeric metrics of the underlying
+	 * kafka client, read in a single pass
+	 *
+	 * @return Returns a Map&lt;MetricName, Double&gt; containing the metric 
+	 *         values, empty if there is no kafka client
+	 */
+	public Map<MetricName, Double> getMetrics() {
+		HashMap<MetricName, Double> metricValues = 
+			new HashMap<MetricName, Double>();
+
+		Map<MetricName, ? extends Metric> clientMetrics = kafkaMetrics();
+		if (clientMetrics == null) {
+			return (metricValues);
+		}
+
+		for (Map.Entry<MetricName, ? extends Metric> entry : 
+			clientMetrics.entrySet()) {
+			Object metricValue = entry.getValue().metricValue();
+
+			if (metricValue instanceof Number) {
+				metricValues.put(entry.getKey(), 
+					((Number) metricValue).doubleValue());
+			}
+		}
+
+		return (metricValues);
+	}
+
+	/**
+	 * Gets the current value of a single metric of the underlying kafka 
+	 * client
+	 *
+	 * @param metricName
+	 *            - A MetricName identifying the metric, only the name, group,
+	 *            and tags are used
+	 * @return Returns the metric value, null if the metric was not found or 
+	 *         is not numeric
+	 */
+	public Double getMetric(MetricName metricName) {
+		Map<MetricName, ? extends Metric> clientMetrics = kafkaMetrics();
+		if (clientMetrics == null) {
+			return (null);
+		}
+
+		Metric aMetric = clientMetrics.get(metricName);
+		if (aMetric == null) {
+			return (null);
+		}
+
+		Object metricValue = aMetric.metricValue();
+		if (metricValue instanceof Number) {
+			return (((Number) metricValue).doubleValue());
+		}
+
+		return (null);
+	}
+
+	/**
+	 * Gets the metrics of the underlying kafka client, overridden by the 
+	 * Producer and Consumer
+	 *
+	 * @return Returns the kafka client's metrics, null if there is no kafka
+	 *         client
+	 */
+	Map<MetricName, ? extends Metric> kafkaMetrics() {
+		return (null);
+	}
+
 	/**
 	 * A function that converts a JSON formatted string into a populated java
 	 * Properties object.
@@ -0,0 +1,230 @@
+package gov.usgs.hazdevbroker;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to create the threads the clients run their
+ * pipelines, file reads, and background tasks on, either as platform
+ * threads or as virtual threads (JDK 21 or newer). The clients spend most
+ * of their time blocked polling kafka, waiting on acknowledgements, or
+ * writing files, which virtual threads handle without tying up an operating
+ * system thread each, so many more pipelines fit on one host. The library
+ * is built for Java 7, so virtual threads are created through reflection;
+ * on an older JDK the virtual mode falls back to platform threads. The mode
+ * applies to the whole JVM and defaults to platform threads.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class ClientThreads {
+
+	/**
+	 * String constants containing the thread modes
+	 */
+	public static final String PLATFORM_MODE = "Platform";
+	public static final String VIRTUAL_MODE = "Virtual";
+
+	/**
+	 * Flag indicating whether threads are created as virtual threads
+	 */
+	private static volatile boolean virtual = false;
+
+	/**
+	 * Thread.ofVirtual(), null if virtual threads are not supported
+	 */
+	private static Method ofVirtual = null;
+
+	/**
+	 * Thread.Builder.name(String), null if not supported
+	 */
+	private static Method builderName = null;
+
+	/**
+	 * Thread.Builder.name(String, long), null if not supported
+	 */
+	private static Method builderNameCounter = null;
+
+	/**
+	 * Thread.Builder.unstarted(Runnable), null if not supported
+	 */
+	private static Method builderUnstarted = null;
+
+	/**
+	 * Thread.Builder.factory(), null if not supported
+	 */
+	private static Method builderFactory = null;
+
+	/**
+	 * Executors.newThreadPerTaskExecutor(ThreadFactory), null if not supported
+	 */
+	private static Method newThreadPerTaskExecutor = null;
+
+	/**
+	 * Log4J logger for ClientThreads
+	 */
+	static Logger logger = Logger.getLogger(ClientThreads.class);
+
+	static {
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builderName = builderClass.getMethod("name", String.class);
+			builderNameCounter = builderClass.getMethod("name", String.class,
+				long.class);
+			builderUnstarted = builderClass.getMethod("unstarted",
+				Runnable.class);
+			builderFactory = builderClass.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod(
+				"newThreadPerTaskExecutor", ThreadFactory.class);
+
+			// preview builds have the methods but refuse to run them
+			ofVirtual.invoke(null);
+		} catch (Throwable e) {
+			ofVirtual = null;
+		}
+	}
+
+	/**
+	 * Sets the thread mode, falling back to platform threads if virtual
+	 * threads are not supported by this JVM
+	 *
+	 * @param mode
+	 *            - A String containing the thread mode, PLATFORM_MODE or
+	 *            VIRTUAL_MODE
+	 * @return Returns true if the mode was set, false if it was not valid or
+	 *         not supported
+	 */
+	public static boolean setMode(String mode) {
+		if (PLATFORM_MODE.equals(mode)) {
+			virtual = false;
+			return (true);
+		} else if (VIRTUAL_MODE.equals(mode)) {
+			if (!isVirtualSupported()) {
+				logger.warn("Virtual threads require JDK 21 or newer, " +
+					"using platform threads.");
+				virtual = false;
+				return (false);
+			}
+			virtual = true;
+			return (true);
+		}
+
+		logger.error("Invalid thread mode " + mode + ", expected " +
+			PLATFORM_MODE + " or " + VIRTUAL_MODE + ".");
+		return (false);
+	}
+
+	/**
+	 * @return the current thread mode, PLATFORM_MODE or VIRTUAL_MODE
+	 */
+	public static String getMode() {
+		return (virtual ? VIRTUAL_MODE : PLATFORM_MODE);
+	}
+
+	/**
+	 * @return true if this JVM supports virtual threads
+	 */
+	public static boolean isVirtualSupported() {
+		return (ofVirtual != null);
+	}
+
+	/**
+	 * Creates an unstarted thread in the current mode. Platform threads are
+	 * created as user threads, virtual threads are always daemons.
+	 *
+	 * @param runnable
+	 *            - A Runnable to run on the thread
+	 * @param name
+	 *            - A String containing the name of the thread
+	 * @return Returns the unstarted Thread
+	 */
+	public static Thread newThread(Runnable runnable, String name) {
+		if (virtual) {
+			try {
+				Object builder = builderName.invoke(ofVirtual.invoke(null),
+					name);
+				return ((Thread) builderUnstarted.invoke(builder, runnable));
+			} catch (Exception e) {
+				logger.error("Error creating virtual thread: " +
+					e.toString());
+			}
+		}
+		return (new Thread(runnable, name));
+	}
+
+	/**
+	 * Creates a thread factory in the current mode, naming each thread with
+	 * the provided prefix and a counter. Platform threads are created as
+	 * daemons, so they never keep the JVM running.
+	 *
+	 * @param prefix
+	 *            - A String containing the thread name prefix
+	 * @return Returns the ThreadFactory
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		if (virtual) {
+			try {
+				Object builder = builderNameCounter.invoke(
+					ofVirtual.invoke(null), prefix + "-", 1L);
+				return ((ThreadFactory) builderFactory.invoke(builder));
+			} catch (Exception e) {
+				logger.error("Error creating virtual thread factory: " +
+					e.toString());
+			}
+		}
+		return (newPlatformFactory(prefix));
+	}
+
+	/**
+	 * Creates an executor for blocking tasks in the current mode. With
+	 * platform threads, a fixed pool of the provided number of threads. With
+	 * virtual threads, a new virtual thread per task, so the caller bounds
+	 * the number of concurrent tasks.
+	 *
+	 * @param threads
+	 *            - An int containing the number of platform threads
+	 * @param prefix
+	 *            - A String containing the thread name prefix
+	 * @return Returns the ExecutorService
+	 */
+	public static ExecutorService newExecutor(int threads, String prefix) {
+		ThreadFactory factory = newThreadFactory(prefix);
+		if (virtual) {
+			try {
+				return ((ExecutorService) newThreadPerTaskExecutor.invoke(
+					null, factory));
+			} catch (Exception e) {
+				logger.error("Error creating virtual thread executor: " +
+					e.toString());
+				factory = newPlatformFactory(prefix);
+			}
+		}
+		return (Executors.newFixedThreadPool(Math.max(1, threads), factory));
+	}
+
+	/**
+	 * Creates a platform thread factory, naming each daemon thread with the
+	 * provided prefix and a counter
+	 *
+	 * @param prefix
+	 *            - A String containing the thread name prefix
+	 * @return Returns the ThreadFactory
+	 */
+	private static ThreadFactory newPlatformFactory(final String prefix) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return (new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, prefix + "-" +
+					String.valueOf(threadCount.incrementAndGet()));
+				thread.setDaemon(true);
+				return (thread);
+			}
+		});
+	}
+}
@@ -1,12 +1,19 @@
 package gov.usgs.hazdevbroker;
 
 import java.util.*;
-import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+import java.time.Duration;
 import java.io.UnsupportedEncodingException;
 import org.apache.log4j.Logger;
 
 import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.record.TimestampType;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
@@ -20,27 +27,183 @@ public class Consumer extends ClientBase {
 	/**
 	 * Optional configuration string defining the heartbeat directory
 	 */
-	private static String heartbeatDirectory;
+	private String heartbeatDirectory;
 
 	/**
 	 * The kafka consumer client
 	 */
-	private static org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer;
+	private org.apache.kafka.clients.consumer.Consumer<String, byte[]> consumer;
 
 	/**
 	 * The Heartbeat message processor
 	 */
-	private static Heartbeat heartbeatProcessor;
+	private Heartbeat heartbeatProcessor;
+
+	/**
+	 * The background heartbeat file writer, created when the first heartbeat
+	 * file needs to be written
+	 */
+	private HeartbeatFileWriter heartbeatWriter = null;
 
 	/**
 	 * Variable containing time of the last heartbeat.
 	 */
-	private static Long lastHeartbeatTime;
+	private volatile long lastHeartbeatTime;
+
+	/**
+	 * The time a heartbeat was last received from each topic and producer
+	 */
+	private HeartbeatTable heartbeatTable = new HeartbeatTable();
+
+	/**
+	 * The time the consumer subscribed in milliseconds, used as the last 
+	 * heartbeat time of topics that have not sent a heartbeat yet
+	 */
+	private long subscribeTime = System.currentTimeMillis();
 
 	/**
 	 * A collection of strings contining the topics 
 	 */	
-	private static Collection<String> topicList;
+	private Collection<String> topicList;
+
+	/**
+	 * The client id for this consumer
+	 */
+	private String clientId = null;
+
+	/**
+	 * The registry to report metrics to, null if not reporting metrics
+	 */
+	private MetricsRegistry metricsRegistry = null;
+
+	/**
+	 * The poll latency histogram, null if not reporting metrics
+	 */
+	private LatencyHistogram pollLatency = null;
+
+	/**
+	 * The end to end latency histograms, keyed by topic and then by the 
+	 * client id of the producer, null if not reporting metrics
+	 */
+	private HashMap<String, HashMap<String, LatencyHistogram>> 
+		endToEndLatency = null;
+
+	/**
+	 * The topic of the last end to end latency histogram used, so runs of
+	 * records from the same producer can skip the lookup
+	 */
+	private String lastLatencyTopic = null;
+
+	/**
+	 * The client id header of the last end to end latency histogram used
+	 */
+	private byte[] lastLatencyClientId = null;
+
+	/**
+	 * The last end to end latency histogram used
+	 */
+	private LatencyHistogram lastLatencyHistogram = null;
+
+	/**
+	 * The allocation measured around each poll, null if not profiling
+	 */
+	private AllocationProfiler.Stage pollAllocation = null;
+
+	/**
+	 * The allocation measured converting each poll to strings, null if not
+	 * profiling
+	 */
+	private AllocationProfiler.Stage pollStringAllocation = null;
+
+	/**
+	 * The number of seconds to go back when partitions are first assigned,
+	 * 0 to start from the committed (or reset) offsets
+	 */
+	private long backfillSeconds = 0;
+
+	/**
+	 * The number of records each poll gathers while backfilling
+	 */
+	private int backfillBatchSize = DEFAULT_BACKFILL_BATCH_SIZE;
+
+	/**
+	 * The partitions that have been backfilled, so that partitions are only
+	 * backfilled the first time they are assigned
+	 */
+	private HashSet<TopicPartition> backfilledPartitions = 
+		new HashSet<TopicPartition>();
+
+	/**
+	 * The offset after the last record returned by poll for each partition,
+	 * committed by commit and when partitions are revoked
+	 */
+	private HashMap<TopicPartition, Long> returnedOffsets = 
+		new HashMap<TopicPartition, Long>();
+
+	/**
+	 * The offset after the last record gathered by the poll in progress for
+	 * each partition, not yet returned
+	 */
+	private HashMap<TopicPartition, Long> gatheredOffsets = 
+		new HashMap<TopicPartition, Long>();
+
+	/**
+	 * The partitions still backfilling, with the end offset each needs to 
+	 * reach to be caught up
+	 */
+	private HashMap<TopicPartition, Long> backfillEndOffsets = 
+		new HashMap<TopicPartition, Long>();
+
+	/**
+	 * Flag indicating that any partition is still backfilling, readable from
+	 * other threads such as the metrics server
+	 */
+	private volatile boolean backfilling = false;
+
+	/**
+	 * The controller adapting polling to the arrival rate, null to return 
+	 * from each poll as soon as any messages arrive
+	 */
+	private volatile PollController pollController = null;
+
+	/**
+	 * The handler flushing and warming client state when partitions move,
+	 * null to leave offsets to the kafka consumer's own commits
+	 */
+	private volatile RebalanceHandler rebalanceHandler = null;
+
+	/**
+	 * Flag indicating that the kafka consumer commits offsets on its own
+	 * (enable.auto.commit, on unless configured otherwise)
+	 */
+	private boolean autoCommit = false;
+
+	/**
+	 * JSON Keys
+	 */
+	public static final String BACKFILL_SECONDS_KEY = "BackfillSeconds";
+	public static final String BACKFILL_BATCH_SIZE_KEY = "BackfillBatchSize";
+	public static final String ADAPTIVE_POLL_LINGER_KEY = "AdaptivePollLinger";
+	public static final String ADAPTIVE_POLL_MAX_BATCH_KEY = 
+		"AdaptivePollMaxBatch";
+
+	/**
+	 * Integer constant containing the default number of records each poll
+	 * gathers while backfilling
+	 */
+	public static final int DEFAULT_BACKFILL_BATCH_SIZE = 10000;
+
+	/**
+	 * String constant containing the source client id used for records 
+	 * without a client id header
+	 */
+	public static final String UNKNOWN_CLIENT_ID = "unknown";
+
+	/**
+	 * The records received counters for each topic
+	 */
+	private HashMap<String, Counter> receivedCounters = 
+		new HashMap<String, Counter>();
 
 	/**
 	 * Log4J logger for Consumer
@@ -60,7 +223,7 @@ public class Consumer extends ClientBase {
 		CONFIGTYPE_STRING = "ConsumerConfig";
 
 		// init last  heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);	
+		lastHeartbeatTime = System.currentTimeMillis() / 1000;	
 	}
 
 	/**
@@ -80,11 +243,12 @@ public class Consumer extends ClientBase {
 		CONFIGTYPE_STRING = "ConsumerConfig";
 
 		// init last  heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);		
+		lastHeartbeatTime = System.currentTimeMillis() / 1000;		
 
 		// configuration/setup
 		Properties configuration = convertJSONConfigToProp(configObject);
 		setup(configuration);
+		readPollingConfig(configObject);
 	}
 
 /**
@@ -107,7 +271,7 @@ public class Consumer extends ClientBase {
 		CONFIGTYPE_STRING = "ConsumerConfig";
 
 		// init last  heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);		
+		lastHeartbeatTime = System.currentTimeMillis() / 1000;		
 
 		// configuration/setup
 		Properties configuration = null;
@@ -119,6 +283,7 @@ public class Consumer extends ClientBase {
 		}
 
 		setup(configuration);	
+		readPollingConfig(configObject);
 	}
 
 	/**
@@ -140,12 +305,15 @@ public class Consumer extends ClientBase {
 		CONFIGTYPE_STRING = "ConsumerConfig";
 
 		// init last  heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);		
+		lastHeartbeatTime = System.currentTimeMillis() / 1000;		
 
 		// configuration/setup
 		Properties configuration = null;
 		try {
 			configuration = convertJSONStringToProp(configString);
+			if (configuration != null) {
+				readPollingConfig(Utility.fromJSONString(configString));
+			}
 		} catch (ParseException e) {
 			logger.error("ParseException converting configuration: " + e.toString());
 			throw (e);
@@ -176,12 +344,15 @@ public class Consumer extends ClientBase {
 		CONFIGTYPE_STRING = "ConsumerConfig";
 
 		// init last  heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);		
+		lastHeartbeatTime = System.currentTimeMillis() / 1000;		
 
 		// configuration/setup
 		Properties configuration = null;
 		try {
 			configuration = convertJSONStringToProp(configString);
+			if (configuration != null) {
+				readPollingConfig(Utility.fromJSONString(configString));
+			}
 		} catch (ParseException e) {
 			logger.error("ParseException converting configuration: " + e.toString());
 			throw (e);
@@ -190,6 +361,31 @@ public class Consumer extends ClientBase {
 		setup(configuration);		
 	}
 
+	/**
+	 * The advanced constructor for the Consumer class. Initializes members to
+	 * default values and uses the provided kafka consumer client, such as a
+	 * MockConsumer, instead of creating one from a configuration.
+	 *
+	 * @param kafkaConsumer
+	 *            - The kafka consumer client to use
+	 * @param hbDirectory
+	 * 			  - A String containing the directory to write heartbeat messages
+	 * Set to null to disable heartbeat messages
+	 */
+	public Consumer(
+		org.apache.kafka.clients.consumer.Consumer<String, byte[]> kafkaConsumer,
+		String hbDirectory) {
+		// init
+		consumer = kafkaConsumer;
+		heartbeatProcessor = new Heartbeat();
+		heartbeatDirectory = hbDirectory;
+		topicList = null;
+		CONFIGTYPE_STRING = "ConsumerConfig";
+
+		// init last  heartbeat time to now
+		lastHeartbeatTime = System.currentTimeMillis() / 1000;
+	}
+
 	/**
 	 * The setup function for the Consumer class. Uses the provided Properties 
 	 * configuration to configure the kafka producer client.
@@ -205,6 +401,16 @@ public class Consumer extends ClientBase {
 		}
 
 		try {
+			// remember the client id
+			if (configProperties.getProperty("client.id") != null) {
+				clientId = configProperties.getProperty("client.id");
+			}
+
+			// the kafka consumer auto commits unless told otherwise
+			Object autoCommitValue = configProperties.get("enable.auto.commit");
+			autoCommit = (autoCommitValue == null) || 
+				!"false".equalsIgnoreCase(autoCommitValue.toString());
+
 			// add any fixed configuration (like the serializer
 			configProperties.put("key.deserializer",
 					"org.apache.kafka.common.serialization.StringDeserializer");
@@ -225,6 +431,47 @@ public class Consumer extends ClientBase {
 		return(true);
 	}
 
+	/**
+	 * Reads the optional backfill and adaptive polling settings from the 
+	 * consumer configuration
+	 *
+	 * @param configObject
+	 *            - A JSONObject containing the configuration
+	 */
+	private void readPollingConfig(JSONObject configObject) {
+		if (configObject == null) {
+			return;
+		}
+
+		if (configObject.containsKey(BACKFILL_SECONDS_KEY)) {
+			setBackfillSeconds(((Number) configObject.get(
+				BACKFILL_SECONDS_KEY)).longValue());
+			logger.info("Using configured BackfillSeconds of: " + 
+				String.valueOf(backfillSeconds));
+		}
+
+		if (configObject.containsKey(BACKFILL_BATCH_SIZE_KEY)) {
+			setBackfillBatchSize(((Number) configObject.get(
+				BACKFILL_BATCH_SIZE_KEY)).intValue());
+			logger.info("Using configured BackfillBatchSize of: " + 
+				String.valueOf(backfillBatchSize));
+		}
+
+		if (configObject.containsKey(ADAPTIVE_POLL_LINGER_KEY)) {
+			long linger = ((Number) configObject.get(
+				ADAPTIVE_POLL_LINGER_KEY)).longValue();
+			int maxBatch = PollController.DEFAULT_MAX_BATCH;
+			if (configObject.containsKey(ADAPTIVE_POLL_MAX_BATCH_KEY)) {
+				maxBatch = ((Number) configObject.get(
+					ADAPTIVE_POLL_MAX_BATCH_KEY)).intValue();
+			}
+			setPollController(new PollController(linger, maxBatch));
+			logger.info("Using configured AdaptivePollLinger of: " + 
+				String.valueOf(linger) + " and AdaptivePollMaxBatch of: " +
+				String.valueOf(maxBatch));
+		}
+	}
+
 	/**
 	 * Subscribes the kafka consumer client to the provided topic
 	 *
@@ -243,10 +490,13 @@ public class Consumer extends ClientBase {
 	 *            subscribe to.
 	 */
 	public void subscribe(Collection<String> topics) {
-		consumer.subscribe(topics);
+		consumer.subscribe(topics, new RebalanceListener());
 
 		// remember the topic list for handling heartbeats
 		topicList = topics;
+		subscribeTime = System.currentTimeMillis();
+
+		registerTopicHeartbeatAges();
 	}
 
 	/**
@@ -261,27 +511,113 @@ public class Consumer extends ClientBase {
 	 */
 	public ArrayList<byte[]> poll(long timeout) {
 
+		long allocationStart = (pollAllocation != null) ?
+			AllocationProfiler.getAllocatedBytes() : -1;
+
 		ArrayList<byte[]> data = new ArrayList<byte[]>();
+		gatheredOffsets.clear();
 
 		// Negative value means wait for an arbitrarily long time
 		if (timeout < 0) {
 			timeout = Long.MAX_VALUE;
 		}
 
+		// while traffic is bursting, don't wait the full timeout for more
+		if (pollController != null) {
+			timeout = pollController.getPollTimeout(timeout);
+		}
+
 		// get any messages pending for our topic(s) from kafka
 		ConsumerRecords<String, byte[]> records = null;
+		long pollStart = System.nanoTime();
 		try {
 			records = consumer.poll(timeout);
+		} catch (WakeupException e) {
+			// woken up to shut down
+			return (null);
 		} catch (Exception e) { 
 			logger.error("Error calling consumer.poll: " + e.toString());
 			return (null);
 		}
 
+		if (pollLatency != null) {
+			pollLatency.record(System.nanoTime() - pollStart);
+		}
+
 		// nullcheck
 		if (records == null) {
 			return(null);
 		}
 
+		addRecords(records, data);
+
+		// while traffic is bursting, keep gathering messages into a larger
+		// batch, for up to the linger time
+		if ((pollController != null) && backfillEndOffsets.isEmpty()) {
+			int batchTarget = pollController.getBatchTarget();
+			long lingerEnd = System.nanoTime() + 
+				pollController.getLingerNanos();
+			while (pollController.isBatching() && !data.isEmpty() && 
+				(data.size() < batchTarget)) {
+				long remaining = (lingerEnd - System.nanoTime()) / 1000000L;
+				if (remaining <= 0) {
+					break;
+				}
+				try {
+					records = consumer.poll(remaining);
+				} catch (WakeupException e) {
+					break;
+				} catch (Exception e) { 
+					logger.error("Error calling consumer.poll: " + 
+						e.toString());
+					break;
+				}
+				addRecords(records, data);
+			}
+			pollController.record(data.size(), System.nanoTime());
+		}
+
+		// while backfilling, keep draining what has already been fetched
+		// into one large batch, until caught up
+		if (!backfillEndOffsets.isEmpty()) {
+			while ((data.size() < backfillBatchSize) && updateBackfill() && 
+				!records.isEmpty()) {
+				try {
+					records = consumer.poll(0);
+				} catch (WakeupException e) {
+					break;
+				} catch (Exception e) { 
+					logger.error("Error calling consumer.poll: " + 
+						e.toString());
+					break;
+				}
+				addRecords(records, data);
+			}
+			updateBackfill();
+		}
+
+		if (pollAllocation != null) {
+			pollAllocation.record(allocationStart, data.size());
+		}
+
+		// everything gathered is now returned
+		returnedOffsets.putAll(gatheredOffsets);
+		gatheredOffsets.clear();
+
+		return (data);
+	}
+
+	/**
+	 * Adds the records from a kafka poll to the provided data list, handling
+	 * and removing heartbeat messages
+	 *
+	 * @param records
+	 *            - The ConsumerRecords to add
+	 * @param data
+	 *            - An ArrayList&lt;byte[]&gt; to add the data to
+	 */
+	private void addRecords(ConsumerRecords<String, byte[]> records, 
+		ArrayList<byte[]> data) {
 		// go though each message, adding it to the return ArrayList
 		// removing heartbeat messages
 		for (ConsumerRecord<String, byte[]> record : records) {
@@ -290,6 +626,11 @@ public class Consumer extends ClientBase {
 				continue;
 			}
 
+			// count it
+			if (metricsRegistry != null) {
+				getReceivedCounter(record.topic()).increment();
+			}
+
 			// convert to string to see if this is a heartbeat
 			// note that if poll was called by pollString, we're
 			// converting *twice*, I'm not sure how to check for heartbeats
@@ -301,10 +642,297 @@ public class Consumer extends ClientBase {
 				handleHeartbeat(heartbeatProcessor);
 			} else {
 				data.add(record.value());
+
+				// measure how long it took to get here
+				if (endToEndLatency != null) {
+					recordEndToEndLatency(record);
+				}
 			}
 		}
 
-		return (data);
+		// remember how far each partition was gathered
+		for (TopicPartition partition : records.partitions()) {
+			List<ConsumerRecord<String, byte[]>> partitionRecords = 
+				records.records(partition);
+			gatheredOffsets.put(partition, partitionRecords.get(
+				partitionRecords.size() - 1).offset() + 1);
+		}
+	}
+
+	/**
+	 * Checks whether each backfilling partition has caught up to the end 
+	 * offset it had when it was assigned, switching back to low latency 
+	 * polling once every partition has caught up
+	 *
+	 * @return Returns true if still backfilling, false otherwise
+	 */
+	private boolean updateBackfill() {
+		if (backfillEndOffsets.isEmpty()) {
+			return (false);
+		}
+
+		Set<TopicPartition> assignment = consumer.assignment();
+		Iterator<Map.Entry<TopicPartition, Long>> iterator = 
+			backfillEndOffsets.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<TopicPartition, Long> entry = iterator.next();
+			try {
+				if (!assignment.contains(entry.getKey()) || 
+					(consumer.position(entry.getKey()) >= entry.getValue())) {
+					iterator.remove();
+				}
+			} catch (Exception e) {
+				logger.error("Error checking backfill position of " + 
+					entry.getKey().toString() + ": " + e.toString());
+				iterator.remove();
+			}
+		}
+
+		if (backfillEndOffsets.isEmpty()) {
+			backfilling = false;
+			logger.info("Backfill caught up, switching to low latency " + 
+				"polling.");
+			return (false);
+		}
+
+		return (true);
+	}
+
+	/**
+	 * Seeks each partition back to the backfill time the first time it is
+	 * assigned, and tracks the end offset it needs to reach to be caught up
+	 *
+	 * @param partitions
+	 *            - A Collection&lt;TopicPartition&gt; containing the newly
+	 *            assigned partitions
+	 */
+	private void backfill(Collection<TopicPartition> partitions) {
+		long backfillTime = System.currentTimeMillis() - 
+			(backfillSeconds * 1000);
+
+		HashMap<TopicPartition, Long> searchTimes = 
+			new HashMap<TopicPartition, Long>();
+		for (TopicPartition partition : partitions) {
+			if (!backfilledPartitions.contains(partition)) {
+				searchTimes.put(partition, backfillTime);
+			}
+		}
+
+		if (searchTimes.isEmpty()) {
+			return;
+		}
+
+		try {
+			Map<TopicPartition, OffsetAndTimestamp> backfillOffsets = 
+				consumer.offsetsForTimes(searchTimes);
+			Map<TopicPartition, Long> endOffsets = 
+				consumer.endOffsets(searchTimes.keySet());
+
+			for (TopicPartition partition : searchTimes.keySet()) {
+				backfilledPartitions.add(partition);
+
+				// null if there are no messages since the backfill time
+				OffsetAndTimestamp backfillOffset = 
+					backfillOffsets.get(partition);
+				if (backfillOffset == null) {
+					continue;
+				}
+
+				// only ever go back, a consumer that has been down longer 
+				// than the backfill time keeps its earlier position
+				if (backfillOffset.offset() < consumer.position(partition)) {
+					consumer.seek(partition, backfillOffset.offset());
+					logger.info("Backfilling " + partition.toString() + 
+						" from offset " + 
+						String.valueOf(backfillOffset.offset()));
+				}
+
+				Long endOffset = endOffsets.get(partition);
+				if ((endOffset != null) && 
+					(consumer.position(partition) < endOffset)) {
+					backfillEndOffsets.put(partition, endOffset);
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Error backfilling partitions: " + e.toString());
+		}
+
+		backfilling = !backfillEndOffsets.isEmpty();
+	}
+
+	/**
+	 * Rebalance listener used to hand client state off when partitions move,
+	 * and to backfill newly assigned partitions
+	 */
+	private class RebalanceListener implements ConsumerRebalanceListener {
+
+		/**
+		 * Flushes the client state and commits the offsets of the messages
+		 * already returned by poll before partitions are taken away, unless
+		 * the flush failed, and stops tracking their backfill
+		 *
+		 * @param partitions
+		 *            - A Collection&lt;TopicPartition&gt; containing the 
+		 *            revoked partitions
+		 */
+		@Override
+		public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+			RebalanceHandler handler = rebalanceHandler;
+			if ((handler != null) && !partitions.isEmpty()) {
+				logger.info("Partitions revoked: " + partitions.toString());
+				boolean flushed = false;
+				try {
+					flushed = handler.partitionsRevoked(partitions);
+				} catch (Exception e) {
+					logger.error("Error handling revoked partitions: " + 
+						e.toString());
+				}
+
+				// only what poll has returned has been handled, anything
+				// gathered by the poll in progress is read again by the
+				// partitions' new owner, as is everything if the handler
+				// could not flush it
+				if (flushed) {
+					commitReturned(partitions);
+				} else {
+					logger.warn("Revoked partitions not flushed, offsets " +
+						"not committed.");
+				}
+			}
+			forgetOffsets(partitions);
+			stopBackfill(partitions);
+		}
+
+		/**
+		 * Flushes the client state when partitions were lost without a clean
+		 * handoff, the offsets can no longer be committed
+		 *
+		 * @param partitions
+		 *            - A Collection&lt;TopicPartition&gt; containing the 
+		 *            lost partitions
+		 */
+		@Override
+		public void onPartitionsLost(Collection<TopicPartition> partitions) {
+			RebalanceHandler handler = rebalanceHandler;
+			if ((handler != null) && !partitions.isEmpty()) {
+				logger.warn("Partitions lost: " + partitions.toString());
+				try {
+					handler.partitionsRevoked(partitions);
+				} catch (Exception e) {
+					logger.error("Error handling lost partitions: " + 
+						e.toString());
+				}
+			}
+			forgetOffsets(partitions);
+			stopBackfill(partitions);
+		}
+
+		/**
+		 * Backfills newly assigned partitions, and warms the client state
+		 * with the offset each will be read from
+		 *
+		 * @param partitions
+		 *            - A Collection&lt;TopicPartition&gt; containing the 
+		 *            assigned partitions
+		 */
+		@Override
+		public void onPartitionsAssigned(
+			Collection<TopicPartition> partitions) {
+			if (backfillSeconds > 0) {
+				backfill(partitions);
+			}
+
+			RebalanceHandler handler = rebalanceHandler;
+			if ((handler == null) || partitions.isEmpty()) {
+				return;
+			}
+
+			// look the positions up now, during the rebalance, rather than
+			// in the first fetch
+			HashMap<TopicPartition, Long> positions = 
+				new HashMap<TopicPartition, Long>();
+			try {
+				for (TopicPartition partition : partitions) {
+					positions.put(partition, consumer.position(partition));
+				}
+			} catch (Exception e) {
+				logger.error("Error getting assigned positions: " + 
+					e.toString());
+			}
+
+			logger.info("Partitions assigned: " + positions.toString());
+			try {
+				handler.partitionsAssigned(positions);
+			} catch (Exception e) {
+				logger.error("Error handling assigned partitions: " + 
+					e.toString());
+			}
+		}
+
+		/**
+		 * Commits the offsets of the messages already returned by poll for
+		 * partitions that are being taken away
+		 *
+		 * @param partitions
+		 *            - A Collection&lt;TopicPartition&gt; containing the 
+		 *            partitions
+		 */
+		private void commitReturned(Collection<TopicPartition> partitions) {
+			HashMap<TopicPartition, OffsetAndMetadata> offsets = 
+				new HashMap<TopicPartition, OffsetAndMetadata>();
+			for (TopicPartition partition : partitions) {
+				Long offset = returnedOffsets.get(partition);
+				if (offset != null) {
+					offsets.put(partition, new OffsetAndMetadata(offset));
+				}
+			}
+			if (offsets.isEmpty()) {
+				return;
+			}
+
+			try {
+				consumer.commitSync(offsets);
+			} catch (WakeupException e) {
+				// a wakeup requested before the commit, try once more
+				try {
+					consumer.commitSync(offsets);
+				} catch (Exception e2) {
+					logger.error("Error committing revoked offsets: " + 
+						e2.toString());
+				}
+			} catch (Exception e) {
+				logger.error("Error committing revoked offsets: " + 
+					e.toString());
+			}
+		}
+
+		/**
+		 * Stops tracking the offsets of partitions that were taken away
+		 *
+		 * @param partitions
+		 *            - A Collection&lt;TopicPartition&gt; containing the 
+		 *            partitions
+		 */
+		private void forgetOffsets(Collection<TopicPartition> partitions) {
+			for (TopicPartition partition : partitions) {
+				returnedOffsets.remove(partition);
+				gatheredOffsets.remove(partition);
+			}
+		}
+
+		/**
+		 * Stops tracking the backfill of partitions that were taken away
+		 *
+		 * @param partitions
+		 *            - A Collection&lt;TopicPartition&gt; containing the 
+		 *            partitions
+		 */
+		private void stopBackfill(Collection<TopicPartition> partitions) {
+			for (TopicPartition partition : partitions) {
+				backfillEndOffsets.remove(partition);
+			}
+			backfilling = !backfillEndOffsets.isEmpty();
+		}
 	}
 
 	/**
@@ -329,6 +957,9 @@ public class Consumer extends ClientBase {
 			return(null);
 		}
 
+		long allocationStart = (pollStringAllocation != null) ?
+			AllocationProfiler.getAllocatedBytes() : -1;
+
 		// convert bytes to strings
 		for (byte[] aData : data) {
 			// nullcheck
@@ -339,6 +970,10 @@ public class Consumer extends ClientBase {
 			messages.add(new String(aData));
 		}
 
+		if (pollStringAllocation != null) {
+			pollStringAllocation.record(allocationStart, messages.size());
+		}
+
 		return (messages);
 	}
 
@@ -363,19 +998,215 @@ public class Consumer extends ClientBase {
 
 		// set the time the heartbeat was received in case our 
 		// caller is monitoring this
-		setLastHeartbeatTime(System.currentTimeMillis() / 1000);
+		long receiveTime = System.currentTimeMillis();
+		lastHeartbeatTime = receiveTime / 1000;
+		heartbeatTable.update(aHeartbeat.getTopic(), aHeartbeat.getClientId(),
+			receiveTime);
 
-		// write the heartbeat to disk (won't write if heartbeatDirectory is
-		// null)
-		try {
-			aHeartbeat.writeToDisk(heartbeatDirectory);
-		} catch (FileNotFoundException e) {
-			logger.error("FileNotFoundException " + e.toString());
+		// queue the heartbeat to be written to disk in the background 
+		// (won't write if heartbeatDirectory is null)
+		if (heartbeatDirectory == null) {
 			return;
-		} catch (UnsupportedEncodingException e) {
-			logger.error("UnsupportedEncodingException " + e.toString());
+		}
+		if (heartbeatWriter == null) {
+			heartbeatWriter = new HeartbeatFileWriter(heartbeatDirectory, 
+				HeartbeatFileWriter.DEFAULT_FLUSH_INTERVAL);
+		}
+		heartbeatWriter.write(aHeartbeat);
+	}
+
+	/**
+	 * Writes any heartbeat files still waiting to be written, and stops the
+	 * background heartbeat file writer
+	 */
+	public void closeHeartbeatWriter() {
+		if (heartbeatWriter != null) {
+			heartbeatWriter.close();
+			heartbeatWriter = null;
+		}
+	}
+
+	/**
+	 * Wakes up a poll blocked waiting for messages, so that it returns null
+	 * right away. Safe to call from any thread, such as a shutdown hook.
+	 */
+	public void wakeup() {
+		consumer.wakeup();
+	}
+
+	/**
+	 * Commits the offsets of the messages returned by poll so far, for the
+	 * partitions still assigned, waiting for the commit to complete
+	 *
+	 * @return Returns true if the offsets were committed, false otherwise
+	 */
+	public boolean commit() {
+		return (commit(-1));
+	}
+
+	/**
+	 * Commits the offsets of the messages returned by poll so far, for the
+	 * partitions still assigned, waiting up to the provided timeout for the
+	 * commit to complete
+	 *
+	 * @param timeout
+	 *            - A long containing the maximum time to wait for the commit
+	 *            in milliseconds, -1 to wait for the kafka 
+	 *            default.api.timeout.ms
+	 * @return Returns true if the offsets were committed, false otherwise
+	 */
+	public boolean commit(long timeout) {
+		Map<TopicPartition, OffsetAndMetadata> offsets = 
+			getAssignedOffsets(returnedOffsets);
+		if (offsets.isEmpty()) {
+			return (true);
+		}
+
+		try {
+			commitSync(offsets, timeout);
+		} catch (WakeupException e) {
+			// a wakeup requested before the commit, try once more
+			try {
+				commitSync(offsets, timeout);
+			} catch (Exception e2) {
+				logger.error("Error committing offsets: " + e2.toString());
+				return (false);
+			}
+		} catch (Exception e) {
+			logger.error("Error committing offsets: " + e.toString());
+			return (false);
+		}
+		return (true);
+	}
+
+	/**
+	 * Shuts down the consumer, writing any pending heartbeat files, committing
+	 * the offsets of the messages returned by poll so far, and leaving the
+	 * consumer group so the partitions are reassigned right away
+	 *
+	 * @param timeout
+	 *            - A long containing the maximum time to wait for the
+	 *            commit and for the consumer to close in milliseconds
+	 */
+	public void close(long timeout) {
+		close(timeout, true);
+	}
+
+	/**
+	 * Shuts down the consumer, writing any pending heartbeat files, 
+	 * optionally committing the offsets of the messages returned by poll so
+	 * far, and leaving the consumer group so the partitions are reassigned
+	 * right away
+	 *
+	 * @param timeout
+	 *            - A long containing the maximum time to wait for the
+	 *            commit and for the consumer to close in milliseconds
+	 * @param commit
+	 *            - A boolean, true to commit the offsets of the messages
+	 *            returned by poll, false if they were not all handled, such
+	 *            as when pending messages could not be written, so they are
+	 *            read again
+	 */
+	public void close(long timeout, boolean commit) {
+		long closeEnd = System.nanoTime() + (Math.max(0, timeout) * 1000000L);
+		closeHeartbeatWriter();
+		if (commit) {
+			commit(Math.max(0, (closeEnd - System.nanoTime()) / 1000000L));
+		}
+		try {
+			consumer.close(Math.max(0, (closeEnd - System.nanoTime()) / 
+				1000000L), TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			logger.error("Error closing consumer: " + e.toString());
+		}
+	}
+
+	/**
+	 * Commits the provided offsets, such as offsets returned by 
+	 * getReturnedOffsets once the messages before them have been handled, 
+	 * for the partitions still assigned, without waiting for the commit to
+	 * complete. Errors are logged when the commit completes.
+	 *
+	 * @param offsets
+	 *            - A Map&lt;TopicPartition, Long&gt; containing the offset
+	 *            after the last handled message for each partition
+	 */
+	public void commitAsync(Map<TopicPartition, Long> offsets) {
+		Map<TopicPartition, OffsetAndMetadata> assignedOffsets = 
+			getAssignedOffsets(offsets);
+		if (assignedOffsets.isEmpty()) {
 			return;
-		}  
+		}
+
+		try {
+			consumer.commitAsync(assignedOffsets, new OffsetCommitCallback() {
+				@Override
+				public void onComplete(
+					Map<TopicPartition, OffsetAndMetadata> committed, 
+					Exception exception) {
+					if (exception != null) {
+						logger.error("Error committing offsets: " + 
+							exception.toString());
+					}
+				}
+			});
+		} catch (Exception e) {
+			logger.error("Error committing offsets: " + e.toString());
+		}
+	}
+
+	/**
+	 * Gets the offsets of the messages returned by poll so far, to commit 
+	 * with commitAsync once they have been handled
+	 *
+	 * @return Returns a Map&lt;TopicPartition, Long&gt; containing a copy of
+	 *         the offset after the last returned message for each partition
+	 */
+	public Map<TopicPartition, Long> getReturnedOffsets() {
+		return (new HashMap<TopicPartition, Long>(returnedOffsets));
+	}
+
+	/**
+	 * Synchronously commits the provided offsets
+	 *
+	 * @param offsets
+	 *            - A Map&lt;TopicPartition, OffsetAndMetadata&gt; containing
+	 *            the offsets to commit
+	 * @param timeout
+	 *            - A long containing the maximum time to wait for the commit
+	 *            in milliseconds, -1 to wait for the kafka 
+	 *            default.api.timeout.ms
+	 */
+	private void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets,
+		long timeout) {
+		if (timeout < 0) {
+			consumer.commitSync(offsets);
+		} else {
+			consumer.commitSync(offsets, Duration.ofMillis(timeout));
+		}
+	}
+
+	/**
+	 * Converts the provided offsets for committing, leaving out partitions 
+	 * no longer assigned, which now belong to another consumer
+	 *
+	 * @param offsets
+	 *            - A Map&lt;TopicPartition, Long&gt; containing the offsets
+	 * @return Returns a Map&lt;TopicPartition, OffsetAndMetadata&gt; 
+	 *         containing the offsets of the assigned partitions
+	 */
+	private Map<TopicPartition, OffsetAndMetadata> getAssignedOffsets(
+		Map<TopicPartition, Long> offsets) {
+		HashMap<TopicPartition, OffsetAndMetadata> assignedOffsets = 
+			new HashMap<TopicPartition, OffsetAndMetadata>();
+		Set<TopicPartition> assignment = consumer.assignment();
+		for (Map.Entry<TopicPartition, Long> entry : offsets.entrySet()) {
+			if (assignment.contains(entry.getKey())) {
+				assignedOffsets.put(entry.getKey(), 
+					new OffsetAndMetadata(entry.getValue()));
+			}
+		}
+		return (assignedOffsets);
 	}
 
 	/**
@@ -404,6 +1235,423 @@ public class Consumer extends ClientBase {
 		return partitions;
 	}
 
+	/**
+	 * Records the end to end latency of a record, from the time it was sent 
+	 * to now. The send time is taken from the send time header stamped by the
+	 * hazdev broker Producer if present, otherwise from the record's 
+	 * CreateTime timestamp. Records with neither are not measured.
+	 *
+	 * @param record
+	 *            - The ConsumerRecord to measure
+	 */
+	private void recordEndToEndLatency(ConsumerRecord<String, byte[]> record) {
+		long receiveTime = System.currentTimeMillis();
+
+		// get the send time
+		long sendTime = -1;
+		Header sendTimeHeader = record.headers().lastHeader(
+			Producer.SEND_TIME_HEADER);
+		if ((sendTimeHeader != null) && (sendTimeHeader.value() != null) &&
+			(sendTimeHeader.value().length == 8)) {
+			// big endian long
+			byte[] sendTimeBytes = sendTimeHeader.value();
+			sendTime = 0;
+			for (int i = 0; i < 8; i++) {
+				sendTime = (sendTime << 8) | (sendTimeBytes[i] & 0xFF);
+			}
+		} else if (record.timestampType() == TimestampType.CREATE_TIME) {
+			sendTime = record.timestamp();
+		}
+
+		if (sendTime < 0) {
+			return;
+		}
+
+		// get the producer client id
+		byte[] sourceClientId = null;
+		Header clientIdHeader = record.headers().lastHeader(
+			Producer.CLIENT_ID_HEADER);
+		if (clientIdHeader != null) {
+			sourceClientId = clientIdHeader.value();
+		}
+
+		getEndToEndLatency(record.topic(), sourceClientId).record(
+			(receiveTime - sendTime) * 1000000L);
+	}
+
+	/**
+	 * Gets the end to end latency histogram for a topic and producer
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @param sourceClientId
+	 *            - A byte[] containing the UTF-8 encoded producer client id, 
+	 *            null if not known
+	 * @return Returns the LatencyHistogram for the topic and producer
+	 */
+	private LatencyHistogram getEndToEndLatency(String topic, 
+		byte[] sourceClientId) {
+
+		// most of the time it's the same as the last one
+		if ((lastLatencyHistogram != null) && 
+			topic.equals(lastLatencyTopic) && 
+			Arrays.equals(sourceClientId, lastLatencyClientId)) {
+			return (lastLatencyHistogram);
+		}
+
+		String sourceClient = UNKNOWN_CLIENT_ID;
+		if (sourceClientId != null) {
+			try {
+				sourceClient = new String(sourceClientId, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				sourceClient = new String(sourceClientId);
+			}
+		}
+
+		HashMap<String, LatencyHistogram> topicLatency = 
+			endToEndLatency.get(topic);
+		if (topicLatency == null) {
+			topicLatency = new HashMap<String, LatencyHistogram>();
+			endToEndLatency.put(topic, topicLatency);
+		}
+
+		LatencyHistogram latency = topicLatency.get(sourceClient);
+		if (latency == null) {
+			latency = metricsRegistry.histogram(
+				"hazdev_consumer_end_to_end_latency", 
+				"Time from a message being sent to being received", 
+				"client_id", String.valueOf(clientId), "topic", topic, 
+				"source_client_id", sourceClient);
+			topicLatency.put(sourceClient, latency);
+		}
+
+		lastLatencyTopic = topic;
+		lastLatencyClientId = sourceClientId;
+		lastLatencyHistogram = latency;
+
+		return (latency);
+	}
+
+	/**
+	 * Gets the records received counter for a topic
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @return Returns the Counter for the topic
+	 */
+	private Counter getReceivedCounter(String topic) {
+		Counter receivedCounter = receivedCounters.get(topic);
+		if (receivedCounter == null) {
+			receivedCounter = metricsRegistry.counter(
+				"hazdev_consumer_records_received_total", 
+				"Records (including heartbeats) received by the consumer", 
+				"client_id", String.valueOf(clientId), "topic", topic);
+			receivedCounters.put(topic, receivedCounter);
+		}
+		return (receivedCounter);
+	}
+
+	/**
+	 * Sets the registry to report metrics to, including the kafka consumer's
+	 * own fetch, throughput, and lag metrics, and the end to end latency of 
+	 * each record received by topic and producer client id
+	 *
+	 * @param registry
+	 *            - A MetricsRegistry to report to, null to stop reporting
+	 */
+	public void setMetricsRegistry(MetricsRegistry registry) {
+		if (metricsRegistry != null) {
+			metricsRegistry.removeKafkaMetrics(this);
+		}
+
+		metricsRegistry = registry;
+		receivedCounters.clear();
+		pollLatency = null;
+		endToEndLatency = null;
+		lastLatencyHistogram = null;
+
+		if (metricsRegistry != null) {
+			endToEndLatency = 
+				new HashMap<String, HashMap<String, LatencyHistogram>>();
+
+			pollLatency = metricsRegistry.histogram(
+				"hazdev_consumer_poll_latency", 
+				"Time spent in each kafka consumer poll", 
+				"client_id", String.valueOf(clientId));
+
+			metricsRegistry.register(new Gauge(
+				"hazdev_consumer_heartbeat_age_seconds", 
+				"Seconds since a heartbeat was last received", 
+				"client_id", String.valueOf(clientId)) {
+					@Override
+					public double getValue() {
+						return ((System.currentTimeMillis() / 1000) - 
+							getLastHeartbeatTime());
+					}
+				});
+
+			heartbeatTable.setMetricsRegistry(metricsRegistry, clientId);
+			registerTopicHeartbeatAges();
+
+			metricsRegistry.register(new Gauge(
+				"hazdev_consumer_backfilling", 
+				"Whether the consumer is backfilling (1) or caught up (0)", 
+				"client_id", String.valueOf(clientId)) {
+					@Override
+					public double getValue() {
+						return (isBackfilling() ? 1 : 0);
+					}
+				});
+
+			metricsRegistry.register(new Gauge(
+				"hazdev_consumer_arrival_rate", 
+				"Smoothed message arrival rate seen by adaptive polling in " +
+				"messages per second", 
+				"client_id", String.valueOf(clientId)) {
+					@Override
+					public double getValue() {
+						PollController controller = pollController;
+						return ((controller != null) ? 
+							controller.getArrivalRate() : 0);
+					}
+				});
+
+			metricsRegistry.register(new Gauge(
+				"hazdev_consumer_poll_batch_target", 
+				"Messages adaptive polling gathers before returning", 
+				"client_id", String.valueOf(clientId)) {
+					@Override
+					public double getValue() {
+						PollController controller = pollController;
+						return ((controller != null) ? 
+							controller.getBatchTarget() : 1);
+					}
+				});
+
+			metricsRegistry.addKafkaMetrics(this, 
+				"consumer-fetch-manager-metrics", "records-lag-max", 
+				"fetch-rate", "bytes-consumed-rate", 
+				"records-consumed-rate", "fetch-latency-avg");
+		}
+	}
+
+	/**
+	 * Sets the number of seconds to go back the first time each partition is
+	 * assigned, such as to cover a data outage after reconnecting. Data is 
+	 * only ever replayed, a consumer that has been stopped for longer than
+	 * the backfill time keeps its committed position. While backfilling, 
+	 * each poll drains everything already fetched into batches of up to the
+	 * backfill batch size, then switches back to low latency polling once 
+	 * every partition has caught up to its end offset at assignment. Must be
+	 * set before subscribing. Larger kafka fetch sizes (fetch.max.bytes, 
+	 * max.partition.fetch.bytes, max.poll.records) in the consumer 
+	 * Properties speed up backfilling further.
+	 *
+	 * @param seconds
+	 *            - A long containing the number of seconds to go back, 0 to
+	 *            disable backfilling
+	 */
+	public void setBackfillSeconds(long seconds) {
+		backfillSeconds = Math.max(0, seconds);
+	}
+
+	/**
+	 * @return the number of seconds to go back when partitions are first 
+	 *         assigned, 0 if not backfilling
+	 */
+	public long getBackfillSeconds() {
+		return backfillSeconds;
+	}
+
+	/**
+	 * Sets the number of records each poll gathers while backfilling before
+	 * returning, a poll can return more if a single kafka fetch returns more
+	 *
+	 * @param batchSize
+	 *            - An int containing the number of records
+	 */
+	public void setBackfillBatchSize(int batchSize) {
+		backfillBatchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * @return the number of records each poll gathers while backfilling
+	 */
+	public int getBackfillBatchSize() {
+		return backfillBatchSize;
+	}
+
+	/**
+	 * Sets the controller used to adapt polling to the message arrival rate.
+	 * While traffic is sparse each poll returns as soon as any messages 
+	 * arrive, while traffic bursts each poll keeps gathering messages for up
+	 * to the controller's linger time, or until its batch target is reached.
+	 * The kafka fetch settings are fixed when the consumer is created, so 
+	 * the batch is gathered over several kafka polls instead.
+	 *
+	 * @param controller
+	 *            - The PollController to use, null to return from each poll
+	 *            as soon as any messages arrive
+	 */
+	public void setPollController(PollController controller) {
+		pollController = controller;
+	}
+
+	/**
+	 * @return the controller adapting polling to the arrival rate, null if 
+	 *         not adapting
+	 */
+	public PollController getPollController() {
+		return pollController;
+	}
+
+	/**
+	 * Sets the handler used to hand client state off when partitions move
+	 * between the consumers of the group. Before partitions are taken away
+	 * the handler flushes the client state and the offsets are committed, 
+	 * and when partitions are assigned the handler is given their starting 
+	 * offsets. enable.auto.commit should be false, so offsets are only 
+	 * committed once the messages before them are handled.
+	 *
+	 * @param handler
+	 *            - The RebalanceHandler to use, null to leave offsets to the
+	 *            kafka consumer's own commits
+	 */
+	public void setRebalanceHandler(RebalanceHandler handler) {
+		rebalanceHandler = handler;
+
+		// the kafka consumer would commit offsets before the handler runs
+		if ((handler != null) && autoCommit) {
+			logger.warn("enable.auto.commit is on, offsets may be committed " +
+				"before the messages are handled, set it to false when " +
+				"using a rebalance handler.");
+		}
+	}
+
+	/**
+	 * @return the handler used to hand client state off when partitions 
+	 *         move, null if not set
+	 */
+	public RebalanceHandler getRebalanceHandler() {
+		return rebalanceHandler;
+	}
+
+	/**
+	 * @return true if any partition is still backfilling, false once caught
+	 *         up (low latency polling)
+	 */
+	public boolean isBackfilling() {
+		return (backfilling);
+	}
+
+	/**
+	 * Registers the age of the last heartbeat on each subscribed topic, from
+	 * any producer, with the metrics registry
+	 */
+	private void registerTopicHeartbeatAges() {
+		if ((metricsRegistry == null) || (topicList == null)) {
+			return;
+		}
+
+		for (final String topic : topicList) {
+			metricsRegistry.register(new Gauge(
+				"hazdev_consumer_topic_heartbeat_age_seconds", 
+				"Seconds since a heartbeat was last received on each topic " +
+				"from any producer", 
+				"client_id", String.valueOf(clientId), "topic", topic) {
+					@Override
+					public double getValue() {
+						return ((System.currentTimeMillis() / 1000) - 
+							getLastHeartbeatTime(topic));
+					}
+				});
+		}
+	}
+
+	/**
+	 * Sets the allocation profiler used to measure the bytes allocated by
+	 * each poll, as the "poll" stage, and by converting each poll to strings
+	 * in pollString, as the "pollString" stage
+	 *
+	 * @param profiler
+	 *            - The AllocationProfiler to use, null to stop profiling
+	 */
+	public void setAllocationProfiler(AllocationProfiler profiler) {
+		if (profiler == null) {
+			pollAllocation = null;
+			pollStringAllocation = null;
+			return;
+		}
+
+		pollAllocation = profiler.getStage("poll");
+		pollStringAllocation = profiler.getStage("pollString");
+	}
+
+	/**
+	 * Gets the metrics of the kafka consumer client
+	 *
+	 * @return Returns the kafka consumer client's metrics, null if there is no
+	 *         kafka consumer client
+	 */
+	@Override
+	Map<MetricName, ? extends Metric> kafkaMetrics() {
+		if (consumer == null) {
+			return (null);
+		}
+		return (consumer.metrics());
+	}
+
+	/**
+	 * Gets the time a heartbeat was last received on a topic from any 
+	 * producer
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @return Returns the time in seconds, the time the consumer subscribed
+	 *         if no heartbeat has been received on the topic yet
+	 */
+	public long getLastHeartbeatTime(String topic) {
+		long lastTime = heartbeatTable.getLastHeartbeatTime(topic);
+		if (lastTime < 0) {
+			lastTime = subscribeTime;
+		}
+		return (lastTime / 1000);
+	}
+
+	/**
+	 * Gets the time a heartbeat was last received on a topic from a producer
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @param sourceClientId
+	 *            - A String containing the client id of the producer
+	 * @return Returns the time in seconds, -1 if no heartbeat has been 
+	 *         received on the topic from the producer
+	 */
+	public long getLastHeartbeatTime(String topic, String sourceClientId) {
+		long lastTime = heartbeatTable.getLastHeartbeatTime(topic, 
+			sourceClientId);
+		if (lastTime < 0) {
+			return (-1);
+		}
+		return (lastTime / 1000);
+	}
+
+	/**
+	 * @return the table of the time a heartbeat was last received from each
+	 *         topic and producer
+	 */
+	public HeartbeatTable getHeartbeatTable() {
+		return heartbeatTable;
+	}
+
+	/**
+	 * @return the topics subscribed to, null if not subscribed
+	 */
+	public Collection<String> getTopics() {
+		return topicList;
+	}
+
 	/**
 	 * @return the lastHeartbeatTime
 	 */
@@ -416,6 +1664,6 @@ public class Consumer extends ClientBase {
 	 *            the lastHeartbeatTime to set
 	 */
 	public void setLastHeartbeatTime(Long lastHeartbeatTime) {
-		this.lastHeartbeatTime = lastHeartbeatTime;
+		this.lastHeartbeatTime = lastHeartbeatTime.longValue();
 	}  
 }
@@ -0,0 +1,68 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hazdev broker metric that counts events, such as messages sent or files
+ * written. Counters only go up.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class Counter extends BrokerMetric {
+
+	/**
+	 * The current count
+	 */
+	private AtomicLong count;
+
+	/**
+	 * The constructor for the Counter class.
+	 *
+	 * @param newName
+	 *            - A String containing the name of the counter
+	 * @param newDescription
+	 *            - A String containing the description of the counter
+	 * @param newLabels
+	 *            - A String[] containing the labels of the counter as
+	 *            alternating label names and values
+	 */
+	public Counter(String newName, String newDescription,
+		String... newLabels) {
+		super(newName, newDescription, newLabels);
+		count = new AtomicLong(0);
+	}
+
+	/**
+	 * Adds one to the count
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Adds the provided amount to the count
+	 *
+	 * @param amount
+	 *            - A long containing the amount to add
+	 */
+	public void add(long amount) {
+		count.addAndGet(amount);
+	}
+
+	/**
+	 * @return the current count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Formats the current count for logging
+	 *
+	 * @return Returns a String containing the count
+	 */
+	@Override
+	public String formatValue() {
+		return (String.valueOf(getCount()));
+	}
+}
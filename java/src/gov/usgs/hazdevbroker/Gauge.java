@@ -0,0 +1,59 @@
+package gov.usgs.hazdevbroker;
+
+/**
+ * A hazdev broker metric containing a value that can go up and down, such as
+ * a queue depth. The value is either set directly, or computed when read by
+ * overriding getValue().
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class Gauge extends BrokerMetric {
+
+	/**
+	 * The current value when set directly
+	 */
+	private volatile double value;
+
+	/**
+	 * The constructor for the Gauge class.
+	 *
+	 * @param newName
+	 *            - A String containing the name of the gauge
+	 * @param newDescription
+	 *            - A String containing the description of the gauge
+	 * @param newLabels
+	 *            - A String[] containing the labels of the gauge as
+	 *            alternating label names and values
+	 */
+	public Gauge(String newName, String newDescription, String... newLabels) {
+		super(newName, newDescription, newLabels);
+		value = 0;
+	}
+
+	/**
+	 * Sets the value of the gauge
+	 *
+	 * @param newValue
+	 *            - A double containing the new value
+	 */
+	public void set(double newValue) {
+		value = newValue;
+	}
+
+	/**
+	 * @return the current value of the gauge
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * Formats the current value for logging
+	 *
+	 * @return Returns a String containing the value
+	 */
+	@Override
+	public String formatValue() {
+		return (String.valueOf(getValue()));
+	}
+}
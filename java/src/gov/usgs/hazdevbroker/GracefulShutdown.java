@@ -0,0 +1,196 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to coordinate a graceful shutdown of a client
+ * main loop. When the JVM is asked to stop (such as by SIGTERM), the
+ * shutdown hook marks the client as stopping, runs the registered wakeups
+ * (such as Consumer.wakeup) so a blocked loop notices, and then waits up to
+ * the shutdown timeout for the loop to drain, close its consumer or
+ * producer, and call finished(). Closing cleanly lets a consumer leave its
+ * group right away rather than waiting out the session timeout.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class GracefulShutdown {
+
+	/**
+	 * Long constant containing the default shutdown timeout in seconds
+	 */
+	public static final long DEFAULT_TIMEOUT = 10;
+
+	/**
+	 * The name of the client, used for the hook thread and logging
+	 */
+	private String name;
+
+	/**
+	 * The time allowed to drain and close in milliseconds
+	 */
+	private long timeoutMillis;
+
+	/**
+	 * Counted down when a stop is requested
+	 */
+	private CountDownLatch stopRequested;
+
+	/**
+	 * Counted down when the client has finished shutting down
+	 */
+	private CountDownLatch stopped;
+
+	/**
+	 * The System.nanoTime() by which the client should have finished, set
+	 * when a stop is requested
+	 */
+	private volatile long deadlineNanos;
+
+	/**
+	 * The functions run when a stop is requested, to wake up a blocked loop
+	 */
+	private CopyOnWriteArrayList<Runnable> wakeups;
+
+	/**
+	 * Log4J logger for GracefulShutdown
+	 */
+	static Logger logger = Logger.getLogger(GracefulShutdown.class);
+
+	/**
+	 * The constructor for the GracefulShutdown class.
+	 *
+	 * @param newName
+	 *            - A String containing the name of the client
+	 * @param timeout
+	 *            - A long containing the time allowed to drain and close in
+	 *            seconds
+	 */
+	public GracefulShutdown(String newName, long timeout) {
+		name = newName;
+		timeoutMillis = Math.max(0, timeout) * 1000;
+		stopRequested = new CountDownLatch(1);
+		stopped = new CountDownLatch(1);
+		deadlineNanos = 0;
+		wakeups = new CopyOnWriteArrayList<Runnable>();
+	}
+
+	/**
+	 * Installs the JVM shutdown hook that requests a stop and waits for the
+	 * client to finish
+	 */
+	public void install() {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				logger.info("Shutting down " + name + ", allowing " +
+					String.valueOf(timeoutMillis) + " ms to drain.");
+				requestStop();
+				if (!awaitFinished(timeoutMillis)) {
+					logger.warn(name + " did not finish shutting down " +
+						"within " + String.valueOf(timeoutMillis) + " ms.");
+				}
+			}
+		}, name + "-shutdown"));
+	}
+
+	/**
+	 * Requests a stop, starting the shutdown deadline and running the
+	 * registered wakeups. Only the first request has any effect.
+	 */
+	public synchronized void requestStop() {
+		if (isStopping()) {
+			return;
+		}
+
+		deadlineNanos = System.nanoTime() + (timeoutMillis * 1000000L);
+		stopRequested.countDown();
+
+		for (Runnable wakeup : wakeups) {
+			try {
+				wakeup.run();
+			} catch (Exception e) {
+				logger.error("Error waking up " + name + ": " + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Adds a function run when a stop is requested, such as Consumer.wakeup,
+	 * so a loop blocked waiting for data notices the stop. Run right away if
+	 * a stop has already been requested.
+	 *
+	 * @param wakeup
+	 *            - A Runnable to run
+	 */
+	public synchronized void addWakeup(Runnable wakeup) {
+		wakeups.add(wakeup);
+		if (isStopping()) {
+			wakeup.run();
+		}
+	}
+
+	/**
+	 * @return true once a stop has been requested
+	 */
+	public boolean isStopping() {
+		return (stopRequested.getCount() == 0);
+	}
+
+	/**
+	 * Sleeps for the provided time, returning early if a stop is requested
+	 *
+	 * @param millis
+	 *            - A long containing the time to sleep in milliseconds
+	 * @return Returns true if a stop has been requested, false otherwise
+	 */
+	public boolean sleep(long millis) {
+		try {
+			return (stopRequested.await(millis, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return (isStopping());
+		}
+	}
+
+	/**
+	 * Gets the time left to drain and close
+	 *
+	 * @return Returns the time left before the shutdown deadline in
+	 *         milliseconds, the whole timeout if a stop has not been requested
+	 */
+	public long getRemainingMillis() {
+		if (!isStopping()) {
+			return (timeoutMillis);
+		}
+		return (Math.max(0,
+			(deadlineNanos - System.nanoTime()) / 1000000L));
+	}
+
+	/**
+	 * Marks the client as finished shutting down, releasing the shutdown hook
+	 */
+	public void finished() {
+		stopped.countDown();
+	}
+
+	/**
+	 * Waits for the client to finish shutting down
+	 *
+	 * @param millis
+	 *            - A long containing the time to wait in milliseconds
+	 * @return Returns true if the client finished, false if the wait timed
+	 *         out
+	 */
+	public boolean awaitFinished(long millis) {
+		try {
+			return (stopped.await(millis, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return (false);
+		}
+	}
+}
@@ -30,6 +30,11 @@ public class Heartbeat {
     public static final String TIME_KEY = "Time";  
     public static final String TOPIC_KEY = "Topic";
     public static final String CLIENTID_KEY = "ClientId";   
+
+	/**
+	 * The extension of heartbeat files
+	 */
+	public static final String HEARTBEAT_FILE_EXTENSION = ".heartbeat";
    
     /**
 	 * The time of this heartbeat
@@ -205,8 +210,7 @@ public class Heartbeat {
 		}
 
         // build heartbeat filename from the topic name and client id
-        String heartbeatFileName = heartbeatDirectory + "/" + 
-            topic + "_" + clientId + ".heartbeat";
+        String heartbeatFileName = heartbeatDirectory + "/" + getFileName();
 
         // create an UTF-8 formatted printwriter to write  
         // the heartbeat to disk
@@ -220,6 +224,16 @@ public class Heartbeat {
         heartbeatWriter.close();
     }
 
+    /**
+	 * Gets the name of the heartbeat file for this heartbeat, built from the
+	 * topic name and client id
+	 *
+	 * @return Returns a String containing the file name
+	 */
+	public String getFileName() {
+		return (topic + "_" + clientId + HEARTBEAT_FILE_EXTENSION);
+	}
+
     /**
 	 * Validates the class.
 	 *
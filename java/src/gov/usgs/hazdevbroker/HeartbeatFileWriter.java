@@ -0,0 +1,162 @@
+package gov.usgs.hazdevbroker;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to write heartbeat files in the background, so
+ * the consumer does not open, write, and close a file for every heartbeat
+ * while polling. Heartbeats are coalesced by topic and client id, only the
+ * latest heartbeat from each is written, at most once per flush interval.
+ * Each file is written to a temporary file and renamed into place, so
+ * readers never see a partially written heartbeat file.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class HeartbeatFileWriter {
+
+	/**
+	 * Long constant containing the default flush interval in milliseconds
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * String constant containing the extension of temporary heartbeat files
+	 */
+	public static final String TEMP_EXTENSION = ".tmp";
+
+	/**
+	 * The directory to write heartbeat files to
+	 */
+	private String heartbeatDirectory;
+
+	/**
+	 * The latest heartbeat not yet written, keyed by file name
+	 */
+	private ConcurrentHashMap<String, Heartbeat> pendingHeartbeats;
+
+	/**
+	 * The background flush task, run on the shared scheduler
+	 */
+	private ScheduledFuture<?> flushTask;
+
+	/**
+	 * Log4J logger for HeartbeatFileWriter
+	 */
+	static Logger logger = Logger.getLogger(HeartbeatFileWriter.class);
+
+	/**
+	 * The constructor for the HeartbeatFileWriter class, starts flushing in
+	 * the background.
+	 *
+	 * @param directory
+	 *            - A String containing the directory to write heartbeat files
+	 *            to
+	 * @param flushInterval
+	 *            - A long containing the interval to write pending heartbeat
+	 *            files at in milliseconds
+	 */
+	public HeartbeatFileWriter(String directory, long flushInterval) {
+		heartbeatDirectory = directory;
+		pendingHeartbeats = new ConcurrentHashMap<String, Heartbeat>();
+
+		long interval = Math.max(1, flushInterval);
+		flushTask = SharedScheduler.get().scheduleWithFixedDelay(
+			new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues a heartbeat to be written, replacing any heartbeat from the same
+	 * topic and client id that has not been written yet. Invalid heartbeats
+	 * are not written.
+	 *
+	 * @param aHeartbeat
+	 *            - A Heartbeat containing the heartbeat to write, copied so
+	 *            the caller can reuse it
+	 */
+	public void write(Heartbeat aHeartbeat) {
+		if (!aHeartbeat.isValid()) {
+			return;
+		}
+
+		Heartbeat copy = new Heartbeat(aHeartbeat.getTime(),
+			aHeartbeat.getTopic(), aHeartbeat.getClientId());
+		pendingHeartbeats.put(copy.getFileName(), copy);
+	}
+
+	/**
+	 * Writes every pending heartbeat file. Synchronized so a background 
+	 * flush and the final flush in close never write the same temporary 
+	 * file at once, or rename an older heartbeat over a newer one.
+	 */
+	public synchronized void flush() {
+		for (String fileName : pendingHeartbeats.keySet()) {
+			Heartbeat aHeartbeat = pendingHeartbeats.remove(fileName);
+			if (aHeartbeat != null) {
+				writeFile(fileName, aHeartbeat);
+			}
+		}
+	}
+
+	/**
+	 * Stops flushing in the background, and writes every pending heartbeat
+	 * file once any background flush still running has finished
+	 */
+	public void close() {
+		flushTask.cancel(false);
+		flush();
+	}
+
+	/**
+	 * Writes a heartbeat file, to a temporary file that is then renamed into
+	 * place
+	 *
+	 * @param fileName
+	 *            - A String containing the name of the heartbeat file
+	 * @param aHeartbeat
+	 *            - A Heartbeat containing the heartbeat to write
+	 */
+	private void writeFile(String fileName, Heartbeat aHeartbeat) {
+		File heartbeatFile = new File(heartbeatDirectory, fileName);
+		File tempFile = new File(heartbeatDirectory, fileName +
+			TEMP_EXTENSION);
+
+		try {
+			// create an UTF-8 formatted printwriter to write
+			// the heartbeat to disk
+			PrintWriter heartbeatWriter = new PrintWriter(tempFile, "UTF-8");
+
+			// just call print
+			heartbeatWriter.print(aHeartbeat.toJSONString());
+
+			// done with file
+			heartbeatWriter.close();
+
+			try {
+				Files.move(tempFile.toPath(), heartbeatFile.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), heartbeatFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (Exception e) {
+			logger.error("Error writing heartbeat file " + fileName + ": " +
+				e.toString());
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.*;
+
+/**
+ * A hazdev broker class used to track when heartbeats were last received
+ * from each source, keyed by topic and the client id of the producer sending
+ * the heartbeats, so that one healthy topic or producer can not hide a dead
+ * one. The sources are kept in a compact open addressed table of parallel
+ * arrays, so recording a heartbeat from a known source does not allocate.
+ * Sources are never removed, a producer that stops sending heartbeats keeps
+ * aging until it returns.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class HeartbeatTable {
+
+	/**
+	 * Integer constant containing the initial capacity of the table, must be
+	 * a power of two
+	 */
+	public static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The topic of each slot, null for an empty slot
+	 */
+	private String[] topics;
+
+	/**
+	 * The producer client id of each slot
+	 */
+	private String[] clientIds;
+
+	/**
+	 * The time a heartbeat was last received for each slot, in milliseconds
+	 */
+	private long[] times;
+
+	/**
+	 * The number of sources in the table
+	 */
+	private int size;
+
+	/**
+	 * The registry to report source ages to, null if not reporting metrics
+	 */
+	private MetricsRegistry metricsRegistry = null;
+
+	/**
+	 * The client id of the consumer to label source ages with
+	 */
+	private String consumerClientId = null;
+
+	/**
+	 * A source of heartbeats, a snapshot of one entry in the table
+	 */
+	public static class Source {
+
+		/**
+		 * The topic the heartbeats were sent on
+		 */
+		private String topic;
+
+		/**
+		 * The client id of the producer sending the heartbeats
+		 */
+		private String clientId;
+
+		/**
+		 * The time a heartbeat was last received, in milliseconds
+		 */
+		private long lastHeartbeatTime;
+
+		/**
+		 * The constructor for the Source class.
+		 *
+		 * @param newTopic
+		 *            - A String containing the topic
+		 * @param newClientId
+		 *            - A String containing the producer client id
+		 * @param newTime
+		 *            - A long containing the time a heartbeat was last
+		 *            received, in milliseconds
+		 */
+		Source(String newTopic, String newClientId, long newTime) {
+			topic = newTopic;
+			clientId = newClientId;
+			lastHeartbeatTime = newTime;
+		}
+
+		/**
+		 * @return the topic
+		 */
+		public String getTopic() {
+			return topic;
+		}
+
+		/**
+		 * @return the producer client id
+		 */
+		public String getClientId() {
+			return clientId;
+		}
+
+		/**
+		 * @return the time a heartbeat was last received, in milliseconds
+		 */
+		public long getLastHeartbeatTime() {
+			return lastHeartbeatTime;
+		}
+	}
+
+	/**
+	 * The constructor for the HeartbeatTable class.
+	 */
+	public HeartbeatTable() {
+		topics = new String[INITIAL_CAPACITY];
+		clientIds = new String[INITIAL_CAPACITY];
+		times = new long[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * Records a heartbeat from a source
+	 *
+	 * @param topic
+	 *            - A String containing the topic the heartbeat was sent on
+	 * @param clientId
+	 *            - A String containing the client id of the producer
+	 * @param time
+	 *            - A long containing the time the heartbeat was received, in
+	 *            milliseconds
+	 */
+	public void update(String topic, String clientId, long time) {
+		if ((topic == null) || (clientId == null)) {
+			return;
+		}
+
+		boolean added = false;
+		synchronized (this) {
+			int slot = find(topic, clientId);
+			if (topics[slot] == null) {
+				// new source, make room first so the table never fills
+				if ((size + 1) * 4 > topics.length * 3) {
+					resize();
+					slot = find(topic, clientId);
+				}
+				topics[slot] = topic;
+				clientIds[slot] = clientId;
+				size++;
+				added = true;
+			}
+			times[slot] = time;
+		}
+
+		if (added) {
+			registerAge(topic, clientId);
+		}
+	}
+
+	/**
+	 * Gets the time a heartbeat was last received from a source
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @param clientId
+	 *            - A String containing the client id of the producer
+	 * @return Returns the time in milliseconds, -1 if no heartbeat has been
+	 *         received from the source
+	 */
+	public synchronized long getLastHeartbeatTime(String topic,
+		String clientId) {
+		if ((topic == null) || (clientId == null)) {
+			return (-1);
+		}
+
+		int slot = find(topic, clientId);
+		if (topics[slot] == null) {
+			return (-1);
+		}
+		return (times[slot]);
+	}
+
+	/**
+	 * Gets the time a heartbeat was last received from any source on a topic
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @return Returns the time in milliseconds, -1 if no heartbeat has been
+	 *         received on the topic
+	 */
+	public synchronized long getLastHeartbeatTime(String topic) {
+		long lastTime = -1;
+		for (int i = 0; i < topics.length; i++) {
+			if ((topics[i] != null) && topics[i].equals(topic) &&
+				(times[i] > lastTime)) {
+				lastTime = times[i];
+			}
+		}
+		return (lastTime);
+	}
+
+	/**
+	 * Gets a snapshot of every source in the table
+	 *
+	 * @return Returns a List&lt;Source&gt; containing the sources, sorted by
+	 *         topic and client id
+	 */
+	public List<Source> getSources() {
+		ArrayList<Source> sources = new ArrayList<Source>();
+		synchronized (this) {
+			for (int i = 0; i < topics.length; i++) {
+				if (topics[i] != null) {
+					sources.add(new Source(topics[i], clientIds[i], times[i]));
+				}
+			}
+		}
+
+		Collections.sort(sources, new Comparator<Source>() {
+			@Override
+			public int compare(Source source1, Source source2) {
+				int result = source1.getTopic().compareTo(source2.getTopic());
+				if (result != 0) {
+					return (result);
+				}
+				return (source1.getClientId().compareTo(
+					source2.getClientId()));
+			}
+		});
+
+		return (sources);
+	}
+
+	/**
+	 * @return the number of sources in the table
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Sets the registry to report the age of the last heartbeat from each
+	 * source to
+	 *
+	 * @param registry
+	 *            - A MetricsRegistry to report to, null to stop reporting
+	 * @param clientId
+	 *            - A String containing the client id of the consumer to label
+	 *            the ages with
+	 */
+	public void setMetricsRegistry(MetricsRegistry registry,
+		String clientId) {
+		synchronized (this) {
+			metricsRegistry = registry;
+			consumerClientId = String.valueOf(clientId);
+		}
+
+		for (Source source : getSources()) {
+			registerAge(source.getTopic(), source.getClientId());
+		}
+	}
+
+	/**
+	 * Registers the age gauge of a source
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @param clientId
+	 *            - A String containing the client id of the producer
+	 */
+	private void registerAge(final String topic, final String clientId) {
+		MetricsRegistry registry;
+		String consumerId;
+		synchronized (this) {
+			registry = metricsRegistry;
+			consumerId = consumerClientId;
+		}
+		if (registry == null) {
+			return;
+		}
+
+		registry.register(new Gauge(
+			"hazdev_consumer_source_heartbeat_age_seconds",
+			"Seconds since a heartbeat was last received from each producer " +
+			"on each topic", "client_id", consumerId, "topic", topic,
+			"source_client_id", clientId) {
+				@Override
+				public double getValue() {
+					long lastTime = getLastHeartbeatTime(topic, clientId);
+					return ((System.currentTimeMillis() - lastTime) / 1000);
+				}
+			});
+	}
+
+	/**
+	 * Finds the slot of a source, linear probing from its hash
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @param clientId
+	 *            - A String containing the client id of the producer
+	 * @return Returns the slot containing the source, or the empty slot
+	 *         where it belongs
+	 */
+	private int find(String topic, String clientId) {
+		int mask = topics.length - 1;
+		int slot = hash(topic, clientId) & mask;
+		while (topics[slot] != null) {
+			if (topics[slot].equals(topic) &&
+				clientIds[slot].equals(clientId)) {
+				return (slot);
+			}
+			slot = (slot + 1) & mask;
+		}
+		return (slot);
+	}
+
+	/**
+	 * Doubles the capacity of the table, rehashing every source
+	 */
+	private void resize() {
+		String[] oldTopics = topics;
+		String[] oldClientIds = clientIds;
+		long[] oldTimes = times;
+
+		topics = new String[oldTopics.length * 2];
+		clientIds = new String[oldTopics.length * 2];
+		times = new long[oldTopics.length * 2];
+
+		for (int i = 0; i < oldTopics.length; i++) {
+			if (oldTopics[i] != null) {
+				int slot = find(oldTopics[i], oldClientIds[i]);
+				topics[slot] = oldTopics[i];
+				clientIds[slot] = oldClientIds[i];
+				times[slot] = oldTimes[i];
+			}
+		}
+	}
+
+	/**
+	 * Hashes a source, spreading the bits so nearby string hashes do not
+	 * cluster
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @param clientId
+	 *            - A String containing the client id of the producer
+	 * @return Returns the hash
+	 */
+	private static int hash(String topic, String clientId) {
+		int hash = (topic.hashCode() * 31) + clientId.hashCode();
+		return (hash ^ (hash >>> 16));
+	}
+}
@@ -0,0 +1,151 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.List;
+
+/**
+ * A hazdev broker key extractor that keys json messages by the string values
+ * of one or more fields, such as the network and station codes of a pick, so
+ * every message from a station is sent to the same partition. The fields are
+ * found by scanning the raw message for the first occurrence of each field
+ * name, at any depth, without parsing the whole message. The values of the
+ * fields are joined with a period, e.g. "US.BOZ". Messages missing any of the
+ * fields (or where a field is not a string) are sent without a key.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class JSONKeyExtractor implements KeyExtractor {
+
+	/**
+	 * String constant containing the separator used to join field values
+	 */
+	public static final String SEPARATOR = ".";
+
+	/**
+	 * The field names to key by, quoted and encoded as the bytes to search
+	 * for
+	 */
+	private byte[][] fieldNames;
+
+	/**
+	 * The constructor for the JSONKeyExtractor class.
+	 *
+	 * @param newFields
+	 *            - A List&lt;String&gt; containing the names of the fields
+	 *            to key by, in the order their values are joined
+	 */
+	public JSONKeyExtractor(List<String> newFields) {
+		fieldNames = new byte[newFields.size()][];
+		for (int i = 0; i < newFields.size(); i++) {
+			fieldNames[i] = ("\"" + newFields.get(i) + "\"").getBytes();
+		}
+	}
+
+	/**
+	 * Gets the key of a message from the values of the fields
+	 *
+	 * @param topic
+	 *            - A String containing the topic the message is sent to
+	 * @param data
+	 *            - A byte[] containing the json message
+	 * @return Returns a String containing the joined field values, null if
+	 *         any field is missing
+	 */
+	@Override
+	public String getKey(String topic, byte[] data) {
+		if ((data == null) || (fieldNames.length == 0)) {
+			return (null);
+		}
+
+		StringBuilder key = null;
+		for (int i = 0; i < fieldNames.length; i++) {
+			String value = findValue(data, fieldNames[i]);
+			if (value == null) {
+				return (null);
+			}
+
+			if (fieldNames.length == 1) {
+				return (value);
+			}
+			if (key == null) {
+				key = new StringBuilder(32);
+			} else {
+				key.append(SEPARATOR);
+			}
+			key.append(value);
+		}
+
+		return (key.toString());
+	}
+
+	/**
+	 * Finds the string value of the first occurrence of a field
+	 *
+	 * @param data
+	 *            - A byte[] containing the json message
+	 * @param fieldName
+	 *            - A byte[] containing the quoted field name
+	 * @return Returns a String containing the value, null if the field was not
+	 *         found or its value is not a string
+	 */
+	private static String findValue(byte[] data, byte[] fieldName) {
+		int limit = data.length - fieldName.length;
+
+		for (int start = 0; start <= limit; start++) {
+			if (!matches(data, start, fieldName)) {
+				continue;
+			}
+
+			// a field name is followed by a colon, a string value with one
+			// is a match of the field name inside some other value
+			int position = skipWhitespace(data, start + fieldName.length);
+			if ((position >= data.length) || (data[position] != ':')) {
+				continue;
+			}
+
+			position = skipWhitespace(data, position + 1);
+			if ((position >= data.length) || (data[position] != '"')) {
+				return (null);
+			}
+
+			// find the closing quote, codes don't contain escapes, but
+			// don't stop at an escaped quote anyway
+			int valueStart = position + 1;
+			for (int end = valueStart; end < data.length; end++) {
+				if (data[end] == '\\') {
+					end++;
+				} else if (data[end] == '"') {
+					return (new String(data, valueStart, end - valueStart));
+				}
+			}
+			return (null);
+		}
+
+		return (null);
+	}
+
+	/**
+	 * Checks whether the bytes at a position match a field name
+	 */
+	private static boolean matches(byte[] data, int start, byte[] fieldName) {
+		for (int i = 0; i < fieldName.length; i++) {
+			if (data[start + i] != fieldName[i]) {
+				return (false);
+			}
+		}
+		return (true);
+	}
+
+	/**
+	 * Skips any json whitespace at a position
+	 *
+	 * @return Returns the position of the next non whitespace byte
+	 */
+	private static int skipWhitespace(byte[] data, int position) {
+		while ((position < data.length) && ((data[position] == ' ') ||
+			(data[position] == '\t') || (data[position] == '\n') ||
+			(data[position] == '\r'))) {
+			position++;
+		}
+		return (position);
+	}
+}
@@ -0,0 +1,25 @@
+package gov.usgs.hazdevbroker;
+
+/**
+ * An interface for classes used by the Producer to choose the key of each
+ * message sent. Messages with the same key are sent to the same partition of
+ * a topic, so they stay in order relative to each other, while messages with
+ * different keys are spread across the partitions. Messages without a key are
+ * spread across the partitions without any ordering.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public interface KeyExtractor {
+
+	/**
+	 * Gets the key of a message
+	 *
+	 * @param topic
+	 *            - A String containing the topic the message is sent to
+	 * @param data
+	 *            - A byte[] containing the message
+	 * @return Returns a String containing the key, null to send the message
+	 *         without a key
+	 */
+	String getKey(String topic, byte[] data);
+}
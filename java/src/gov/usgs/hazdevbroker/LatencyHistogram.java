@@ -0,0 +1,231 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A hazdev broker metric that records the distribution of latencies in
+ * nanoseconds. Like an HDR histogram, values are counted in log-linear
+ * buckets (64 buckets per power of two) so percentiles are accurate to within
+ * about 1.6% over the full range of a long, using a fixed amount of memory.
+ * Recording a value is lock free and does not allocate.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class LatencyHistogram extends BrokerMetric {
+
+	/**
+	 * The number of bits used for the buckets within each power of two
+	 */
+	private static final int SUB_BUCKET_BITS = 6;
+
+	/**
+	 * The number of buckets within each power of two
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The total number of buckets needed to cover all positive longs
+	 */
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT *
+		(64 - SUB_BUCKET_BITS);
+
+	/**
+	 * Double constant containing the number of nanoseconds per millisecond
+	 */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/**
+	 * The count of values in each bucket
+	 */
+	private AtomicLongArray buckets;
+
+	/**
+	 * The total number of values recorded
+	 */
+	private AtomicLong count;
+
+	/**
+	 * The sum of the values recorded
+	 */
+	private AtomicLong sum;
+
+	/**
+	 * The largest value recorded
+	 */
+	private AtomicLong max;
+
+	/**
+	 * The constructor for the LatencyHistogram class.
+	 *
+	 * @param newName
+	 *            - A String containing the name of the histogram
+	 * @param newDescription
+	 *            - A String containing the description of the histogram
+	 * @param newLabels
+	 *            - A String[] containing the labels of the histogram as
+	 *            alternating label names and values
+	 */
+	public LatencyHistogram(String newName, String newDescription,
+		String... newLabels) {
+		super(newName, newDescription, newLabels);
+		buckets = new AtomicLongArray(BUCKET_COUNT);
+		count = new AtomicLong(0);
+		sum = new AtomicLong(0);
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * Records a latency, negative latencies are recorded as zero
+	 *
+	 * @param nanos
+	 *            - A long containing the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(getBucketIndex(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+
+		// keep track of the largest value
+		long currentMax = max.get();
+		while ((nanos > currentMax) &&
+			!max.compareAndSet(currentMax, nanos)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Gets the bucket index for a value
+	 *
+	 * @param value
+	 *            - A long containing the value, must not be negative
+	 * @return Returns the bucket index
+	 */
+	private static int getBucketIndex(long value) {
+		// small values each get their own bucket
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return ((int) value);
+		}
+
+		// otherwise keep the top bits of the value
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS;
+		return ((shift * SUB_BUCKET_COUNT) + (int) (value >>> shift));
+	}
+
+	/**
+	 * Gets the highest value that would be counted in a bucket
+	 *
+	 * @param index
+	 *            - An int containing the bucket index
+	 * @return Returns the highest value for the bucket
+	 */
+	private static long getBucketValue(int index) {
+		if (index < 2 * SUB_BUCKET_COUNT) {
+			return (index);
+		}
+
+		int shift = (index / SUB_BUCKET_COUNT) - 1;
+		long top = index - (shift * SUB_BUCKET_COUNT);
+		return (((top + 1) << shift) - 1);
+	}
+
+	/**
+	 * Gets the latency at the provided percentile
+	 *
+	 * @param percentile
+	 *            - A double containing the percentile, from 0 to 100
+	 * @return Returns the latency in nanoseconds, 0 if nothing has been
+	 *         recorded
+	 */
+	public long getPercentile(double percentile) {
+		// count what's in the buckets right now
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) {
+			return (0);
+		}
+
+		// find the bucket containing the percentile
+		long target = (long) Math.ceil((percentile / 100.0) * total);
+		if (target < 1) {
+			target = 1;
+		}
+
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return (Math.min(getBucketValue(i), getMax()));
+			}
+		}
+
+		return (getMax());
+	}
+
+	/**
+	 * Clears all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the values recorded in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the largest value recorded in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the values recorded in nanoseconds
+	 */
+	public double getMean() {
+		long currentCount = getCount();
+		if (currentCount == 0) {
+			return (0);
+		}
+		return ((double) getSum() / currentCount);
+	}
+
+	/**
+	 * Formats the count and percentiles for logging, in milliseconds
+	 *
+	 * @return Returns a String containing the formatted values
+	 */
+	@Override
+	public String formatValue() {
+		return (String.format("count=%d mean=%.3fms p50=%.3fms p99=%.3fms " +
+			"p999=%.3fms max=%.3fms", getCount(),
+			getMean() / NANOS_PER_MILLI,
+			getPercentile(50) / NANOS_PER_MILLI,
+			getPercentile(99) / NANOS_PER_MILLI,
+			getPercentile(99.9) / NANOS_PER_MILLI,
+			getMax() / NANOS_PER_MILLI));
+	}
+}
@@ -0,0 +1,306 @@
+package gov.usgs.hazdevbroker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to serve the contents of a metrics registry over
+ * http in the Prometheus text exposition format, using the http server built
+ * into the JDK. Counters and gauges are exported as is, latency histograms
+ * are exported as summaries in seconds, with 0.5, 0.99, and 0.999 quantiles.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class MetricsHttpServer {
+
+	/**
+	 * String constant containing the path metrics are served from
+	 */
+	public static final String METRICS_PATH = "/metrics";
+
+	/**
+	 * String constant containing the Prometheus text format content type
+	 */
+	public static final String CONTENT_TYPE =
+		"text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Double constant containing the number of nanoseconds per second
+	 */
+	private static final double NANOS_PER_SECOND = 1000000000.0;
+
+	/**
+	 * The quantiles reported for latency histograms
+	 */
+	private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+	/**
+	 * The registry to serve
+	 */
+	private MetricsRegistry registry;
+
+	/**
+	 * The http server, null if not started
+	 */
+	private HttpServer server;
+
+	/**
+	 * Log4J logger for MetricsHttpServer
+	 */
+	static Logger logger = Logger.getLogger(MetricsHttpServer.class);
+
+	/**
+	 * The constructor for the MetricsHttpServer class.
+	 *
+	 * @param newRegistry
+	 *            - A MetricsRegistry containing the metrics to serve
+	 */
+	public MetricsHttpServer(MetricsRegistry newRegistry) {
+		registry = newRegistry;
+		server = null;
+	}
+
+	/**
+	 * Starts serving metrics on the provided port, on all interfaces
+	 *
+	 * @param port
+	 *            - An int containing the port to listen on, 0 to pick any
+	 *            free port
+	 * @throws java.io.IOException
+	 *             if the server could not be started
+	 */
+	public void start(int port) throws IOException {
+		start(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Starts serving metrics on the provided address
+	 *
+	 * @param address
+	 *            - An InetSocketAddress containing the address to listen on
+	 * @throws java.io.IOException
+	 *             if the server could not be started
+	 */
+	public synchronized void start(InetSocketAddress address)
+		throws IOException {
+		if (server != null) {
+			return;
+		}
+
+		server = HttpServer.create(address, 0);
+		server.createContext(METRICS_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRequest(exchange);
+			}
+		});
+		server.start();
+
+		logger.info("Serving metrics on port " +
+			String.valueOf(getPort()) + " at " + METRICS_PATH);
+	}
+
+	/**
+	 * Stops serving metrics
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	/**
+	 * @return the port metrics are being served on, -1 if not started
+	 */
+	public synchronized int getPort() {
+		if (server == null) {
+			return (-1);
+		}
+		return (server.getAddress().getPort());
+	}
+
+	/**
+	 * Handles a request for metrics
+	 *
+	 * @param exchange
+	 *            - An HttpExchange containing the request
+	 * @throws java.io.IOException
+	 *             if the response could not be sent
+	 */
+	private void handleRequest(HttpExchange exchange) throws IOException {
+		try {
+			byte[] response = formatMetrics().getBytes("UTF-8");
+
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, response.length);
+
+			OutputStream responseBody = exchange.getResponseBody();
+			responseBody.write(response);
+			responseBody.close();
+		} catch (Exception e) {
+			logger.error("Error serving metrics: " + e.toString());
+
+			// can't change the response once the headers have been sent
+			if (exchange.getResponseCode() == -1) {
+				exchange.sendResponseHeaders(500, -1);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Formats every metric in the registry, including the kafka metrics, in
+	 * the Prometheus text exposition format
+	 *
+	 * @return Returns a String containing the formatted metrics
+	 */
+	public String formatMetrics() {
+		// group the metrics by name, each name gets one help and type line
+		LinkedHashMap<String, ArrayList<BrokerMetric>> metricsByName =
+			new LinkedHashMap<String, ArrayList<BrokerMetric>>();
+
+		ArrayList<BrokerMetric> allMetrics =
+			new ArrayList<BrokerMetric>(registry.getMetrics());
+		allMetrics.addAll(registry.getKafkaMetrics());
+
+		for (BrokerMetric metric : allMetrics) {
+			ArrayList<BrokerMetric> namedMetrics =
+				metricsByName.get(metric.getName());
+			if (namedMetrics == null) {
+				namedMetrics = new ArrayList<BrokerMetric>();
+				metricsByName.put(metric.getName(), namedMetrics);
+			}
+			namedMetrics.add(metric);
+		}
+
+		StringBuilder output = new StringBuilder();
+		for (Map.Entry<String, ArrayList<BrokerMetric>> entry :
+			metricsByName.entrySet()) {
+			ArrayList<BrokerMetric> namedMetrics = entry.getValue();
+			BrokerMetric first = namedMetrics.get(0);
+
+			if (first instanceof LatencyHistogram) {
+				String name = entry.getKey() + "_seconds";
+				appendHeader(output, name, first.getDescription(), "summary");
+
+				for (BrokerMetric metric : namedMetrics) {
+					appendHistogram(output, name, (LatencyHistogram) metric);
+				}
+			} else {
+				String type = "gauge";
+				if (first instanceof Counter) {
+					type = "counter";
+				}
+				appendHeader(output, entry.getKey(), first.getDescription(),
+					type);
+
+				for (BrokerMetric metric : namedMetrics) {
+					double value = 0;
+					if (metric instanceof Counter) {
+						value = ((Counter) metric).getCount();
+					} else if (metric instanceof Gauge) {
+						value = ((Gauge) metric).getValue();
+					}
+
+					appendSample(output, entry.getKey(), metric.getLabels(),
+						null, value);
+				}
+			}
+		}
+
+		return (output.toString());
+	}
+
+	/**
+	 * Appends the help and type lines for a metric name
+	 */
+	private static void appendHeader(StringBuilder output, String name,
+		String description, String type) {
+		if (description != null) {
+			output.append("# HELP ").append(name).append(' ')
+				.append(description.replace("\\", "\\\\")
+				.replace("\n", "\\n")).append('\n');
+		}
+		output.append("# TYPE ").append(name).append(' ').append(type)
+			.append('\n');
+	}
+
+	/**
+	 * Appends the quantiles, sum, and count of a latency histogram
+	 */
+	private static void appendHistogram(StringBuilder output, String name,
+		LatencyHistogram histogram) {
+		for (double quantile : QUANTILES) {
+			appendSample(output, name, histogram.getLabels(),
+				String.valueOf(quantile),
+				histogram.getPercentile(quantile * 100) / NANOS_PER_SECOND);
+		}
+
+		appendSample(output, name + "_sum", histogram.getLabels(), null,
+			histogram.getSum() / NANOS_PER_SECOND);
+		appendSample(output, name + "_count", histogram.getLabels(), null,
+			histogram.getCount());
+	}
+
+	/**
+	 * Appends a single sample line
+	 */
+	private static void appendSample(StringBuilder output, String name,
+		Map<String, String> labels, String quantile, double value) {
+		output.append(name);
+
+		if (!labels.isEmpty() || (quantile != null)) {
+			output.append('{');
+
+			boolean first = true;
+			for (Map.Entry<String, String> label : labels.entrySet()) {
+				if (!first) {
+					output.append(',');
+				}
+				first = false;
+
+				output.append(label.getKey()).append("=\"")
+					.append(escapeLabelValue(label.getValue())).append('"');
+			}
+
+			if (quantile != null) {
+				if (!first) {
+					output.append(',');
+				}
+				output.append("quantile=\"").append(quantile).append('"');
+			}
+
+			output.append('}');
+		}
+
+		output.append(' ');
+		if (Double.isNaN(value)) {
+			output.append("NaN");
+		} else if (Double.isInfinite(value)) {
+			output.append(value > 0 ? "+Inf" : "-Inf");
+		} else {
+			output.append(value);
+		}
+		output.append('\n');
+	}
+
+	/**
+	 * Escapes a label value for the Prometheus text format
+	 */
+	private static String escapeLabelValue(String value) {
+		if (value == null) {
+			return ("");
+		}
+		return (value.replace("\\", "\\\\").replace("\"", "\\\"")
+			.replace("\n", "\\n"));
+	}
+}
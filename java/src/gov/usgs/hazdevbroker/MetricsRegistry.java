@@ -0,0 +1,367 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to hold the counters, gauges, and latency
+ * histograms reported by the hazdev broker clients, along with selected
+ * metrics read directly from the kafka clients.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class MetricsRegistry {
+
+	/**
+	 * The default registry, shared by everything in this process
+	 */
+	private static final MetricsRegistry defaultRegistry =
+		new MetricsRegistry();
+
+	/**
+	 * The registered metrics, keyed by id
+	 */
+	private ConcurrentHashMap<String, BrokerMetric> metrics;
+
+	/**
+	 * The kafka clients to report metrics from
+	 */
+	private CopyOnWriteArrayList<KafkaMetricsSource> kafkaSources;
+
+	/**
+	 * Cache of the gauges used to report kafka metrics, keyed by kafka metric
+	 * name, so each kafka metric name is only converted once
+	 */
+	private ConcurrentHashMap<MetricName, Gauge> kafkaGauges;
+
+	/**
+	 * A class holding a kafka client to report metrics from, and the metrics
+	 * to report
+	 */
+	private static class KafkaMetricsSource {
+		/**
+		 * The client to read metrics from
+		 */
+		ClientBase client;
+
+		/**
+		 * The kafka metric group to report
+		 */
+		String group;
+
+		/**
+		 * The names of the kafka metrics to report from the group
+		 */
+		Set<String> names;
+	}
+
+	/**
+	 * The constructor for the MetricsRegistry class.
+	 */
+	public MetricsRegistry() {
+		metrics = new ConcurrentHashMap<String, BrokerMetric>();
+		kafkaSources = new CopyOnWriteArrayList<KafkaMetricsSource>();
+		kafkaGauges = new ConcurrentHashMap<MetricName, Gauge>();
+	}
+
+	/**
+	 * @return the default registry, shared by everything in this process
+	 */
+	public static MetricsRegistry getDefault() {
+		return defaultRegistry;
+	}
+
+	/**
+	 * Gets or creates a counter
+	 *
+	 * @param name
+	 *            - A String containing the name of the counter
+	 * @param description
+	 *            - A String containing the description of the counter
+	 * @param labels
+	 *            - A String[] containing the labels of the counter as
+	 *            alternating label names and values
+	 * @return Returns the Counter
+	 */
+	public Counter counter(String name, String description, String... labels) {
+		BrokerMetric existing = find(name, labels);
+		if (existing != null) {
+			return ((Counter) existing);
+		}
+		return ((Counter) register(new Counter(name, description, labels)));
+	}
+
+	/**
+	 * Gets or creates a gauge that is set directly
+	 *
+	 * @param name
+	 *            - A String containing the name of the gauge
+	 * @param description
+	 *            - A String containing the description of the gauge
+	 * @param labels
+	 *            - A String[] containing the labels of the gauge as
+	 *            alternating label names and values
+	 * @return Returns the Gauge
+	 */
+	public Gauge gauge(String name, String description, String... labels) {
+		BrokerMetric existing = find(name, labels);
+		if (existing != null) {
+			return ((Gauge) existing);
+		}
+		return ((Gauge) register(new Gauge(name, description, labels)));
+	}
+
+	/**
+	 * Gets or creates a latency histogram
+	 *
+	 * @param name
+	 *            - A String containing the name of the histogram
+	 * @param description
+	 *            - A String containing the description of the histogram
+	 * @param labels
+	 *            - A String[] containing the labels of the histogram as
+	 *            alternating label names and values
+	 * @return Returns the LatencyHistogram
+	 */
+	public LatencyHistogram histogram(String name, String description,
+		String... labels) {
+		BrokerMetric existing = find(name, labels);
+		if (existing != null) {
+			return ((LatencyHistogram) existing);
+		}
+		return ((LatencyHistogram) register(new LatencyHistogram(name,
+			description, labels)));
+	}
+
+	/**
+	 * Finds a registered metric
+	 *
+	 * @param name
+	 *            - A String containing the name of the metric
+	 * @param labels
+	 *            - A String[] containing the labels of the metric as
+	 *            alternating label names and values
+	 * @return Returns the registered BrokerMetric, null if not found
+	 */
+	public BrokerMetric find(String name, String... labels) {
+		return (metrics.get(BrokerMetric.formatId(name,
+			BrokerMetric.toLabelMap(labels))));
+	}
+
+	/**
+	 * Removes a registered metric
+	 *
+	 * @param metric
+	 *            - A BrokerMetric containing the metric to remove
+	 */
+	public void remove(BrokerMetric metric) {
+		metrics.remove(metric.getId(), metric);
+	}
+
+	/**
+	 * Registers the provided metric, such as a gauge that computes its value,
+	 * if a metric with the same id is already registered, the existing metric
+	 * is returned instead
+	 *
+	 * @param metric
+	 *            - A BrokerMetric containing the metric to register
+	 * @return Returns the registered BrokerMetric
+	 */
+	public BrokerMetric register(BrokerMetric metric) {
+		BrokerMetric existing = metrics.putIfAbsent(metric.getId(), metric);
+		if (existing != null) {
+			return (existing);
+		}
+		return (metric);
+	}
+
+	/**
+	 * Replaces any existing metric with the same id with the provided metric
+	 *
+	 * @param metric
+	 *            - A BrokerMetric containing the metric to register
+	 */
+	public void replace(BrokerMetric metric) {
+		metrics.put(metric.getId(), metric);
+	}
+
+	/**
+	 * Adds metrics from a kafka client to the registry. The metrics are read
+	 * from the kafka client's own metrics each time they are reported.
+	 *
+	 * @param client
+	 *            - A ClientBase (Producer or Consumer) to read metrics from
+	 * @param group
+	 *            - A String containing the kafka metric group, such as
+	 *            producer-metrics
+	 * @param names
+	 *            - A String[] containing the names of the metrics in the
+	 *            group to report
+	 */
+	public void addKafkaMetrics(ClientBase client, String group,
+		String... names) {
+		KafkaMetricsSource source = new KafkaMetricsSource();
+		source.client = client;
+		source.group = group;
+		source.names = new HashSet<String>(Arrays.asList(names));
+
+		kafkaSources.add(source);
+	}
+
+	/**
+	 * Removes all kafka metrics for the provided client from the registry
+	 *
+	 * @param client
+	 *            - A ClientBase (Producer or Consumer) to stop reading
+	 */
+	public void removeKafkaMetrics(ClientBase client) {
+		for (KafkaMetricsSource source : kafkaSources) {
+			if (source.client == client) {
+				kafkaSources.remove(source);
+			}
+		}
+
+		// the cached gauges may belong to the removed client
+		kafkaGauges.clear();
+	}
+
+	/**
+	 * Gets the registered metrics
+	 *
+	 * @return Returns a List&lt;BrokerMetric&gt; containing the registered
+	 *         metrics, sorted by id
+	 */
+	public List<BrokerMetric> getMetrics() {
+		ArrayList<BrokerMetric> metricList =
+			new ArrayList<BrokerMetric>(metrics.values());
+		Collections.sort(metricList, new Comparator<BrokerMetric>() {
+			@Override
+			public int compare(BrokerMetric metric1, BrokerMetric metric2) {
+				return (metric1.getId().compareTo(metric2.getId()));
+			}
+		});
+		return (metricList);
+	}
+
+	/**
+	 * Reads the current values of the kafka metrics added to the registry,
+	 * each kafka client's metrics are read in a single pass. Metric names are
+	 * formatted as kafka_&lt;group&gt;_&lt;name&gt; and the kafka metric tags
+	 * are used as labels, with any characters other than letters, digits, and
+	 * underscores replaced with underscores. A kafka client added by several
+	 * hazdev broker clients, such as a shared kafka producer, is only 
+	 * reported once, since a scrape with duplicate series is rejected.
+	 *
+	 * @return Returns a List&lt;Gauge&gt; containing the current kafka metric
+	 *         values
+	 */
+	public List<Gauge> getKafkaMetrics() {
+		ArrayList<Gauge> kafkaMetrics = new ArrayList<Gauge>();
+		HashSet<MetricName> reportedNames = new HashSet<MetricName>();
+
+		for (KafkaMetricsSource source : kafkaSources) {
+			Map<MetricName, ? extends Metric> clientMetrics =
+				source.client.kafkaMetrics();
+			if (clientMetrics == null) {
+				continue;
+			}
+
+			for (Map.Entry<MetricName, ? extends Metric> entry :
+				clientMetrics.entrySet()) {
+				MetricName metricName = entry.getKey();
+
+				// is this one we want, and not already reported
+				if (!source.group.equals(metricName.group()) ||
+					!source.names.contains(metricName.name()) ||
+					reportedNames.contains(metricName)) {
+					continue;
+				}
+
+				// only numeric metrics can be reported
+				Object metricValue = entry.getValue().metricValue();
+				if (!(metricValue instanceof Number)) {
+					continue;
+				}
+
+				// convert the name once
+				Gauge kafkaMetric = kafkaGauges.get(metricName);
+				if (kafkaMetric == null) {
+					kafkaMetric = createKafkaGauge(metricName);
+					kafkaGauges.put(metricName, kafkaMetric);
+				}
+				kafkaMetric.set(((Number) metricValue).doubleValue());
+
+				kafkaMetrics.add(kafkaMetric);
+				reportedNames.add(metricName);
+			}
+		}
+
+		return (kafkaMetrics);
+	}
+
+	/**
+	 * Creates a gauge used to report a kafka metric, using the kafka metric 
+	 * tags as labels
+	 *
+	 * @param metricName
+	 *            - A MetricName containing the kafka metric name
+	 * @return Returns the Gauge
+	 */
+	private static Gauge createKafkaGauge(MetricName metricName) {
+		ArrayList<String> labels = new ArrayList<String>();
+		for (Map.Entry<String, String> tag :
+			new TreeMap<String, String>(metricName.tags()).entrySet()) {
+			labels.add(sanitizeName(tag.getKey()));
+			labels.add(tag.getValue());
+		}
+
+		return (new Gauge(sanitizeName("kafka_" + metricName.group() + "_" +
+			metricName.name()), metricName.description(),
+			labels.toArray(new String[labels.size()])));
+	}
+
+	/**
+	 * Replaces any characters other than letters, digits, and underscores in
+	 * the provided name with underscores
+	 *
+	 * @param name
+	 *            - A String containing the name to sanitize
+	 * @return Returns a String containing the sanitized name
+	 */
+	public static String sanitizeName(String name) {
+		StringBuilder sanitized = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char current = name.charAt(i);
+			if (Character.isLetterOrDigit(current) || (current == '_')) {
+				sanitized.append(current);
+			} else {
+				sanitized.append('_');
+			}
+		}
+		return (sanitized.toString());
+	}
+
+	/**
+	 * Logs the current value of every metric in the registry, including the
+	 * kafka metrics, one metric per line at info level
+	 *
+	 * @param logger
+	 *            - A Logger to log the metrics to
+	 */
+	public void logMetrics(Logger logger) {
+		for (BrokerMetric metric : getMetrics()) {
+			logger.info("Metric - " + metric.getId() + " " +
+				metric.formatValue());
+		}
+
+		for (Gauge kafkaMetric : getKafkaMetrics()) {
+			logger.info("KafkaMetric - " + kafkaMetric.getId() + " " +
+				kafkaMetric.formatValue());
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package gov.usgs.hazdevbroker;
+
+/**
+ * A hazdev broker class used to adapt how long the Consumer keeps polling
+ * before returning to the observed message arrival rate. When traffic is
+ * sparse, such as the quiet trickle between earthquakes, each poll returns
+ * as soon as any message arrives, keeping latency low. When traffic bursts,
+ * such as during an aftershock sequence, each poll keeps gathering messages
+ * for up to the linger time, or until the batch target is reached, so
+ * clients handle fewer, larger batches and keep up. The batch target is the
+ * number of messages expected to arrive within the linger time at the
+ * current arrival rate. The poll timeout adapts the same way: the caller's
+ * full timeout while quiet, and no more than the linger time during bursts,
+ * so a client gets back to writing its batch as soon as a burst pauses.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class PollController {
+
+	/**
+	 * Long constant containing the default linger time in milliseconds
+	 */
+	public static final long DEFAULT_LINGER = 100;
+
+	/**
+	 * Integer constant containing the default maximum batch target
+	 */
+	public static final int DEFAULT_MAX_BATCH = 5000;
+
+	/**
+	 * Double constant containing the weight given to each new arrival rate
+	 * measurement when smoothing
+	 */
+	public static final double RATE_WEIGHT = 0.2;
+
+	/**
+	 * The maximum time to keep gathering messages in nanoseconds
+	 */
+	private long lingerNanos;
+
+	/**
+	 * The maximum batch target
+	 */
+	private int maxBatch;
+
+	/**
+	 * The smoothed arrival rate in messages per second
+	 */
+	private volatile double arrivalRate;
+
+	/**
+	 * The current batch target
+	 */
+	private volatile int batchTarget;
+
+	/**
+	 * The time of the last measurement, from System.nanoTime(), 0 if none
+	 */
+	private long lastTime;
+
+	/**
+	 * The constructor for the PollController class, using the default linger
+	 * time and maximum batch target.
+	 */
+	public PollController() {
+		this(DEFAULT_LINGER, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * The advanced constructor for the PollController class.
+	 *
+	 * @param linger
+	 *            - A long containing the maximum time to keep gathering
+	 *            messages during bursts in milliseconds
+	 * @param newMaxBatch
+	 *            - An int containing the maximum batch target
+	 */
+	public PollController(long linger, int newMaxBatch) {
+		lingerNanos = Math.max(0, linger) * 1000000L;
+		maxBatch = Math.max(1, newMaxBatch);
+		arrivalRate = 0;
+		batchTarget = 1;
+		lastTime = 0;
+	}
+
+	/**
+	 * Records the messages that arrived since the last measurement, and
+	 * updates the batch target
+	 *
+	 * @param messageCount
+	 *            - An int containing the number of messages that arrived
+	 * @param time
+	 *            - A long containing the current time from System.nanoTime()
+	 */
+	public void record(int messageCount, long time) {
+		if (lastTime == 0) {
+			lastTime = time;
+			return;
+		}
+
+		long elapsed = time - lastTime;
+		if (elapsed <= 0) {
+			return;
+		}
+		lastTime = time;
+
+		double rate = messageCount * 1000000000.0 / elapsed;
+		arrivalRate = (RATE_WEIGHT * rate) + ((1.0 - RATE_WEIGHT) *
+			arrivalRate);
+
+		// the messages expected within the linger time, a target of one
+		// means return as soon as anything arrives
+		double expected = arrivalRate * lingerNanos / 1000000000.0;
+		batchTarget = (int) Math.max(1, Math.min(maxBatch, expected));
+	}
+
+	/**
+	 * @return the number of messages to gather before returning from a poll,
+	 *         1 when traffic is sparse
+	 */
+	public int getBatchTarget() {
+		return batchTarget;
+	}
+
+	/**
+	 * @return true if traffic is bursting, and polls should keep gathering
+	 *         messages until the batch target or linger time is reached
+	 */
+	public boolean isBatching() {
+		return (batchTarget > 1);
+	}
+
+	/**
+	 * Gets the timeout to poll kafka with for the current traffic
+	 *
+	 * @param timeout
+	 *            - A long containing the timeout the caller polls with while
+	 *            traffic is quiet in milliseconds
+	 * @return Returns the provided timeout while traffic is sparse, or no
+	 *         more than the linger time while traffic is bursting
+	 */
+	public long getPollTimeout(long timeout) {
+		if (!isBatching()) {
+			return (timeout);
+		}
+		return (Math.min(timeout, lingerNanos / 1000000L));
+	}
+
+	/**
+	 * @return the maximum time to keep gathering messages in nanoseconds
+	 */
+	public long getLingerNanos() {
+		return lingerNanos;
+	}
+
+	/**
+	 * @return the smoothed arrival rate in messages per second
+	 */
+	public double getArrivalRate() {
+		return arrivalRate;
+	}
+}
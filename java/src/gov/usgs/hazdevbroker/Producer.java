@@ -1,10 +1,17 @@
 package gov.usgs.hazdevbroker;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 
 import org.apache.kafka.clients.producer.*;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
@@ -18,30 +25,138 @@ public class Producer extends ClientBase {
 	/**
 	 * The kafka producer client
 	 */
-	private static org.apache.kafka.clients.producer.Producer<String, byte[]> producer;
+	private org.apache.kafka.clients.producer.Producer<String, byte[]> producer;
+
+	/**
+	 * Flag indicating that the kafka producer is shared with other Producers,
+	 * see SharedProducers
+	 */
+	private boolean sharedProducer = false;
+
+	/**
+	 * The number of this Producer's sends not yet completed, only counted 
+	 * when the kafka producer is shared, so close can wait for this 
+	 * Producer's sends without flushing every other Producer's
+	 */
+	private final AtomicLong pendingSends = new AtomicLong();
+
+	/**
+	 * A callback counting a send of a shared kafka producer as completed
+	 * before notifying the caller's callback
+	 */
+	private class TrackedCallback implements Callback {
+
+		/**
+		 * The caller's callback, null for no notification
+		 */
+		private Callback callback;
+
+		/**
+		 * The constructor for the TrackedCallback class.
+		 *
+		 * @param newCallback
+		 *            - The caller's Callback, null for no notification
+		 */
+		TrackedCallback(Callback newCallback) {
+			callback = newCallback;
+		}
+
+		@Override
+		public void onCompletion(RecordMetadata metadata, Exception e) {
+			try {
+				if (callback != null) {
+					callback.onCompletion(metadata, e);
+				}
+			} finally {
+				if (pendingSends.decrementAndGet() == 0) {
+					synchronized (pendingSends) {
+						pendingSends.notifyAll();
+					}
+				}
+			}
+		}
+	}
 
 	/**
 	 * Long defining the number seconds between sending heartbeat messages, 
-	 * default is 30 seconds, set to -1 to always send heartbeat messages, set 
-	 * to null to disable heartbeat messages
+	 * default is 30 seconds, set to -1 to always send heartbeat messages
 	 */
-	private static Long heartbeatInterval;
+	private long heartbeatInterval;
 
 	/**
-	 * Variable containing time the last heartbeat was sent.
+	 * Flag indicating that heartbeat messages are enabled, false when the
+	 * heartbeat interval is null
 	 */
-	private static Long lastHeartbeatTime;
+	private boolean heartbeatsEnabled;
+
+	/**
+	 * Variable containing time the last heartbeat was sent, in seconds.
+	 */
+	private volatile long lastHeartbeatTime;
+
+	/**
+	 * The System.nanoTime() when the last heartbeat was sent, so the 
+	 * heartbeat interval is checked against a monotonic clock
+	 */
+	private volatile long lastHeartbeatNanos;
+
+	/**
+	 * The scheduled heartbeats, keyed by topic
+	 */
+	private ConcurrentHashMap<String, ScheduledFuture<?>> heartbeatTasks = 
+		new ConcurrentHashMap<String, ScheduledFuture<?>>();
 
 	/**
 	 * The client id for this producer
 	 */	
-	private static String clientId;
+	private String clientId;
         
         /**
          * When true a heartbeat message also be sent with each send.  Default is true.
          */
         private boolean autoSendHeartbeat = true;
 
+	/**
+	 * String constant containing the name of the header used to stamp the
+	 * time a message was sent, in milliseconds since the epoch as an 8 byte 
+	 * big endian long
+	 */
+	public static final String SEND_TIME_HEADER = "hazdev.send.time";
+
+	/**
+	 * String constant containing the name of the header used to stamp the
+	 * client id of the producer that sent a message, UTF-8 encoded
+	 */
+	public static final String CLIENT_ID_HEADER = "hazdev.client.id";
+
+	/**
+	 * When true the send time and client id headers are added to each 
+	 * message sent.  Default is false.
+	 */
+	private boolean stampHeaders = false;
+
+	/**
+	 * The UTF-8 encoded client id used for the client id header
+	 */
+	private byte[] clientIdBytes = null;
+
+	/**
+	 * The key extractor used to key messages sent without a key, null to 
+	 * send them without a key
+	 */
+	private KeyExtractor keyExtractor = null;
+
+	/**
+	 * The registry to report metrics to, null if not reporting metrics
+	 */
+	private MetricsRegistry metricsRegistry = null;
+
+	/**
+	 * The messages sent counters for each topic
+	 */
+	private ConcurrentHashMap<String, Counter> sentCounters = 
+		new ConcurrentHashMap<String, Counter>();
+
 	/**
 	 * Log4J logger for Producer
 	 */
@@ -54,11 +169,11 @@ public class Producer extends ClientBase {
 	public Producer() {
 		producer = null;
 		clientId = null;
-		heartbeatInterval = null;
+		initHeartbeatInterval(null);
 		CONFIGTYPE_STRING = "ProducerConfig";
 
 		// init last heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
 	}
 
 	/**
@@ -72,11 +187,11 @@ public class Producer extends ClientBase {
 	public Producer(JSONObject configObject) {
 		producer = null;
 		clientId = null;
-		heartbeatInterval = 30L;
+		initHeartbeatInterval(30L);
 		CONFIGTYPE_STRING = "ProducerConfig";
 
 		// init last heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
 
 		// configuration/setup
 		Properties configuration = null;
@@ -105,11 +220,11 @@ public class Producer extends ClientBase {
 	public Producer(JSONObject configObject, Long hbInterval) {
 		producer = null;
 		clientId = null;
-		heartbeatInterval = hbInterval;
+		initHeartbeatInterval(hbInterval);
 		CONFIGTYPE_STRING = "ProducerConfig";
 
 		// init last heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
 
 		// configuration/setup
 		Properties configuration = null;
@@ -138,11 +253,11 @@ public class Producer extends ClientBase {
 		// init
 		producer = null;
 		clientId = null;
-		heartbeatInterval = 30L;
+		initHeartbeatInterval(30L);
 		CONFIGTYPE_STRING = "ProducerConfig";
 		
 		// init last heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
 
 		// configuration/setup
 		Properties configuration = null;
@@ -175,11 +290,11 @@ public class Producer extends ClientBase {
 		// init
 		producer = null;
 		clientId = null;
-		heartbeatInterval = hbInterval;
+		initHeartbeatInterval(hbInterval);
 		CONFIGTYPE_STRING = "ProducerConfig";
 		
 		// init last heartbeat time to now
-		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
 
 		// configuration/setup
 		Properties configuration = null;
@@ -193,6 +308,32 @@ public class Producer extends ClientBase {
 		setup(configuration);	
 	}
 
+	/**
+	 * The advanced constructor for the Producer class. Initializes members to
+	 * default values and uses the provided kafka producer client, such as a
+	 * MockProducer, instead of creating one from a configuration.
+	 *
+	 * @param kafkaProducer
+	 *            - The kafka producer client to use
+	 * @param newClientId
+	 *            - A String containing the client id to use in heartbeats
+	 * @param hbInterval
+	 *            - A Long containing the heartbeat interval to use, set to -1 
+	 * to always send heartbeat messages, set to null to disable heartbeat 
+	 * messages
+	 */
+	public Producer(
+		org.apache.kafka.clients.producer.Producer<String, byte[]> kafkaProducer,
+		String newClientId, Long hbInterval) {
+		producer = kafkaProducer;
+		clientId = newClientId;
+		initHeartbeatInterval(hbInterval);
+		CONFIGTYPE_STRING = "ProducerConfig";
+
+		// init last heartbeat time to now
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
+	}
+
 	/**
 	 * The setup function for the Producer class. Uses the provided Properties 
 	 * configuration to configure the kafka producer client.
@@ -220,8 +361,13 @@ public class Producer extends ClientBase {
 					configProperties.put("value.serializer",
 					"org.apache.kafka.common.serialization.ByteArraySerializer");
 
-			// create the producer
-			producer = new KafkaProducer<String, byte[]>(configProperties);
+			// create the producer, or share one if configured
+			if (SharedProducers.isEnabled()) {
+				producer = SharedProducers.acquire(configProperties);
+				sharedProducer = true;
+			} else {
+				producer = new KafkaProducer<String, byte[]>(configProperties);
+			}
 		} catch (Exception e) {
 			logger.error("Exception configuring producer: " + e.toString());
 			return(false);
@@ -239,32 +385,308 @@ public class Producer extends ClientBase {
 	 *            - A byte[] containing the data to send
 	 */
 	public void send(String topic, byte[] data) {
+		send(topic, data, null);
+	}
+
+	/**
+	 * Sends the contents of the provided byte array to the hazdev kafka broker
+	 * cluster using the provided topic, notifying the provided callback once 
+	 * the send has been acknowledged by the broker cluster (or has failed)
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param data
+	 *            - A byte[] containing the data to send
+	 * @param callback
+	 *            - A Callback to notify when the send completes, null for no
+	 *            notification. If the send could not be started, the callback 
+	 *            is notified immediately with the exception.
+	 * @return Returns a Future&lt;RecordMetadata&gt; for the send, null if the 
+	 *         send could not be started
+	 */
+	public Future<RecordMetadata> send(String topic, byte[] data, 
+		Callback callback) {
+
+		// key it if we have a key extractor
+		String key = null;
+		if (keyExtractor != null) {
+			key = keyExtractor.getKey(topic, data);
+		}
+
+		return (send(topic, key, data, callback));
+	}
+
+	/**
+	 * Sends the contents of the provided byte array to the hazdev kafka broker
+	 * cluster using the provided topic and key. Messages with the same key
+	 * are sent to the same partition, so they stay in order.
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param key
+	 *            - A String containing the key, null to send without a key
+	 * @param data
+	 *            - A byte[] containing the data to send
+	 */
+	public void send(String topic, String key, byte[] data) {
+		send(topic, key, data, null);
+	}
+
+	/**
+	 * Sends the contents of the provided byte array to the hazdev kafka broker
+	 * cluster using the provided topic and key, notifying the provided 
+	 * callback once the send has been acknowledged by the broker cluster (or
+	 * has failed). Messages with the same key are sent to the same partition,
+	 * so they stay in order.
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param key
+	 *            - A String containing the key, null to send without a key
+	 * @param data
+	 *            - A byte[] containing the data to send
+	 * @param callback
+	 *            - A Callback to notify when the send completes, null for no
+	 *            notification. If the send could not be started, the callback 
+	 *            is notified immediately with the exception.
+	 * @return Returns a Future&lt;RecordMetadata&gt; for the send, null if the 
+	 *         send could not be started
+	 */
+	public Future<RecordMetadata> send(String topic, String key, byte[] data, 
+		Callback callback) {
 
 		// create the producer record
 		ProducerRecord<String, byte[]> message = new ProducerRecord<String, byte[]>(
-				topic, data);
+				topic, key, data);
+
+		// stamp it so consumers can measure end to end latency
+		if (stampHeaders) {
+			addStampHeaders(message);
+		}
 
 		// send it async
+		Future<RecordMetadata> result = null;
+		callback = track(callback);
 		try {
-			producer.send(message);
+			result = producer.send(message, callback);
 		} catch (Exception e) { 
 			logger.error("Error calling producer.send: " + e.toString());
-			return ;
+
+			// let the caller know it didn't go
+			if (callback != null) {
+				callback.onCompletion(null, e);
+			}
+			return (null);
+		}
+
+		// count it
+		if (metricsRegistry != null) {
+			getSentCounter(topic).increment();
+		}
+
+		// make sure heartbeats are scheduled for this topic, or send one
+		// if we are always sending heartbeats
+		if (autoSendHeartbeat) {
+			autoHeartbeat(topic);
+		}
+
+		return (result);
+	}
+
+	/**
+	 * Sends each byte array in the provided list to the hazdev kafka broker
+	 * cluster using the provided topic, as a single batch
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param messages
+	 *            - A List&lt;byte[]&gt; containing the messages to send, null
+	 *            entries are skipped
+	 * @return Returns a BatchSendFuture that completes once every message in
+	 *         the batch has completed
+	 */
+	public BatchSendFuture sendBatch(String topic, List<byte[]> messages) {
+		return (sendBatch(topic, messages, null));
+	}
+
+	/**
+	 * Sends each byte array in the provided list to the hazdev kafka broker
+	 * cluster using the provided topic, as a single batch. The messages are
+	 * sent in order, the heartbeat check is done once for the whole batch, and
+	 * every message in the batch is stamped with the same send time.
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param messages
+	 *            - A List&lt;byte[]&gt; containing the messages to send, null
+	 *            entries are skipped
+	 * @param callback
+	 *            - A Callback to notify once every message in the batch has 
+	 *            completed, with the first exception if any message failed, 
+	 *            null for no notification
+	 * @return Returns a BatchSendFuture that completes once every message in
+	 *         the batch has completed
+	 */
+	public BatchSendFuture sendBatch(String topic, List<byte[]> messages,
+		Callback callback) {
+		BatchSendFuture batch = new BatchSendFuture(callback);
+		byte[] sendTimeBytes = getBatchSendTime();
+
+		for (int i = 0; i < messages.size(); i++) {
+			byte[] data = messages.get(i);
+			if (data == null) {
+				continue;
+			}
+			sendBatchMessage(topic, data, sendTimeBytes, batch);
+		}
+
+		finishBatch(topic, batch);
+		return (batch);
+	}
+
+	/**
+	 * Sends the remaining bytes of each buffer from the provided iterator to 
+	 * the hazdev kafka broker cluster using the provided topic, as a single
+	 * batch
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param messages
+	 *            - An Iterator&lt;ByteBuffer&gt; providing the messages to
+	 *            send
+	 * @return Returns a BatchSendFuture that completes once every message in
+	 *         the batch has completed
+	 */
+	public BatchSendFuture sendBatch(String topic,
+		Iterator<ByteBuffer> messages) {
+		return (sendBatch(topic, messages, null));
+	}
+
+	/**
+	 * Sends the remaining bytes of each buffer from the provided iterator to 
+	 * the hazdev kafka broker cluster using the provided topic, as a single
+	 * batch. Each buffer is copied before the next is requested, so the 
+	 * iterator can reuse its buffers, such as when streaming messages out of 
+	 * a file. The messages are sent in order, the heartbeat check is done once
+	 * for the whole batch, and every message in the batch is stamped with the
+	 * same send time.
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param messages
+	 *            - An Iterator&lt;ByteBuffer&gt; providing the messages to
+	 *            send, null or empty buffers are skipped
+	 * @param callback
+	 *            - A Callback to notify once every message in the batch has 
+	 *            completed, with the first exception if any message failed, 
+	 *            null for no notification
+	 * @return Returns a BatchSendFuture that completes once every message in
+	 *         the batch has completed
+	 */
+	public BatchSendFuture sendBatch(String topic,
+		Iterator<ByteBuffer> messages, Callback callback) {
+		BatchSendFuture batch = new BatchSendFuture(callback);
+		byte[] sendTimeBytes = getBatchSendTime();
+
+		try {
+			while (messages.hasNext()) {
+				ByteBuffer buffer = messages.next();
+				if ((buffer == null) || !buffer.hasRemaining()) {
+					continue;
+				}
+
+				byte[] data = new byte[buffer.remaining()];
+				buffer.get(data);
+				sendBatchMessage(topic, data, sendTimeBytes, batch);
+			}
+		} finally {
+			// whatever was sent still completes the batch
+			finishBatch(topic, batch);
+		}
+
+		return (batch);
+	}
+
+	/**
+	 * Sends one message of a batch
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param data
+	 *            - A byte[] containing the data to send
+	 * @param sendTimeBytes
+	 *            - A byte[] containing the encoded send time header for the 
+	 *            batch, null if not stamping headers
+	 * @param batch
+	 *            - The BatchSendFuture the message belongs to
+	 */
+	private void sendBatchMessage(String topic, byte[] data,
+		byte[] sendTimeBytes, BatchSendFuture batch) {
+		String key = null;
+		if (keyExtractor != null) {
+			key = keyExtractor.getKey(topic, data);
+		}
+
+		ProducerRecord<String, byte[]> message =
+			new ProducerRecord<String, byte[]>(topic, key, data);
+		if (sendTimeBytes != null) {
+			addStampHeaders(message, sendTimeBytes);
+		}
+
+		batch.messageSent();
+		Callback callback = track(batch);
+		try {
+			producer.send(message, callback);
+		} catch (Exception e) {
+			logger.error("Error calling producer.send: " + e.toString());
+			callback.onCompletion(null, e);
+		}
+	}
+
+	/**
+	 * Finishes sending a batch, counting the messages, making sure heartbeats
+	 * are scheduled, and sealing the batch
+	 *
+	 * @param topic
+	 *            - A String containing the topic sent to
+	 * @param batch
+	 *            - The BatchSendFuture to finish
+	 */
+	private void finishBatch(String topic, BatchSendFuture batch) {
+		// count them
+		if ((metricsRegistry != null) && (batch.getSentMessages() > 0)) {
+			getSentCounter(topic).add(batch.getSentMessages());
+		}
+
+		// make sure heartbeats are scheduled for this topic, or send one
+		// if we are always sending heartbeats
+		if (autoSendHeartbeat && (batch.getSentMessages() > 0)) {
+			autoHeartbeat(topic);
 		}
 
-		// send heartbeat message, will not send if heartbeats
-		// are disabled, or if it has not been long enough to
-		// send a heartbeat
-                if (autoSendHeartbeat) {
-                  sendHeartbeat(topic);	
-                }
+		batch.seal();
+	}
+
+	/**
+	 * Gets the encoded send time header shared by every message in a batch
+	 *
+	 * @return Returns a byte[] containing the send time, null if not stamping
+	 *         headers
+	 */
+	private byte[] getBatchSendTime() {
+		if (!stampHeaders) {
+			return (null);
+		}
+		return (encodeSendTime(System.currentTimeMillis()));
 	}
 
 	/**
 	 * Generates and sends a heartbeat message to the hazdev kafka broker
-	 * cluster using the provided topic. NOTE that it is considered best 
-	 * practice that a continuously running producer add a call to this function
-	 * to it's sending loop.
+	 * cluster using the provided topic, if it has been at least the heartbeat
+	 * interval since the last heartbeat. Heartbeats are scheduled on their
+	 * own once a message has been sent on a topic, or once 
+	 * scheduleHeartbeats has been called, so calling this function from a 
+	 * sending loop is no longer needed.
 	 *
 	 * @param topic
 	 *            - A String containing the topic to send to
@@ -272,42 +694,113 @@ public class Producer extends ClientBase {
 	public void sendHeartbeat(String topic) {
 
 		// don't send heartbeat if it's disabled
-		if (heartbeatInterval != null) {
-
-			// get current time in seconds
-			Long timeNow = System.currentTimeMillis() / 1000;
+		if (heartbeatsEnabled) {
 
 			// calculate elapsed time
-			Long elapsedTime = timeNow - lastHeartbeatTime;
+			long elapsedNanos = System.nanoTime() - lastHeartbeatNanos;
 
 			// has it been long enough since the last heartbeat?
 			// or are we always sending heartbeats?
-			if ((elapsedTime >= heartbeatInterval) || (heartbeatInterval < 0)) {
-				
-				// create the heartbeat
-				Heartbeat newHeartbeat = new Heartbeat(new Date(), topic, clientId);
-
-				// send the heartbeat
-				if (newHeartbeat.isValid()) {	
-					String heartbeatString = newHeartbeat.toJSONString();
-					byte[] heartbeatData = heartbeatString.getBytes();
-
-					ProducerRecord<String, byte[]> heartbeatMessage = 
-						new ProducerRecord<String, byte[]>(topic, heartbeatData);	
-
-					// send it async
-					try {
-						producer.send(heartbeatMessage);
-					} catch (Exception e) { 
-						logger.error("Error calling producer.send for heartbeat: " + e.toString());
-						return ;
-					}
+			if ((elapsedNanos >= (heartbeatInterval * 1000000000L)) || 
+				(heartbeatInterval < 0)) {
+				sendHeartbeatMessage(topic);
+			}
+		}
+	}
+
+	/**
+	 * Schedules heartbeat messages to be sent on the provided topic every 
+	 * heartbeat interval from a background thread, so heartbeats go out on
+	 * time even when nothing is being sent. Does nothing if heartbeats are 
+	 * disabled, already scheduled for the topic, or sent with every message
+	 * (an interval of zero or less).
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send heartbeats to
+	 */
+	public synchronized void scheduleHeartbeats(final String topic) {
+		if (!heartbeatsEnabled || (heartbeatInterval <= 0) || 
+			heartbeatTasks.containsKey(topic)) {
+			return;
+		}
+
+		ScheduledFuture<?> task = SharedScheduler.get().scheduleAtFixedRate(
+			new Runnable() {
+				@Override
+				public void run() {
+					sendHeartbeatMessage(topic);
 				}
+			}, heartbeatInterval, heartbeatInterval, TimeUnit.SECONDS);
+		heartbeatTasks.put(topic, task);
+
+		logger.debug("Scheduled heartbeats on " + topic + " every " + 
+			String.valueOf(heartbeatInterval) + " seconds.");
+	}
+
+	/**
+	 * Stops sending scheduled heartbeat messages on every topic
+	 */
+	public synchronized void stopHeartbeats() {
+		for (ScheduledFuture<?> task : heartbeatTasks.values()) {
+			task.cancel(false);
+		}
+		heartbeatTasks.clear();
+	}
+
+	/**
+	 * Handles heartbeats when a message is sent, scheduling heartbeats for 
+	 * the topic the first time, or sending a heartbeat with every message if
+	 * the heartbeat interval is zero or less. Once the topic is scheduled 
+	 * this is a single map lookup, without checking the time.
+	 *
+	 * @param topic
+	 *            - A String containing the topic sent to
+	 */
+	private void autoHeartbeat(String topic) {
+		if (!heartbeatsEnabled) {
+			return;
+		}
+
+		if (heartbeatInterval <= 0) {
+			// always sending heartbeats
+			sendHeartbeatMessage(topic);
+		} else if (!heartbeatTasks.containsKey(topic)) {
+			scheduleHeartbeats(topic);
+		}
+	}
+
+	/**
+	 * Generates and sends a heartbeat message to the hazdev kafka broker
+	 * cluster using the provided topic, and remembers the time it was sent
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 */
+	private void sendHeartbeatMessage(String topic) {
 
-				// remember heartbeat time
-				setLastHeartbeatTime(timeNow);
+		// create the heartbeat
+		Heartbeat newHeartbeat = new Heartbeat(new Date(), topic, clientId);
+
+		// send the heartbeat
+		if (newHeartbeat.isValid()) {	
+			String heartbeatString = newHeartbeat.toJSONString();
+			byte[] heartbeatData = heartbeatString.getBytes();
+
+			ProducerRecord<String, byte[]> heartbeatMessage = 
+				new ProducerRecord<String, byte[]>(topic, heartbeatData);	
+
+			// send it async
+			try {
+				producer.send(heartbeatMessage);
+			} catch (Exception e) { 
+				logger.error("Error calling producer.send for heartbeat: " + 
+					e.toString());
+				return;
 			}
 		}
+
+		// remember heartbeat time
+		markHeartbeatTime(System.currentTimeMillis() / 1000);
 	}
 
 	/**
@@ -329,14 +822,272 @@ public class Producer extends ClientBase {
 	}
 
 	/**
-	 * Function that closes down the kafka producer client
+	 * Sends the contents of the provided string to the hazdev kafka broker
+	 * cluster using the provided topic and key
+	 *
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param key
+	 *            - A String containing the key, null to send without a key
+	 * @param message
+	 *            - A String containing the message to send
+	 */
+	public void sendString(String topic, String key, String message) {
+
+		// convert message to bytes
+		byte[] data = message.getBytes();
+
+		// send
+		send(topic, key, data);
+	}
+
+	/**
+	 * Function that closes down the kafka producer client, or releases it if
+	 * it is shared with other Producers
 	 *
 	 * @param timeout
 	 *            - A long containing time in milliseconds to wait before
 	 *            closing the kafka producer client
 	 */
 	public void close(long timeout) {
-		producer.close(timeout, TimeUnit.MILLISECONDS);
+		stopHeartbeats();
+		if (sharedProducer) {
+			// only wait for our own sends, other Producers keep using it
+			long closeEnd = System.nanoTime() + 
+				(Math.max(0, timeout) * 1000000L);
+			if (!waitForSends(timeout)) {
+				logger.warn(String.valueOf(pendingSends.get()) + 
+					" send(s) not completed before closing.");
+			}
+			SharedProducers.release(
+				(KafkaProducer<String, byte[]>) producer, 
+				Math.max(0, (closeEnd - System.nanoTime()) / 1000000L));
+		} else {
+			producer.close(timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Counts a send of a shared kafka producer as pending until it completes
+	 *
+	 * @param callback
+	 *            - The caller's Callback, null for no notification
+	 * @return Returns the Callback to send with, the caller's callback if 
+	 *         the kafka producer is not shared
+	 */
+	private Callback track(Callback callback) {
+		if (!sharedProducer) {
+			return (callback);
+		}
+		pendingSends.incrementAndGet();
+		return (new TrackedCallback(callback));
+	}
+
+	/**
+	 * Waits for this Producer's sends on a shared kafka producer to complete
+	 *
+	 * @param timeout
+	 *            - A long containing the maximum time to wait in 
+	 *            milliseconds
+	 * @return Returns true if every send completed, false otherwise
+	 */
+	private boolean waitForSends(long timeout) {
+		long waitEnd = System.nanoTime() + (Math.max(0, timeout) * 1000000L);
+		synchronized (pendingSends) {
+			while (pendingSends.get() > 0) {
+				long remaining = (waitEnd - System.nanoTime()) / 1000000L;
+				if (remaining <= 0) {
+					return (false);
+				}
+				try {
+					pendingSends.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return (false);
+				}
+			}
+		}
+		return (true);
+	}
+
+	/**
+	 * Adds the send time and client id headers to a producer record
+	 *
+	 * @param message
+	 *            - A ProducerRecord to add the headers to
+	 */
+	private void addStampHeaders(ProducerRecord<String, byte[]> message) {
+		addStampHeaders(message, encodeSendTime(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Adds the provided send time and the client id headers to a producer
+	 * record
+	 *
+	 * @param message
+	 *            - A ProducerRecord to add the headers to
+	 * @param sendTimeBytes
+	 *            - A byte[] containing the encoded send time
+	 */
+	private void addStampHeaders(ProducerRecord<String, byte[]> message,
+		byte[] sendTimeBytes) {
+		message.headers().add(SEND_TIME_HEADER, sendTimeBytes);
+
+		if (clientIdBytes != null) {
+			message.headers().add(CLIENT_ID_HEADER, clientIdBytes);
+		}
+	}
+
+	/**
+	 * Encodes a send time for the send time header
+	 *
+	 * @param sendTime
+	 *            - A long containing the send time in milliseconds since the
+	 *            epoch
+	 * @return Returns a byte[] containing the send time as an 8 byte big
+	 *         endian long
+	 */
+	private static byte[] encodeSendTime(long sendTime) {
+		// big endian long
+		byte[] sendTimeBytes = new byte[8];
+		for (int i = 7; i >= 0; i--) {
+			sendTimeBytes[i] = (byte) sendTime;
+			sendTime >>>= 8;
+		}
+		return (sendTimeBytes);
+	}
+
+	/**
+	 * Sets the key extractor used to choose the key of each message sent 
+	 * without one, including messages sent in batches, so that related 
+	 * messages (such as the picks from one station) stay in order on one 
+	 * partition while load is spread across the partitions. Heartbeats are 
+	 * always sent without a key.
+	 *
+	 * @param extractor
+	 *            - A KeyExtractor to use, null to send without a key
+	 */
+	public void setKeyExtractor(KeyExtractor extractor) {
+		keyExtractor = extractor;
+	}
+
+	/**
+	 * @return the key extractor, null if messages are sent without a key
+	 */
+	public KeyExtractor getKeyExtractor() {
+		return keyExtractor;
+	}
+
+	/**
+	 * Sets whether to add the send time and client id headers to each message
+	 * sent, which lets consumers measure the end to end latency of each 
+	 * message and which producer it came from. The headers require kafka 
+	 * brokers that support message headers (0.11 or newer).
+	 *
+	 * @param stamp
+	 *            - A boolean, true to add the headers
+	 */
+	public void setStampHeaders(boolean stamp) {
+		stampHeaders = stamp;
+
+		if (clientId != null) {
+			try {
+				clientIdBytes = clientId.getBytes("UTF-8");
+			} catch (java.io.UnsupportedEncodingException e) {
+				clientIdBytes = clientId.getBytes();
+			}
+		}
+	}
+
+	/**
+	 * Gets the messages sent counter for a topic
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @return Returns the Counter for the topic
+	 */
+	private Counter getSentCounter(String topic) {
+		Counter sentCounter = sentCounters.get(topic);
+		if (sentCounter == null) {
+			sentCounter = metricsRegistry.counter(
+				"hazdev_producer_messages_sent_total", 
+				"Messages sent by the producer", 
+				"client_id", String.valueOf(clientId), "topic", topic);
+			sentCounters.put(topic, sentCounter);
+		}
+		return (sentCounter);
+	}
+
+	/**
+	 * Sets the registry to report metrics to, including the kafka producer's
+	 * own request, latency, and throughput metrics
+	 *
+	 * @param registry
+	 *            - A MetricsRegistry to report to, null to stop reporting
+	 */
+	public void setMetricsRegistry(MetricsRegistry registry) {
+		if (metricsRegistry != null) {
+			metricsRegistry.removeKafkaMetrics(this);
+		}
+
+		metricsRegistry = registry;
+		sentCounters.clear();
+
+		if (metricsRegistry != null) {
+			metricsRegistry.register(new Gauge(
+				"hazdev_producer_heartbeat_age_seconds", 
+				"Seconds since a heartbeat was last sent", 
+				"client_id", String.valueOf(clientId)) {
+					@Override
+					public double getValue() {
+						return ((System.currentTimeMillis() / 1000) - 
+							getLastHeartbeatTime());
+					}
+				});
+
+			metricsRegistry.addKafkaMetrics(this, "producer-metrics", 
+				"response-rate", "request-rate", "request-latency-avg", 
+				"outgoing-byte-rate", "io-wait-time-ns-avg", "batch-size-avg", 
+				"record-send-rate", "record-error-rate");
+		}
+	}
+
+	/**
+	 * Gets the metrics of the kafka producer client
+	 *
+	 * @return Returns the kafka producer client's metrics, null if there is no
+	 *         kafka producer client
+	 */
+	@Override
+	Map<MetricName, ? extends Metric> kafkaMetrics() {
+		if (producer == null) {
+			return (null);
+		}
+		return (producer.metrics());
+	}
+
+	/**
+	 * Sets the heartbeat interval from the constructor argument
+	 *
+	 * @param hbInterval
+	 *            - A Long containing the heartbeat interval to use, set to -1 
+	 * to always send heartbeat messages, set to null to disable heartbeat 
+	 * messages
+	 */
+	private void initHeartbeatInterval(Long hbInterval) {
+		heartbeatsEnabled = (hbInterval != null);
+		heartbeatInterval = heartbeatsEnabled ? hbInterval : 0;
+	}
+
+	/**
+	 * @return the heartbeat interval in seconds, null if heartbeat messages 
+	 *         are disabled
+	 */
+	public Long getHeartbeatInterval() {
+		if (!heartbeatsEnabled) {
+			return (null);
+		}
+		return heartbeatInterval;
 	}
 
 	/**
@@ -351,8 +1102,22 @@ public class Producer extends ClientBase {
 	 *            the lastHeartbeatTime to set
 	 */
 	public void setLastHeartbeatTime(Long lastHeartbeatTime) {
-		this.lastHeartbeatTime = lastHeartbeatTime;
+		markHeartbeatTime(lastHeartbeatTime.longValue());
 	}  
+
+	/**
+	 * Sets the time the last heartbeat was sent, also moving the monotonic
+	 * time the heartbeat interval is checked against
+	 *
+	 * @param newLastHeartbeatTime
+	 *            - A long containing the time in seconds
+	 */
+	private void markHeartbeatTime(long newLastHeartbeatTime) {
+		long ageSeconds = (System.currentTimeMillis() / 1000) - 
+			newLastHeartbeatTime;
+		lastHeartbeatNanos = System.nanoTime() - (ageSeconds * 1000000000L);
+		lastHeartbeatTime = newLastHeartbeatTime;
+	}
         
 	/**
 	 * Send an additional heartbeat message with each send if sendHeartbeat == true
@@ -0,0 +1,46 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.*;
+
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * An interface for classes used by the Consumer to hand state off when the
+ * partitions of a consumer group move between consumers, such as when the
+ * group is scaled up or down. Before partitions are taken away, the handler
+ * flushes everything built from the messages poll has already returned, and
+ * the Consumer then commits their offsets, so the new owner starts right
+ * after them instead of reprocessing them. When partitions are assigned, the
+ * handler is given the offset each will be read from, to set up any state it
+ * keeps per partition.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public interface RebalanceHandler {
+
+	/**
+	 * Called from within poll before partitions are taken away. Everything
+	 * built from the messages already returned by poll should be flushed,
+	 * the Consumer commits their offsets once this returns true. If the
+	 * flush fails the offsets are not committed, and the new owner reads the
+	 * messages again. Also called when partitions were lost without a clean
+	 * handoff, in which case the offsets can not be committed.
+	 *
+	 * @param partitions
+	 *            - A Collection&lt;TopicPartition&gt; containing the
+	 *            partitions being taken away
+	 * @return Returns true if everything was flushed, false otherwise
+	 */
+	boolean partitionsRevoked(Collection<TopicPartition> partitions);
+
+	/**
+	 * Called from within poll when partitions are assigned, before any of
+	 * their messages are returned
+	 *
+	 * @param positions
+	 *            - A Map&lt;TopicPartition, Long&gt; containing the offset
+	 *            each assigned partition will be read from, after any
+	 *            backfill
+	 */
+	void partitionsAssigned(Map<TopicPartition, Long> positions);
+}
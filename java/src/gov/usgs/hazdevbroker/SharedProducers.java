@@ -0,0 +1,150 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.log4j.Logger;
+
+/**
+ * A hazdev broker class used to share kafka producer clients between the
+ * Producers in one JVM, such as when running many client pipelines in one
+ * process. A kafka producer is thread safe and batches sends from every
+ * thread, so Producers configured with the same kafka properties (other
+ * than client.id) can share one, saving its buffer memory, network
+ * connections, and sender thread. The shared kafka producer uses the
+ * client.id of the first Producer to acquire it, while each Producer keeps
+ * its own client id for heartbeats and headers. The kafka producer is
+ * closed when the last Producer sharing it releases it. Sharing is disabled
+ * by default.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class SharedProducers {
+
+	/**
+	 * A shared kafka producer and the number of Producers using it
+	 */
+	private static class Entry {
+
+		/**
+		 * The shared kafka producer
+		 */
+		KafkaProducer<String, byte[]> producer;
+
+		/**
+		 * The number of Producers using the kafka producer
+		 */
+		int references;
+	}
+
+	/**
+	 * Flag indicating whether Producers should share kafka producers
+	 */
+	private static volatile boolean enabled = false;
+
+	/**
+	 * The shared kafka producers, keyed by their properties without client.id
+	 */
+	private static HashMap<Properties, Entry> producers =
+		new HashMap<Properties, Entry>();
+
+	/**
+	 * Log4J logger for SharedProducers
+	 */
+	static Logger logger = Logger.getLogger(SharedProducers.class);
+
+	/**
+	 * Sets whether Producers created from now on share kafka producers
+	 *
+	 * @param share
+	 *            - A boolean, true to share kafka producers
+	 */
+	public static void setEnabled(boolean share) {
+		enabled = share;
+	}
+
+	/**
+	 * @return true if Producers share kafka producers
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Gets the kafka producer for the provided properties, creating it if no
+	 * Producer is using one with the same properties
+	 *
+	 * @param configProperties
+	 *            - A Properties containing the kafka producer configuration
+	 * @return Returns the shared KafkaProducer
+	 */
+	public static synchronized KafkaProducer<String, byte[]> acquire(
+		Properties configProperties) {
+		Properties key = getKey(configProperties);
+
+		Entry entry = producers.get(key);
+		if (entry == null) {
+			entry = new Entry();
+			entry.producer = new KafkaProducer<String, byte[]>(
+				configProperties);
+			entry.references = 0;
+			producers.put(key, entry);
+			logger.info("Created shared kafka producer for client.id " +
+				configProperties.getProperty("client.id") + ".");
+		}
+
+		entry.references++;
+		return (entry.producer);
+	}
+
+	/**
+	 * Releases a kafka producer acquired with acquire. The kafka producer is
+	 * closed when no Producer is using it anymore, otherwise it is left 
+	 * running, the caller waits for its own sends before releasing.
+	 *
+	 * @param producer
+	 *            - The KafkaProducer to release
+	 * @param timeout
+	 *            - A long containing time in milliseconds to wait before
+	 *            closing the kafka producer
+	 */
+	public static void release(KafkaProducer<String, byte[]> producer,
+		long timeout) {
+		boolean close = false;
+		synchronized (SharedProducers.class) {
+			Iterator<Map.Entry<Properties, Entry>> iterator =
+				producers.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next().getValue();
+				if (entry.producer == producer) {
+					entry.references--;
+					if (entry.references <= 0) {
+						iterator.remove();
+						close = true;
+					}
+					break;
+				}
+			}
+		}
+
+		// don't hold the lock while waiting on the network
+		if (close) {
+			producer.close(timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Builds the key of the provided kafka producer configuration
+	 *
+	 * @param configProperties
+	 *            - A Properties containing the kafka producer configuration
+	 * @return Returns a copy of the properties without client.id
+	 */
+	private static Properties getKey(Properties configProperties) {
+		Properties key = new Properties();
+		key.putAll(configProperties);
+		key.remove("client.id");
+		return (key);
+	}
+}
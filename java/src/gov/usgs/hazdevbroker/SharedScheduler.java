@@ -0,0 +1,45 @@
+package gov.usgs.hazdevbroker;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * A hazdev broker class holding the background scheduler shared by every
+ * client in the JVM, used for small periodic tasks such as sending scheduled
+ * heartbeats and writing heartbeat files. Sharing one small pool keeps the
+ * thread count flat when many clients run in one JVM. The threads are
+ * daemons, created in the ClientThreads mode in effect on first use, so the
+ * scheduler never keeps the JVM running, and it is never shut down; clients
+ * cancel their own tasks instead.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class SharedScheduler {
+
+	/**
+	 * Integer constant containing the number of scheduler threads
+	 */
+	public static final int THREADS = 2;
+
+	/**
+	 * The shared scheduler, created on first use
+	 */
+	private static ScheduledThreadPoolExecutor scheduler = null;
+
+	/**
+	 * Gets the shared scheduler, creating it on first use
+	 *
+	 * @return Returns the ScheduledExecutorService shared by every client
+	 */
+	public static synchronized ScheduledExecutorService get() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(THREADS,
+				ClientThreads.newThreadFactory("hazdev-scheduler"));
+
+			// don't keep cancelled heartbeat tasks around until they would
+			// have run
+			scheduler.setRemoveOnCancelPolicy(true);
+		}
+		return (scheduler);
+	}
+}
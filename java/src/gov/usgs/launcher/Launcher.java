@@ -4,6 +4,9 @@ import gov.usgs.hazdevbroker.ClientBase;
 import gov.usgs.consumerclient.ConsumerClient;
 import gov.usgs.producerclient.ProducerClient;
 import gov.usgs.archiveclient.ArchiveClient;
+import gov.usgs.multiclient.MultiClient;
+import gov.usgs.loadtest.LoadTest;
+import gov.usgs.loadtest.TrafficGenerator;
 
 /**
  * a launcher class used to support launching either the ConsumerClient or the
@@ -48,6 +51,12 @@ public class Launcher {
 		} else if (option.equals("ArchiveClient")) {
 			new ArchiveClient();
 			ArchiveClient.main(args2);
+		} else if (option.equals("MultiClient")) {
+			MultiClient.main(args2);
+		} else if (option.equals("LoadTest")) {
+			LoadTest.main(args2);
+		} else if (option.equals("TrafficGenerator")) {
+			TrafficGenerator.main(args2);
 		} else if (option.equals("version")) {
 			System.out.println("v" + ClientBase.VERSION_MAJOR + "." + 
 				ClientBase.VERSION_MINOR + "." + 
@@ -55,7 +64,7 @@ public class Launcher {
 			System.exit(1);
 		} else {
 			System.out.println(
-					"Launcher: Invalid hazdev-broker <clientType> provided, only ConsumerClient, ProducerClient, or ArchiveClient supported.");
+					"Launcher: Invalid hazdev-broker <clientType> provided, only ConsumerClient, ProducerClient, ArchiveClient, MultiClient, LoadTest, or TrafficGenerator supported.");
 		}
 
 	}
@@ -0,0 +1,793 @@
+package gov.usgs.loadtest;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.PropertyConfigurator;
+
+import gov.usgs.archiveclient.ArchiveClient;
+import gov.usgs.consumerclient.ConsumerClient;
+import gov.usgs.hazdevbroker.AllocationProfiler;
+import gov.usgs.hazdevbroker.Consumer;
+import gov.usgs.hazdevbroker.Counter;
+import gov.usgs.hazdevbroker.LatencyHistogram;
+import gov.usgs.hazdevbroker.MetricsHttpServer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
+import gov.usgs.hazdevbroker.PollController;
+import gov.usgs.hazdevbroker.Producer;
+import gov.usgs.hazdevbroker.Utility;
+
+import java.util.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.json.simple.JSONObject;
+
+/**
+ * a load test harness used to measure the throughput and latency of the
+ * hazdev-broker clients without a live kafka. Synthetic pick traffic is sent
+ * by a TrafficGenerator through a Producer into an in-process LoopbackBroker,
+ * and read back out through Consumers by a ConsumerClient pipeline (writing files with
+ * ConsumerClient.writeMessagesToDisk) and an ArchiveClient pipeline (writing
+ * with ArchiveClient.writeMessagesToArchive). The harness reports the sent and
+ * written message rates, the latency from send to written to disk, and the
+ * garbage collection pressure, both periodically and once the test is done.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class LoadTest {
+
+	/**
+	 * JSON Configuration Keys
+	 */
+	public static final String TYPE_KEY = "Type";
+	public static final String LOG4J_CONFIGFILE = "Log4JConfigFile";
+	public static final String TOPIC = "Topic";
+	public static final String DURATION_SECONDS = "DurationSeconds";
+	public static final String REPORT_INTERVAL = "ReportInterval";
+	public static final String SHAPE = "Shape";
+	public static final String RATE = "Rate";
+	public static final String BURST_RATE = "BurstRate";
+	public static final String BURST_SECONDS = "BurstSeconds";
+	public static final String BURST_INTERVAL = "BurstInterval";
+	public static final String OMORI_C = "OmoriC";
+	public static final String OMORI_P = "OmoriP";
+	public static final String STATION_COUNT = "StationCount";
+	public static final String PICKS_PER_EVENT = "PicksPerEvent";
+	public static final String AFTERSHOCK_ZONE_STATIONS =
+		"AftershockZoneStations";
+	public static final String MESSAGE_SIZE_DISTRIBUTION =
+		"MessageSizeDistribution";
+	public static final String MESSAGE_SIZE = "MessageSize";
+	public static final String MAX_MESSAGE_SIZE = "MaxMessageSize";
+	public static final String MESSAGE_SIZE_SIGMA = "MessageSizeSigma";
+	public static final String OUTPUT_DIRECTORY = "OutputDirectory";
+	public static final String MESSAGES_PER_FILE = "MessagesPerFile";
+	public static final String BROKER_CAPACITY = "BrokerCapacity";
+	public static final String MAX_POLL_RECORDS = "MaxPollRecords";
+	public static final String POLL_TIMEOUT = "PollTimeout";
+	public static final String RUN_CONSUMER_CLIENT = "RunConsumerClient";
+	public static final String RUN_ARCHIVE_CLIENT = "RunArchiveClient";
+	public static final String DRAIN_SECONDS = "DrainSeconds";
+	public static final String METRICS_PORT = "MetricsPort";
+	public static final String ALLOCATION_PROFILING = "AllocationProfiling";
+	public static final String ADAPTIVE_POLL_LINGER = "AdaptivePollLinger";
+
+	/**
+	 * String constant containing the client id used by the harness
+	 */
+	public static final String CLIENT_ID = "loadtest";
+
+	/**
+	 * Double constant containing the number of nanoseconds per second
+	 */
+	private static final double NANOS_PER_SECOND = 1000000000.0;
+
+	/**
+	 * Double constant containing the number of nanoseconds per millisecond
+	 */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	/**
+	 * Log4J logger for LoadTest
+	 */
+	static Logger logger = Logger.getLogger(LoadTest.class);
+
+	/**
+	 * Flag telling the pipelines to keep running
+	 */
+	private static volatile boolean running;
+
+	/**
+	 * a growable ring of longs, used to keep the append time of each message
+	 * waiting in the ConsumerClient file queue without boxing
+	 */
+	static class LongQueue {
+		/**
+		 * The values, in a ring
+		 */
+		private long[] values = new long[1024];
+
+		/**
+		 * The index of the oldest value
+		 */
+		private int head = 0;
+
+		/**
+		 * The number of values
+		 */
+		private int size = 0;
+
+		/**
+		 * Adds a value to the end of the queue
+		 */
+		void add(long value) {
+			if (size == values.length) {
+				long[] newValues = new long[values.length * 2];
+				for (int i = 0; i < size; i++) {
+					newValues[i] = values[(head + i) % values.length];
+				}
+				values = newValues;
+				head = 0;
+			}
+			values[(head + size) % values.length] = value;
+			size++;
+		}
+
+		/**
+		 * Removes and returns the value at the front of the queue
+		 */
+		long remove() {
+			long value = values[head];
+			head = (head + 1) % values.length;
+			size--;
+			return (value);
+		}
+
+		/**
+		 * Returns the number of values in the queue
+		 */
+		int size() {
+			return (size);
+		}
+	}
+
+	/**
+	 * a base class for the pipelines that read from the broker and write to
+	 * disk, holding what they have in common
+	 */
+	abstract static class Pipeline implements Runnable {
+		/**
+		 * The name of the pipeline
+		 */
+		String name;
+
+		/**
+		 * The kafka consumer client stand-in
+		 */
+		LoopbackConsumer loopbackConsumer;
+
+		/**
+		 * The hazdev broker consumer wrapping the stand-in
+		 */
+		Consumer consumer;
+
+		/**
+		 * The poll timeout in milliseconds
+		 */
+		long pollTimeout;
+
+		/**
+		 * The messages written to disk
+		 */
+		Counter written;
+
+		/**
+		 * The latency from send to written to disk over the whole test
+		 */
+		LatencyHistogram latency;
+
+		/**
+		 * The latency from send to written to disk since the last report
+		 */
+		LatencyHistogram intervalLatency;
+
+		/**
+		 * The System.nanoTime() of the last write
+		 */
+		volatile long lastWriteTime;
+
+		/**
+		 * The allocation profiler, null if not profiling
+		 */
+		AllocationProfiler allocationProfiler;
+
+		/**
+		 * The allocation measured for each whole poll and write, null if not
+		 * profiling
+		 */
+		AllocationProfiler.Stage loopAllocation;
+
+		/**
+		 * Records the latency of a message written to disk
+		 *
+		 * @param appendTime
+		 *            - A long containing the System.nanoTime() the message
+		 *            was sent
+		 * @param now
+		 *            - A long containing the System.nanoTime() now
+		 */
+		void recordLatency(long appendTime, long now) {
+			latency.record(now - appendTime);
+			intervalLatency.record(now - appendTime);
+		}
+
+		/**
+		 * Polls and writes until stopped
+		 */
+		@Override
+		public void run() {
+			while (running) {
+				long allocationStart = (loopAllocation != null) ?
+					AllocationProfiler.getAllocatedBytes() : -1;
+				try {
+					int polled = pollAndWrite();
+					if (loopAllocation != null) {
+						loopAllocation.record(allocationStart, polled);
+					}
+				} catch (Exception e) {
+					logger.error(name + ": " + e.toString());
+				}
+			}
+		}
+
+		/**
+		 * Polls the broker once and writes what is ready to disk
+		 *
+		 * @return Returns the number of messages polled
+		 */
+		abstract int pollAndWrite() throws Exception;
+	}
+
+	/**
+	 * a pipeline that writes files like the ConsumerClient
+	 */
+	static class ConsumerClientPipeline extends Pipeline {
+		/**
+		 * The number of messages per file
+		 */
+		int messagesPerFile;
+
+		/**
+		 * The append times of the messages in the file queue
+		 */
+		LongQueue queuedAppendTimes = new LongQueue();
+
+		/**
+		 * The allocation measured adding polled messages to the file queue,
+		 * null if not profiling
+		 */
+		AllocationProfiler.Stage queueAllocation;
+
+		/**
+		 * Polls the broker once and writes a file if there are enough
+		 * messages, or if it has been a second since the last file
+		 */
+		@Override
+		int pollAndWrite() {
+			loopbackConsumer.startPoll();
+			ArrayList<String> messages = consumer.pollString(pollTimeout);
+			Queue<String> fileQueue = ConsumerClient.getFileQueue();
+
+			if (messages != null) {
+				long allocationStart = (queueAllocation != null) ?
+					AllocationProfiler.getAllocatedBytes() : -1;
+				for (int i = 0; i < messages.size(); i++) {
+					fileQueue.add(messages.get(i));
+					queuedAppendTimes.add(
+						loopbackConsumer.getPollAppendTime(i));
+				}
+				if (queueAllocation != null) {
+					queueAllocation.record(allocationStart, messages.size());
+				}
+			}
+
+			int numToWrite = 0;
+			if (fileQueue.size() >= messagesPerFile) {
+				numToWrite = messagesPerFile;
+			} else if ((fileQueue.size() > 0) &&
+				(System.nanoTime() - lastWriteTime > NANOS_PER_SECOND)) {
+				numToWrite = fileQueue.size();
+			}
+
+			if (numToWrite > 0) {
+				ConsumerClient.writeMessagesToDisk(numToWrite);
+
+				long now = System.nanoTime();
+				for (int i = 0; i < numToWrite; i++) {
+					recordLatency(queuedAppendTimes.remove(), now);
+				}
+				written.add(numToWrite);
+				lastWriteTime = now;
+			}
+
+			return ((messages != null) ? messages.size() : 0);
+		}
+	}
+
+	/**
+	 * a pipeline that appends to an archive file like the ArchiveClient
+	 */
+	static class ArchiveClientPipeline extends Pipeline {
+		/**
+		 * The archive file writer
+		 */
+		PrintWriter archiveWriter;
+
+		/**
+		 * Polls the broker once and appends what was received to the archive
+		 */
+		@Override
+		int pollAndWrite() {
+			loopbackConsumer.startPoll();
+			ArrayList<String> messages = consumer.pollString(pollTimeout);
+			if ((messages == null) || (messages.size() == 0)) {
+				return (0);
+			}
+
+			ArchiveClient.writeMessagesToArchive(archiveWriter, messages);
+
+			long now = System.nanoTime();
+			for (int i = 0; i < messages.size(); i++) {
+				recordLatency(loopbackConsumer.getPollAppendTime(i), now);
+			}
+			written.add(messages.size());
+			lastWriteTime = now;
+
+			return (messages.size());
+		}
+	}
+
+	/**
+	 * main function for LoadTest
+	 *
+	 * @param args
+	 *            - A String[] containing the command line arguments.
+	 */
+	public static void main(String[] args) {
+
+		// check number of arguments
+		if (args.length == 0) {
+			System.out.println("Usage: hazdev-broker LoadTest <configfile>");
+			System.exit(1);
+		}
+
+		// parse config file into json
+		JSONObject configJSON = Utility.readConfigurationFromFile(args[0]);
+
+		// nullcheck
+		if (configJSON == null) {
+			System.out.println("Error, invalid json from configuration.");
+			System.exit(1);
+		}
+
+		// type check
+		if (configJSON.containsKey(TYPE_KEY)) {
+			String type = configJSON.get(TYPE_KEY).toString();
+			if (!type.equals("LoadTest")) {
+				System.out.println("Error, wrong configuration.");
+				System.exit(1);
+			}
+		} else {
+			System.out.println("Error, missing type in configuration.");
+			System.exit(1);
+		}
+
+		// get log4j config
+		if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
+			System.out.println("Using custom logging configuration");
+			PropertyConfigurator.configure(
+				(String) configJSON.get(LOG4J_CONFIGFILE));
+		} else {
+			System.out.println("Using default logging configuration");
+			BasicConfigurator.configure();
+		}
+
+		logger.info("----------Load Test Startup----------");
+
+		String topic = getString(configJSON, TOPIC, "loadtest");
+		long durationSeconds = getLong(configJSON, DURATION_SECONDS, 60);
+		long reportInterval = getLong(configJSON, REPORT_INTERVAL, 10);
+		long picksPerEvent = getLong(configJSON, PICKS_PER_EVENT, 10);
+		long aftershockZone = getLong(configJSON, AFTERSHOCK_ZONE_STATIONS,
+			10);
+		long messagesPerFile = getLong(configJSON, MESSAGES_PER_FILE, 100);
+		long brokerCapacity = getLong(configJSON, BROKER_CAPACITY, 100000);
+		long maxPollRecords = getLong(configJSON, MAX_POLL_RECORDS, 500);
+		long pollTimeout = getLong(configJSON, POLL_TIMEOUT, 500);
+		long drainSeconds = getLong(configJSON, DRAIN_SECONDS, 30);
+		boolean runConsumerClient = getBoolean(configJSON,
+			RUN_CONSUMER_CLIENT, true);
+		boolean runArchiveClient = getBoolean(configJSON, RUN_ARCHIVE_CLIENT,
+			true);
+		boolean allocationProfiling = getBoolean(configJSON,
+			ALLOCATION_PROFILING, false);
+		long adaptivePollLinger = getLong(configJSON, ADAPTIVE_POLL_LINGER,
+			0);
+		String outputDirectory = getString(configJSON, OUTPUT_DIRECTORY,
+			System.getProperty("java.io.tmpdir"));
+
+		TrafficShape shape = TrafficGenerator.readTrafficShape(configJSON);
+		if (shape == null) {
+			System.exit(1);
+		}
+
+		PickGenerator picks = TrafficGenerator.readPickGenerator(configJSON,
+			System.nanoTime());
+		if (picks == null) {
+			System.exit(1);
+		}
+
+		// make a directory for this run's output
+		File runDirectory = null;
+		try {
+			File outDir = new File(outputDirectory);
+			if (!outDir.exists()) {
+				outDir.mkdirs();
+			}
+			runDirectory = File.createTempFile("loadtest", "", outDir);
+			runDirectory.delete();
+			runDirectory.mkdirs();
+		} catch (IOException e) {
+			logger.error("Error creating output directory: " + e.toString());
+			System.exit(1);
+		}
+		logger.info("Writing output to: " + runDirectory.getPath());
+
+		logger.info("----------Processed Config----------");
+
+		MetricsRegistry registry = MetricsRegistry.getDefault();
+		LoopbackBroker broker = new LoopbackBroker((int) brokerCapacity);
+
+		// the producer, heartbeats are not sent so every message polled is
+		// one the harness sent
+		Producer producer = new Producer(new LoopbackProducer(broker),
+			CLIENT_ID, null);
+		producer.setStampHeaders(true);
+		producer.setMetricsRegistry(registry);
+		Counter sent = registry.counter("hazdev_loadtest_messages_sent_total",
+			"Messages sent by the load test");
+
+		// the pipelines
+		ArrayList<Pipeline> pipelines = new ArrayList<Pipeline>();
+		if (runConsumerClient) {
+			ConsumerClientPipeline pipeline = new ConsumerClientPipeline();
+			pipeline.messagesPerFile = (int) messagesPerFile;
+			ConsumerClient.setupOutput(runDirectory.getPath(), "jsonl", "");
+			pipelines.add(setupPipeline(pipeline, "ConsumerClient", broker,
+				topic, (int) maxPollRecords, pollTimeout, registry,
+				allocationProfiling, adaptivePollLinger));
+			ConsumerClient.setAllocationProfiler(pipeline.allocationProfiler);
+			if (pipeline.allocationProfiler != null) {
+				pipeline.queueAllocation =
+					pipeline.allocationProfiler.getStage("queue");
+			}
+		}
+		if (runArchiveClient) {
+			ArchiveClientPipeline pipeline = new ArchiveClientPipeline();
+			try {
+				pipeline.archiveWriter = new PrintWriter(new BufferedWriter(
+					new FileWriter(new File(runDirectory, "archive.jsonl"),
+					true)));
+			} catch (IOException e) {
+				logger.error("Error creating archive file: " + e.toString());
+				System.exit(1);
+			}
+			pipelines.add(setupPipeline(pipeline, "ArchiveClient", broker,
+				topic, (int) maxPollRecords, pollTimeout, registry,
+				allocationProfiling, adaptivePollLinger));
+		}
+
+		// serve metrics if configured
+		if (configJSON.containsKey(METRICS_PORT)) {
+			MetricsHttpServer metricsServer = new MetricsHttpServer(registry);
+			try {
+				metricsServer.start(
+					((Long) configJSON.get(METRICS_PORT)).intValue());
+			} catch (IOException e) {
+				logger.error("Error starting metrics server: " + e.toString());
+			}
+		}
+
+		// start everything
+		running = true;
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (Pipeline pipeline : pipelines) {
+			Thread thread = new Thread(pipeline, pipeline.name);
+			thread.start();
+			threads.add(thread);
+		}
+
+		long startTime = System.nanoTime();
+		TrafficGenerator generator = new TrafficGenerator(producer, topic,
+			shape, picks, (int) picksPerEvent, (int) aftershockZone, sent,
+			null, startTime);
+		Thread generatorThread = new Thread(generator, "Generator");
+		generatorThread.start();
+
+		// report until the duration is up
+		long lastReportTime = startTime;
+		long lastSent = 0;
+		double lastOffered = 0;
+		long[] lastWritten = new long[pipelines.size()];
+		long[] lastGC = getGCTotals();
+		long endTime = startTime + (long) (durationSeconds * NANOS_PER_SECOND);
+
+		while (System.nanoTime() < endTime) {
+			sleepUntil(Math.min(endTime, lastReportTime +
+				(long) (reportInterval * NANOS_PER_SECOND)));
+
+			long now = System.nanoTime();
+			long[] gc = getGCTotals();
+			double intervalSeconds = (now - lastReportTime) / NANOS_PER_SECOND;
+			double currentOffered = generator.getOffered();
+
+			logger.info(String.format("Interval %.1fs: offered %.0f msgs/sec," +
+				" sent %.0f msgs/sec, gc %d collections %d ms (%.1f%%), " +
+				"heap used %d MB", (now - startTime) / NANOS_PER_SECOND,
+				(currentOffered - lastOffered) / intervalSeconds,
+				(sent.getCount() - lastSent) / intervalSeconds,
+				gc[0] - lastGC[0], gc[1] - lastGC[1],
+				(gc[1] - lastGC[1]) / (intervalSeconds * 10),
+				getHeapUsed() / (1024 * 1024)));
+
+			for (int i = 0; i < pipelines.size(); i++) {
+				Pipeline pipeline = pipelines.get(i);
+				long written = pipeline.written.getCount();
+
+				logger.info(String.format("  %s: written %.0f msgs/sec, " +
+					"lag %d msgs, latency %s", pipeline.name,
+					(written - lastWritten[i]) / intervalSeconds,
+					sent.getCount() - written,
+					formatLatency(pipeline.intervalLatency)));
+
+				if (pipeline.allocationProfiler != null) {
+					pipeline.allocationProfiler.logStages(logger);
+				}
+
+				pipeline.intervalLatency.reset();
+				lastWritten[i] = written;
+			}
+
+			lastReportTime = now;
+			lastSent = sent.getCount();
+			lastOffered = currentOffered;
+			lastGC = gc;
+		}
+
+		// stop sending and let the pipelines catch up
+		generator.stop();
+		joinThread(generatorThread);
+		long sendEndTime = System.nanoTime();
+
+		long drainEndTime = sendEndTime +
+			(long) (drainSeconds * NANOS_PER_SECOND);
+		for (Pipeline pipeline : pipelines) {
+			while ((pipeline.written.getCount() < sent.getCount()) &&
+				(System.nanoTime() < drainEndTime)) {
+				sleepUntil(System.nanoTime() + 10000000L);
+			}
+		}
+
+		running = false;
+		for (Thread thread : threads) {
+			joinThread(thread);
+		}
+
+		// final report
+		long[] gc = getGCTotals();
+		double sendSeconds = (sendEndTime - startTime) / NANOS_PER_SECOND;
+		logger.info("----------Load Test Results----------");
+		logger.info(String.format("Sent %d msgs in %.1fs, %.0f msgs/sec",
+			sent.getCount(), sendSeconds, sent.getCount() / sendSeconds));
+		logger.info(String.format("GC %d collections %d ms", gc[0], gc[1]));
+
+		for (Pipeline pipeline : pipelines) {
+			double writeSeconds = (pipeline.lastWriteTime - startTime) /
+				NANOS_PER_SECOND;
+			long written = pipeline.written.getCount();
+
+			logger.info(String.format("%s: written %d msgs, sustained %.0f " +
+				"msgs/sec, %d msgs not written, latency %s", pipeline.name,
+				written, (writeSeconds > 0) ? (written / writeSeconds) : 0.0,
+				sent.getCount() - written, formatLatency(pipeline.latency)));
+			if (pipeline.allocationProfiler != null) {
+				pipeline.allocationProfiler.logStages(logger);
+			}
+		}
+
+		// clean up
+		producer.close(1000);
+		for (Pipeline pipeline : pipelines) {
+			pipeline.loopbackConsumer.close();
+			if (pipeline instanceof ArchiveClientPipeline) {
+				((ArchiveClientPipeline) pipeline).archiveWriter.close();
+			}
+		}
+		File[] outputFiles = runDirectory.listFiles();
+		if (outputFiles != null) {
+			for (File outputFile : outputFiles) {
+				outputFile.delete();
+			}
+		}
+		runDirectory.delete();
+
+		System.exit(0);
+	}
+
+	/**
+	 * Sets up the consumer and metrics of a pipeline
+	 *
+	 * @return Returns the pipeline
+	 */
+	private static Pipeline setupPipeline(Pipeline pipeline, String name,
+		LoopbackBroker broker, String topic, int maxPollRecords,
+		long pollTimeout, MetricsRegistry registry,
+		boolean allocationProfiling, long adaptivePollLinger) {
+		pipeline.name = name;
+		pipeline.pollTimeout = pollTimeout;
+		pipeline.loopbackConsumer = new LoopbackConsumer(broker,
+			maxPollRecords);
+		pipeline.consumer = new Consumer(pipeline.loopbackConsumer, null);
+		pipeline.consumer.setMetricsRegistry(registry);
+		if (adaptivePollLinger > 0) {
+			pipeline.consumer.setPollController(new PollController(
+				adaptivePollLinger, PollController.DEFAULT_MAX_BATCH));
+		}
+		pipeline.consumer.subscribe(topic);
+		pipeline.written = registry.counter(
+			"hazdev_loadtest_messages_written_total",
+			"Messages written to disk by the load test", "pipeline", name);
+		pipeline.latency = registry.histogram("hazdev_loadtest_latency",
+			"Time from a message being sent to being written to disk",
+			"pipeline", name);
+		pipeline.intervalLatency = new LatencyHistogram(
+			"hazdev_loadtest_interval_latency", null, "pipeline", name);
+		pipeline.lastWriteTime = System.nanoTime();
+		if (allocationProfiling) {
+			pipeline.allocationProfiler = new AllocationProfiler(registry,
+				name);
+			pipeline.consumer.setAllocationProfiler(
+				pipeline.allocationProfiler);
+			pipeline.loopAllocation = pipeline.allocationProfiler.getStage(
+				"loop");
+		}
+		return (pipeline);
+	}
+
+	/**
+	 * Gets the total garbage collection count and time of all collectors
+	 *
+	 * @return Returns a long[] containing the count and time in milliseconds
+	 */
+	private static long[] getGCTotals() {
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean collector :
+			ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(0, collector.getCollectionCount());
+			totals[1] += Math.max(0, collector.getCollectionTime());
+		}
+		return (totals);
+	}
+
+	/**
+	 * @return the heap memory used in bytes
+	 */
+	private static long getHeapUsed() {
+		return (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+			.getUsed());
+	}
+
+	/**
+	 * Formats latency percentiles in milliseconds
+	 */
+	private static String formatLatency(LatencyHistogram latency) {
+		return (String.format("p50 %.1f ms p99 %.1f ms p999 %.1f ms " +
+			"max %.1f ms", latency.getPercentile(50) / NANOS_PER_MILLI,
+			latency.getPercentile(99) / NANOS_PER_MILLI,
+			latency.getPercentile(99.9) / NANOS_PER_MILLI,
+			latency.getMax() / NANOS_PER_MILLI));
+	}
+
+	/**
+	 * Sleeps until the provided System.nanoTime()
+	 */
+	static void sleepUntil(long time) {
+		long sleepNanos = time - System.nanoTime();
+		if (sleepNanos <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for a thread to finish
+	 */
+	private static void joinThread(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gets an optional String from the configuration
+	 */
+	static String getString(JSONObject configJSON, String key,
+		String defaultValue) {
+		if (configJSON.containsKey(key)) {
+			String value = (String) configJSON.get(key);
+			logger.info("Using configured " + key + " of: " + value);
+			return (value);
+		}
+		logger.info("Using default " + key + " of: " + defaultValue);
+		return (defaultValue);
+	}
+
+	/**
+	 * Gets an optional Long from the configuration
+	 */
+	static long getLong(JSONObject configJSON, String key,
+		long defaultValue) {
+		if (configJSON.containsKey(key)) {
+			long value = ((Number) configJSON.get(key)).longValue();
+			logger.info("Using configured " + key + " of: " +
+				String.valueOf(value));
+			return (value);
+		}
+		logger.info("Using default " + key + " of: " +
+			String.valueOf(defaultValue));
+		return (defaultValue);
+	}
+
+	/**
+	 * Gets an optional Double from the configuration
+	 */
+	static double getDouble(JSONObject configJSON, String key,
+		double defaultValue) {
+		if (configJSON.containsKey(key)) {
+			double value = ((Number) configJSON.get(key)).doubleValue();
+			logger.info("Using configured " + key + " of: " +
+				String.valueOf(value));
+			return (value);
+		}
+		logger.info("Using default " + key + " of: " +
+			String.valueOf(defaultValue));
+		return (defaultValue);
+	}
+
+	/**
+	 * Gets an optional Boolean from the configuration
+	 */
+	static boolean getBoolean(JSONObject configJSON, String key,
+		boolean defaultValue) {
+		if (configJSON.containsKey(key)) {
+			boolean value = (Boolean) configJSON.get(key);
+			logger.info("Using configured " + key + " of: " +
+				String.valueOf(value));
+			return (value);
+		}
+		logger.info("Using default " + key + " of: " +
+			String.valueOf(defaultValue));
+		return (defaultValue);
+	}
+}
@@ -0,0 +1,279 @@
+package gov.usgs.loadtest;
+
+import java.util.*;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+
+/**
+ * an in-process stand-in for the hazdev kafka broker cluster, used by the
+ * load test harness to run the clients without a live kafka. Each topic is a
+ * single partition log held in memory. Every reader (a LoopbackConsumer
+ * subscribed to the topic) reads the whole log from its own position, like a
+ * consumer in its own group. Only the most recent capacity records of each
+ * topic are kept; once a topic is full, appends wait for the slowest reader,
+ * much like a kafka producer waits when its buffer is full.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class LoopbackBroker {
+
+	/**
+	 * The maximum number of unread records kept per topic
+	 */
+	private int capacity;
+
+	/**
+	 * The topic logs, keyed by topic
+	 */
+	private HashMap<String, TopicLog> topics;
+
+	/**
+	 * a class holding the log of a single topic
+	 */
+	static class TopicLog {
+		/**
+		 * The topic name
+		 */
+		String topic;
+
+		/**
+		 * The records, in a ring indexed by offset
+		 */
+		ConsumerRecord<String, byte[]>[] records;
+
+		/**
+		 * The System.nanoTime() each record was appended, in a ring indexed
+		 * by offset
+		 */
+		long[] appendTimes;
+
+		/**
+		 * The offset of the next record appended
+		 */
+		long endOffset;
+
+		/**
+		 * The positions of the readers of this topic
+		 */
+		ArrayList<Reader> readers = new ArrayList<Reader>();
+	}
+
+	/**
+	 * a class holding the position of a reader in a topic log
+	 */
+	static class Reader {
+		/**
+		 * The topic log being read
+		 */
+		TopicLog log;
+
+		/**
+		 * The offset of the next record to read
+		 */
+		long position;
+	}
+
+	/**
+	 * The constructor for the LoopbackBroker class.
+	 *
+	 * @param newCapacity
+	 *            - An int containing the maximum number of unread records kept
+	 *            per topic
+	 */
+	public LoopbackBroker(int newCapacity) {
+		capacity = newCapacity;
+		topics = new HashMap<String, TopicLog>();
+	}
+
+	/**
+	 * Gets or creates the log for a topic, must be called while synchronized
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @return Returns the TopicLog
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private TopicLog getLog(String topic) {
+		TopicLog log = topics.get(topic);
+		if (log == null) {
+			log = new TopicLog();
+			log.topic = topic;
+			log.records = new ConsumerRecord[capacity];
+			log.appendTimes = new long[capacity];
+			log.endOffset = 0;
+			topics.put(topic, log);
+		}
+		return (log);
+	}
+
+	/**
+	 * Appends a record to the log for its topic, waiting for the slowest
+	 * reader if the log is full
+	 *
+	 * @param record
+	 *            - The ProducerRecord to append
+	 * @return Returns the offset of the appended record
+	 * @throws java.lang.InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized long append(ProducerRecord<String, byte[]> record)
+		throws InterruptedException {
+		TopicLog log = getLog(record.topic());
+
+		// wait for room
+		while (log.endOffset - getSlowestPosition(log) >= capacity) {
+			wait();
+		}
+
+		long timestamp = System.currentTimeMillis();
+		if (record.timestamp() != null) {
+			timestamp = record.timestamp();
+		}
+
+		int keySize = -1;
+		if (record.key() != null) {
+			keySize = record.key().length();
+		}
+		int valueSize = -1;
+		if (record.value() != null) {
+			valueSize = record.value().length;
+		}
+
+		long offset = log.endOffset;
+		int index = (int) (offset % capacity);
+		log.records[index] = new ConsumerRecord<String, byte[]>(log.topic, 0,
+			offset, timestamp, TimestampType.CREATE_TIME, (Long) null, keySize,
+			valueSize, record.key(), record.value(),
+			new RecordHeaders(record.headers().toArray()));
+		log.appendTimes[index] = System.nanoTime();
+		log.endOffset++;
+
+		// let any waiting readers know
+		notifyAll();
+
+		return (offset);
+	}
+
+	/**
+	 * Gets the position of the slowest reader of a topic log, must be called
+	 * while synchronized
+	 *
+	 * @param log
+	 *            - The TopicLog to check
+	 * @return Returns the position of the slowest reader, the end of the log
+	 *         if there are no readers
+	 */
+	private static long getSlowestPosition(TopicLog log) {
+		long slowest = log.endOffset;
+		for (Reader reader : log.readers) {
+			slowest = Math.min(slowest, reader.position);
+		}
+		return (slowest);
+	}
+
+	/**
+	 * Adds a reader to a topic, starting at the oldest record still held
+	 *
+	 * @param topic
+	 *            - A String containing the topic to read
+	 * @return Returns the Reader
+	 */
+	synchronized Reader addReader(String topic) {
+		TopicLog log = getLog(topic);
+
+		Reader reader = new Reader();
+		reader.log = log;
+		reader.position = Math.max(0, log.endOffset - capacity);
+		log.readers.add(reader);
+
+		return (reader);
+	}
+
+	/**
+	 * Removes a reader, so it no longer holds up appends
+	 *
+	 * @param reader
+	 *            - The Reader to remove
+	 */
+	synchronized void removeReader(Reader reader) {
+		reader.log.readers.remove(reader);
+		notifyAll();
+	}
+
+	/**
+	 * Reads records for the provided readers, waiting up to the provided
+	 * timeout if there are none
+	 *
+	 * @param readers
+	 *            - A List&lt;Reader&gt; containing the readers to read for
+	 * @param maxRecords
+	 *            - An int containing the maximum number of records to read
+	 * @param timeout
+	 *            - A long containing the time to wait for records in
+	 *            milliseconds
+	 * @param records
+	 *            - A List&lt;ConsumerRecord&gt; to add the records read to
+	 * @param appendTimes
+	 *            - A long[] to fill with the System.nanoTime() each record
+	 *            read was appended, at least maxRecords long
+	 * @return Returns the number of records read
+	 * @throws java.lang.InterruptedException
+	 *             if interrupted while waiting
+	 */
+	synchronized int read(List<Reader> readers, int maxRecords, long timeout,
+		List<ConsumerRecord<String, byte[]>> records, long[] appendTimes)
+		throws InterruptedException {
+		long deadline = Long.MAX_VALUE;
+		if (timeout < Long.MAX_VALUE - System.currentTimeMillis()) {
+			deadline = System.currentTimeMillis() + timeout;
+		}
+
+		while (true) {
+			int count = 0;
+			for (Reader reader : readers) {
+				TopicLog log = reader.log;
+				while ((reader.position < log.endOffset) &&
+					(count < maxRecords)) {
+					int index = (int) (reader.position % capacity);
+					records.add(log.records[index]);
+					appendTimes[count] = log.appendTimes[index];
+					reader.position++;
+					count++;
+				}
+			}
+
+			if (count > 0) {
+				// there's room for more appends now
+				notifyAll();
+				return (count);
+			}
+
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return (0);
+			}
+			wait(remaining);
+		}
+	}
+
+	/**
+	 * Gets the number of records appended to a topic
+	 *
+	 * @param topic
+	 *            - A String containing the topic
+	 * @return Returns the number of records appended
+	 */
+	public synchronized long getEndOffset(String topic) {
+		return (getLog(topic).endOffset);
+	}
+
+	/**
+	 * @return the maximum number of unread records kept per topic
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+}
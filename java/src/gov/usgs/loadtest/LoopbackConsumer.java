@@ -0,0 +1,227 @@
+package gov.usgs.loadtest;
+
+import java.time.Duration;
+import java.util.*;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+
+/**
+ * a kafka consumer client that reads from a LoopbackBroker instead of a kafka
+ * broker cluster. Subscribing assigns the single partition of each topic and
+ * reads it from the oldest record the broker still holds. Polling waits for
+ * records up to the poll timeout, like a kafka consumer. The time each record
+ * returned by the last poll was appended to the broker is kept, so the load
+ * test harness can measure latency without touching the messages.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class LoopbackConsumer extends MockConsumer<String, byte[]> {
+
+	/**
+	 * The broker to read from
+	 */
+	private LoopbackBroker broker;
+
+	/**
+	 * The maximum number of records returned by each poll
+	 */
+	private int maxPollRecords;
+
+	/**
+	 * The broker readers for the subscribed topics
+	 */
+	private ArrayList<LoopbackBroker.Reader> readers;
+
+	/**
+	 * The System.nanoTime() each record returned since startPoll was
+	 * appended to the broker, a Consumer poll can gather several kafka polls
+	 */
+	private long[] pollAppendTimes;
+
+	/**
+	 * The append times of the records read by one kafka poll
+	 */
+	private long[] readAppendTimes;
+
+	/**
+	 * The number of records returned since startPoll
+	 */
+	private int pollCount;
+
+	/**
+	 * The constructor for the LoopbackConsumer class.
+	 *
+	 * @param newBroker
+	 *            - The LoopbackBroker to read from
+	 * @param newMaxPollRecords
+	 *            - An int containing the maximum number of records returned
+	 *            by each poll, like max.poll.records
+	 */
+	public LoopbackConsumer(LoopbackBroker newBroker, int newMaxPollRecords) {
+		super(OffsetResetStrategy.EARLIEST);
+		broker = newBroker;
+		maxPollRecords = newMaxPollRecords;
+		readers = new ArrayList<LoopbackBroker.Reader>();
+		pollAppendTimes = new long[maxPollRecords];
+		readAppendTimes = new long[maxPollRecords];
+		pollCount = 0;
+	}
+
+	/**
+	 * Subscribes to the provided topics, replacing any previous subscription
+	 *
+	 * @param topics
+	 *            - A Collection&lt;String&gt; containing the topics
+	 */
+	@Override
+	public synchronized void subscribe(Collection<String> topics) {
+		subscribe(topics, null);
+	}
+
+	/**
+	 * Subscribes to the provided topics, replacing any previous subscription,
+	 * and tells the listener the single partition of each topic is assigned
+	 *
+	 * @param topics
+	 *            - A Collection&lt;String&gt; containing the topics
+	 * @param listener
+	 *            - A ConsumerRebalanceListener to notify, null for none
+	 */
+	@Override
+	public synchronized void subscribe(Collection<String> topics,
+		ConsumerRebalanceListener listener) {
+		unsubscribe();
+
+		ArrayList<TopicPartition> partitions = new ArrayList<TopicPartition>();
+		for (String topic : topics) {
+			readers.add(broker.addReader(topic));
+			partitions.add(new TopicPartition(topic, 0));
+		}
+
+		if (listener != null) {
+			listener.onPartitionsAssigned(partitions);
+		}
+	}
+
+	/**
+	 * Unsubscribes from all topics
+	 */
+	@Override
+	public synchronized void unsubscribe() {
+		for (LoopbackBroker.Reader reader : readers) {
+			broker.removeReader(reader);
+		}
+		readers.clear();
+	}
+
+	/**
+	 * Polls the broker for records
+	 *
+	 * @param timeout
+	 *            - A long containing the time to wait for records in
+	 *            milliseconds
+	 * @return Returns the ConsumerRecords read
+	 */
+	@Override
+	@SuppressWarnings("deprecation")
+	public synchronized ConsumerRecords<String, byte[]> poll(long timeout) {
+		ArrayList<ConsumerRecord<String, byte[]>> records =
+			new ArrayList<ConsumerRecord<String, byte[]>>();
+
+		int readCount;
+		try {
+			readCount = broker.read(readers, maxPollRecords, timeout, records,
+				readAppendTimes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptException(e);
+		}
+
+		if (readCount == 0) {
+			return (ConsumerRecords.empty());
+		}
+
+		// keep the append times of every kafka poll since startPoll
+		if (pollCount + readCount > pollAppendTimes.length) {
+			pollAppendTimes = Arrays.copyOf(pollAppendTimes,
+				Math.max(pollCount + readCount, pollAppendTimes.length * 2));
+		}
+		System.arraycopy(readAppendTimes, 0, pollAppendTimes, pollCount,
+			readCount);
+		pollCount += readCount;
+
+		// group by partition, keeping the order the records were read in so
+		// the append times still line up
+		LinkedHashMap<TopicPartition, List<ConsumerRecord<String, byte[]>>>
+			partitionRecords = new LinkedHashMap<TopicPartition,
+			List<ConsumerRecord<String, byte[]>>>();
+		for (ConsumerRecord<String, byte[]> record : records) {
+			TopicPartition partition = new TopicPartition(record.topic(),
+				record.partition());
+			List<ConsumerRecord<String, byte[]>> recordList =
+				partitionRecords.get(partition);
+			if (recordList == null) {
+				recordList = new ArrayList<ConsumerRecord<String, byte[]>>();
+				partitionRecords.put(partition, recordList);
+			}
+			recordList.add(record);
+		}
+
+		return (new ConsumerRecords<String, byte[]>(partitionRecords));
+	}
+
+	/**
+	 * Polls the broker for records
+	 *
+	 * @param timeout
+	 *            - A Duration containing the time to wait for records
+	 * @return Returns the ConsumerRecords read
+	 */
+	@Override
+	public synchronized ConsumerRecords<String, byte[]> poll(
+		Duration timeout) {
+		return (poll(timeout.toMillis()));
+	}
+
+	/**
+	 * Unsubscribes and closes the consumer
+	 */
+	@Override
+	public synchronized void close() {
+		unsubscribe();
+		super.close();
+	}
+
+	/**
+	 * Starts a Consumer poll, forgetting the append times of the records
+	 * returned by earlier polls
+	 */
+	public synchronized void startPoll() {
+		pollCount = 0;
+	}
+
+	/**
+	 * Gets the time a record returned since startPoll was appended to the
+	 * broker
+	 *
+	 * @param index
+	 *            - An int containing the index of the record since startPoll
+	 * @return Returns the System.nanoTime() the record was appended
+	 */
+	public long getPollAppendTime(int index) {
+		return (pollAppendTimes[index]);
+	}
+
+	/**
+	 * @return the number of records returned since startPoll
+	 */
+	public int getPollCount() {
+		return pollCount;
+	}
+}
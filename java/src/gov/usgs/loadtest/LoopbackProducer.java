@@ -0,0 +1,130 @@
+package gov.usgs.loadtest;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * a kafka producer client that sends to a LoopbackBroker instead of a kafka
+ * broker cluster. Sends are appended to the broker and acknowledged before
+ * send returns. Unlike a plain MockProducer, sent records are not kept in a
+ * history, so it can run for as long as a load test needs.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class LoopbackProducer extends MockProducer<String, byte[]> {
+
+	/**
+	 * The broker to send to
+	 */
+	private LoopbackBroker broker;
+
+	/**
+	 * a Future for a send that has already completed
+	 */
+	private static class CompletedSend implements Future<RecordMetadata> {
+		/**
+		 * The metadata of the completed send
+		 */
+		private RecordMetadata metadata;
+
+		/**
+		 * The constructor for the CompletedSend class.
+		 *
+		 * @param newMetadata
+		 *            - The RecordMetadata of the completed send
+		 */
+		CompletedSend(RecordMetadata newMetadata) {
+			metadata = newMetadata;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return (false);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return (false);
+		}
+
+		@Override
+		public boolean isDone() {
+			return (true);
+		}
+
+		@Override
+		public RecordMetadata get() throws InterruptedException,
+			ExecutionException {
+			return (metadata);
+		}
+
+		@Override
+		public RecordMetadata get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException {
+			return (metadata);
+		}
+	}
+
+	/**
+	 * The constructor for the LoopbackProducer class.
+	 *
+	 * @param newBroker
+	 *            - The LoopbackBroker to send to
+	 */
+	public LoopbackProducer(LoopbackBroker newBroker) {
+		super(true, new StringSerializer(), new ByteArraySerializer());
+		broker = newBroker;
+	}
+
+	/**
+	 * Appends the record to the broker, waiting if the broker is full, and
+	 * notifies the callback
+	 *
+	 * @param record
+	 *            - The ProducerRecord to send
+	 * @param callback
+	 *            - A Callback to notify, null for no notification
+	 * @return Returns a completed Future&lt;RecordMetadata&gt;
+	 */
+	@Override
+	public Future<RecordMetadata> send(ProducerRecord<String, byte[]> record,
+		Callback callback) {
+		long offset = 0;
+		try {
+			offset = broker.append(record);
+		} catch (InterruptedException e) {
+			// like a kafka producer interrupted while waiting for buffer
+			Thread.currentThread().interrupt();
+			throw new InterruptException(e);
+		}
+
+		int keySize = -1;
+		if (record.key() != null) {
+			keySize = record.key().length();
+		}
+		int valueSize = -1;
+		if (record.value() != null) {
+			valueSize = record.value().length;
+		}
+
+		RecordMetadata metadata = new RecordMetadata(new TopicPartition(
+			record.topic(), 0), offset, 0, System.currentTimeMillis(),
+			(Long) null, keySize, valueSize);
+
+		if (callback != null) {
+			callback.onCompletion(metadata, null);
+		}
+
+		return (new CompletedSend(metadata));
+	}
+}
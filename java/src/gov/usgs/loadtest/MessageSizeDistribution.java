@@ -0,0 +1,121 @@
+package gov.usgs.loadtest;
+
+import java.util.Random;
+
+/**
+ * a class describing the distribution of synthetic message sizes used by the
+ * traffic generators. Supported distributions are:
+ * Natural - messages are left at their natural size.
+ * Uniform - sizes spread evenly between the size and the max size.
+ * LogNormal - sizes spread log normally around a median of the size, with a
+ * long tail of larger messages controlled by sigma, and limited to the max
+ * size.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class MessageSizeDistribution {
+
+	/**
+	 * Distribution type strings
+	 */
+	public static final String NATURAL = "Natural";
+	public static final String UNIFORM = "Uniform";
+	public static final String LOGNORMAL = "LogNormal";
+
+	/**
+	 * The distribution type
+	 */
+	private String distribution;
+
+	/**
+	 * The minimum (Uniform) or median (LogNormal) size in bytes
+	 */
+	private int size;
+
+	/**
+	 * The maximum size in bytes
+	 */
+	private int maxSize;
+
+	/**
+	 * The standard deviation of the log of the size (LogNormal)
+	 */
+	private double sigma;
+
+	/**
+	 * The constructor for the MessageSizeDistribution class.
+	 *
+	 * @param newDistribution
+	 *            - A String containing the distribution type, Natural,
+	 *            Uniform, or LogNormal
+	 * @param newSize
+	 *            - An int containing the minimum (Uniform) or median
+	 *            (LogNormal) size in bytes
+	 * @param newMaxSize
+	 *            - An int containing the maximum size in bytes
+	 * @param newSigma
+	 *            - A double containing the standard deviation of the log of
+	 *            the size (LogNormal)
+	 */
+	public MessageSizeDistribution(String newDistribution, int newSize,
+		int newMaxSize, double newSigma) {
+		distribution = newDistribution;
+		size = newSize;
+		maxSize = Math.max(newSize, newMaxSize);
+		sigma = newSigma;
+	}
+
+	/**
+	 * Gets the size of the next message
+	 *
+	 * @param random
+	 *            - The Random to draw the size from
+	 * @return Returns the size in bytes, 0 to leave the message at its
+	 *         natural size
+	 */
+	public int nextSize(Random random) {
+		if (UNIFORM.equals(distribution)) {
+			return (size + random.nextInt(maxSize - size + 1));
+		} else if (LOGNORMAL.equals(distribution)) {
+			double logNormalSize = size * Math.exp(sigma *
+				random.nextGaussian());
+			return ((int) Math.min(maxSize, Math.round(logNormalSize)));
+		}
+
+		return (0);
+	}
+
+	/**
+	 * Checks that the distribution type is supported
+	 *
+	 * @return Returns true if the distribution type is supported, false
+	 *         otherwise
+	 */
+	public boolean isValid() {
+		return (NATURAL.equals(distribution) || UNIFORM.equals(distribution) ||
+			LOGNORMAL.equals(distribution));
+	}
+
+	/**
+	 * @return the distribution type
+	 */
+	public String getDistribution() {
+		return distribution;
+	}
+
+	/**
+	 * @return a description of the distribution for logging
+	 */
+	@Override
+	public String toString() {
+		if (UNIFORM.equals(distribution)) {
+			return (distribution + " from " + String.valueOf(size) + " to " +
+				String.valueOf(maxSize) + " bytes");
+		} else if (LOGNORMAL.equals(distribution)) {
+			return (distribution + " around " + String.valueOf(size) +
+				" bytes with sigma " + String.valueOf(sigma) + " up to " +
+				String.valueOf(maxSize) + " bytes");
+		}
+		return (distribution);
+	}
+}
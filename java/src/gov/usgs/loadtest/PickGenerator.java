@@ -0,0 +1,215 @@
+package gov.usgs.loadtest;
+
+import java.util.*;
+import java.text.SimpleDateFormat;
+
+/**
+ * a class used to generate synthetic pick messages, in json, for load
+ * testing. Picks are spread over a configurable number of synthetic stations,
+ * either one at a time, or as the picks of a synthetic event at the stations
+ * nearest its epicenter. Picks can be padded out to sizes drawn from a
+ * MessageSizeDistribution, with extra filter entries so they stay valid picks.
+ * Not thread safe, each sending thread should use its own PickGenerator.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class PickGenerator {
+
+	/**
+	 * Long constant containing the time it takes for an event to reach each
+	 * further station away from the epicenter in milliseconds
+	 */
+	public static final long STATION_TRAVEL_MILLIS = 1500;
+
+	/**
+	 * String constant containing the filter entry used to pad picks
+	 */
+	private static final String FILTER_ENTRY =
+		"{\"HighPass\":1.05,\"LowPass\":2.65}";
+
+	/**
+	 * The number of stations to spread picks over
+	 */
+	private int stationCount;
+
+	/**
+	 * The random number generator used to pick stations and amplitudes
+	 */
+	private Random random;
+
+	/**
+	 * The formatter used for pick times, cheaper than Utility.formatDate so
+	 * generating picks doesn't limit the load test
+	 */
+	private SimpleDateFormat timeFormat;
+
+	/**
+	 * The id of the next pick
+	 */
+	private long nextId;
+
+	/**
+	 * The distribution of pick sizes, null to leave picks at their natural
+	 * size
+	 */
+	private MessageSizeDistribution messageSizes;
+
+	/**
+	 * The constructor for the PickGenerator class.
+	 *
+	 * @param newStationCount
+	 *            - An int containing the number of stations to spread picks
+	 *            over
+	 * @param seed
+	 *            - A long containing the random seed
+	 */
+	public PickGenerator(int newStationCount, long seed) {
+		stationCount = Math.max(1, newStationCount);
+		random = new Random(seed);
+		timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		nextId = 0;
+		messageSizes = null;
+	}
+
+	/**
+	 * Sets the distribution of pick sizes
+	 *
+	 * @param newMessageSizes
+	 *            - The MessageSizeDistribution to draw pick sizes from, null
+	 *            to leave picks at their natural size
+	 */
+	public void setMessageSizes(MessageSizeDistribution newMessageSizes) {
+		messageSizes = newMessageSizes;
+	}
+
+	/**
+	 * Generates a pick from a random station
+	 *
+	 * @param pickTime
+	 *            - A long containing the pick time in milliseconds since the
+	 *            epoch
+	 * @return Returns a String containing the pick in json
+	 */
+	public String nextPick(long pickTime) {
+		return (nextPick(pickTime, random.nextInt(stationCount)));
+	}
+
+	/**
+	 * Generates one of the picks of a synthetic event, picks are made at the
+	 * stations nearest the epicenter first, each further station picking
+	 * STATION_TRAVEL_MILLIS later
+	 *
+	 * @param originTime
+	 *            - A long containing the event origin time in milliseconds
+	 *            since the epoch
+	 * @param epicenter
+	 *            - An int containing the index of the station nearest the
+	 *            epicenter
+	 * @param index
+	 *            - An int containing the index of the pick within the event
+	 * @return Returns a String containing the pick in json
+	 */
+	public String nextEventPick(long originTime, int epicenter, int index) {
+		// stations alternate either side of the epicenter, 0, 1, -1, 2, ...
+		int distance = (index + 1) / 2;
+		int offset = ((index % 2) == 0) ? -distance : distance;
+		int station = (((epicenter + offset) % stationCount) + stationCount) %
+			stationCount;
+
+		return (nextPick(originTime + (distance * STATION_TRAVEL_MILLIS) +
+			random.nextInt(500), station));
+	}
+
+	/**
+	 * Gets a random station index
+	 *
+	 * @return Returns an int containing the index of the station
+	 */
+	public int nextStation() {
+		return (random.nextInt(stationCount));
+	}
+
+	/**
+	 * Gets a random station index near the provided station
+	 *
+	 * @param station
+	 *            - An int containing the index of the station
+	 * @param spread
+	 *            - An int containing the farthest number of stations away to
+	 *            go
+	 * @return Returns an int containing the index of the station
+	 */
+	public int nextStationNear(int station, int spread) {
+		if (spread <= 0) {
+			return (station);
+		}
+		int offset = random.nextInt((2 * spread) + 1) - spread;
+		return ((((station + offset) % stationCount) + stationCount) %
+			stationCount);
+	}
+
+	/**
+	 * Generates a pick from the provided station
+	 *
+	 * @param pickTime
+	 *            - A long containing the pick time in milliseconds since the
+	 *            epoch
+	 * @param station
+	 *            - An int containing the index of the station
+	 * @return Returns a String containing the pick in json
+	 */
+	public String nextPick(long pickTime, int station) {
+		StringBuilder pick = new StringBuilder(400);
+		pick.append("{\"Type\":\"Pick\",\"ID\":\"").append(nextId++)
+			.append("\",\"Site\":{\"Station\":\"").append(getStation(station))
+			.append("\",\"Channel\":\"BHZ\",\"Network\":\"LT\"," +
+				"\"Location\":\"00\"},\"Source\":{\"AgencyID\":\"US\"," +
+				"\"Author\":\"loadtest\"},\"Time\":\"")
+			.append(timeFormat.format(new Date(pickTime)))
+			.append("\",\"Phase\":\"P\",\"Polarity\":\"up\"," +
+				"\"Onset\":\"impulsive\",\"Picker\":\"raypicker\"," +
+				"\"Filter\":[")
+			.append(FILTER_ENTRY);
+		int filterEnd = pick.length();
+		pick.append("],\"Amplitude\":{\"Amplitude\":")
+			.append(Math.round(random.nextDouble() * 100000) / 100.0)
+			.append(",\"Period\":2.65,\"SNR\":")
+			.append(Math.round((1 + (random.nextDouble() * 20)) * 10) / 10.0)
+			.append("}}");
+
+		// pad out to the drawn size with more filter entries
+		if (messageSizes != null) {
+			int padding = messageSizes.nextSize(random) - pick.length();
+			if (padding > 0) {
+				int entries = (padding + (FILTER_ENTRY.length() / 2)) /
+					(FILTER_ENTRY.length() + 1);
+				StringBuilder filters = new StringBuilder(entries *
+					(FILTER_ENTRY.length() + 1));
+				for (int i = 0; i < entries; i++) {
+					filters.append(',').append(FILTER_ENTRY);
+				}
+				pick.insert(filterEnd, filters);
+			}
+		}
+		return (pick.toString());
+	}
+
+	/**
+	 * Gets the name of a synthetic station
+	 *
+	 * @param station
+	 *            - An int containing the index of the station
+	 * @return Returns a String containing the station name
+	 */
+	public static String getStation(int station) {
+		return ("S" + String.valueOf(station));
+	}
+
+	/**
+	 * @return the number of stations picks are spread over
+	 */
+	public int getStationCount() {
+		return stationCount;
+	}
+}
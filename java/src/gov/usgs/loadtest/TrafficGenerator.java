@@ -0,0 +1,554 @@
+package gov.usgs.loadtest;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.PropertyConfigurator;
+
+import gov.usgs.hazdevbroker.Counter;
+import gov.usgs.hazdevbroker.Gauge;
+import gov.usgs.hazdevbroker.MetricsHttpServer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
+import gov.usgs.hazdevbroker.Producer;
+import gov.usgs.hazdevbroker.Utility;
+
+import java.util.*;
+import java.io.IOException;
+
+import org.json.simple.JSONObject;
+
+/**
+ * a traffic generator used to send synthetic pick traffic through a Producer
+ * to a kafka broker cluster, so the capacity of the broker cluster and of the
+ * ConsumerClients and ArchiveClients reading from it can be planned, and the
+ * rate where they start to lag found. Picks are sent as synthetic events,
+ * each picked at the stations nearest its epicenter, at the rate given by a
+ * TrafficShape. With the Aftershock shape, events are either background
+ * events at random stations, or aftershocks near the mainshock, in proportion
+ * to the background and aftershock rates, so a sequence concentrates traffic
+ * on a few stations the way a real one does. Pick sizes can be drawn from a
+ * MessageSizeDistribution. The generator is also used by the LoadTest
+ * harness to send its traffic.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class TrafficGenerator implements Runnable {
+
+	/**
+	 * JSON Configuration Keys
+	 */
+	public static final String TYPE_KEY = "Type";
+	public static final String LOG4J_CONFIGFILE = "Log4JConfigFile";
+	public static final String BROKER_CONFIG = "HazdevBrokerConfig";
+	public static final String TOPIC = "Topic";
+	public static final String HEARTBEAT_INTERVAL = "HeartbeatInterval";
+	public static final String STAMP_HEADERS = "StampHeaders";
+	public static final String DURATION_SECONDS = "DurationSeconds";
+	public static final String REPORT_INTERVAL = "ReportInterval";
+	public static final String SHAPE = "Shape";
+	public static final String RATE = "Rate";
+	public static final String BURST_RATE = "BurstRate";
+	public static final String BURST_SECONDS = "BurstSeconds";
+	public static final String BURST_INTERVAL = "BurstInterval";
+	public static final String OMORI_C = "OmoriC";
+	public static final String OMORI_P = "OmoriP";
+	public static final String STATION_COUNT = "StationCount";
+	public static final String PICKS_PER_EVENT = "PicksPerEvent";
+	public static final String AFTERSHOCK_ZONE_STATIONS =
+		"AftershockZoneStations";
+	public static final String MESSAGE_SIZE_DISTRIBUTION =
+		"MessageSizeDistribution";
+	public static final String MESSAGE_SIZE = "MessageSize";
+	public static final String MAX_MESSAGE_SIZE = "MaxMessageSize";
+	public static final String MESSAGE_SIZE_SIGMA = "MessageSizeSigma";
+	public static final String METRICS_PORT = "MetricsPort";
+
+	/**
+	 * Double constant containing the number of nanoseconds per second
+	 */
+	private static final double NANOS_PER_SECOND = 1000000000.0;
+
+	/**
+	 * Log4J logger for TrafficGenerator
+	 */
+	static Logger logger = Logger.getLogger(TrafficGenerator.class);
+
+	/**
+	 * The producer to send picks through
+	 */
+	private Producer producer;
+
+	/**
+	 * The topic to send picks on
+	 */
+	private String topic;
+
+	/**
+	 * The shape of the traffic
+	 */
+	private TrafficShape shape;
+
+	/**
+	 * The pick generator
+	 */
+	private PickGenerator picks;
+
+	/**
+	 * The number of picks made for each event
+	 */
+	private int picksPerEvent;
+
+	/**
+	 * The farthest number of stations from the mainshock aftershocks occur
+	 */
+	private int aftershockZone;
+
+	/**
+	 * The messages sent
+	 */
+	private Counter sent;
+
+	/**
+	 * The bytes sent, null to not count them
+	 */
+	private Counter sentBytes;
+
+	/**
+	 * The System.nanoTime() traffic started
+	 */
+	private long startTime;
+
+	/**
+	 * The random number generator used to choose between background events
+	 * and aftershocks
+	 */
+	private Random random;
+
+	/**
+	 * Flag telling the generator to keep sending
+	 */
+	private volatile boolean sending;
+
+	/**
+	 * The number of messages the traffic shape has called for so far
+	 */
+	private volatile double offered;
+
+	/**
+	 * The aftershock sequence the mainshock station belongs to
+	 */
+	private long sequence;
+
+	/**
+	 * The index of the station nearest the mainshock, -1 before the first
+	 * sequence
+	 */
+	private int mainshock;
+
+	/**
+	 * The index of the station nearest the current event
+	 */
+	private int epicenter;
+
+	/**
+	 * The origin time of the current event in milliseconds since the epoch
+	 */
+	private long originTime;
+
+	/**
+	 * The number of picks of the current event sent so far
+	 */
+	private int eventPicks;
+
+	/**
+	 * The constructor for the TrafficGenerator class.
+	 *
+	 * @param newProducer
+	 *            - The Producer to send picks through
+	 * @param newTopic
+	 *            - A String containing the topic to send picks on
+	 * @param newShape
+	 *            - The TrafficShape giving the rate to send picks at
+	 * @param newPicks
+	 *            - The PickGenerator used to make picks
+	 * @param newPicksPerEvent
+	 *            - An int containing the number of picks made for each event
+	 * @param newAftershockZone
+	 *            - An int containing the farthest number of stations from the
+	 *            mainshock aftershocks occur
+	 * @param newSent
+	 *            - The Counter to count the messages sent with
+	 * @param newSentBytes
+	 *            - The Counter to count the bytes sent with, null to not
+	 *            count them
+	 * @param newStartTime
+	 *            - A long containing the System.nanoTime() traffic starts
+	 */
+	public TrafficGenerator(Producer newProducer, String newTopic,
+		TrafficShape newShape, PickGenerator newPicks, int newPicksPerEvent,
+		int newAftershockZone, Counter newSent, Counter newSentBytes,
+		long newStartTime) {
+		producer = newProducer;
+		topic = newTopic;
+		shape = newShape;
+		picks = newPicks;
+		picksPerEvent = Math.max(1, newPicksPerEvent);
+		aftershockZone = newAftershockZone;
+		sent = newSent;
+		sentBytes = newSentBytes;
+		startTime = newStartTime;
+		random = new Random(newStartTime);
+		sending = true;
+		offered = 0;
+		sequence = -1;
+		mainshock = -1;
+		eventPicks = picksPerEvent;
+	}
+
+	/**
+	 * Sends picks at the rate given by the traffic shape until stopped. If
+	 * sending falls behind, it catches up as fast as it can, so the offered
+	 * load is kept.
+	 */
+	@Override
+	public void run() {
+		double due = 0;
+		long sentCount = 0;
+		long lastTime = startTime;
+
+		while (sending) {
+			long now = System.nanoTime();
+			double elapsedSeconds = (now - startTime) / NANOS_PER_SECOND;
+			due += shape.getRate(elapsedSeconds) *
+				((now - lastTime) / NANOS_PER_SECOND);
+			lastTime = now;
+			offered = due;
+
+			// send everything that's due
+			while (sending && (sentCount < due)) {
+				if (eventPicks >= picksPerEvent) {
+					startEvent(elapsedSeconds);
+				}
+
+				String pick = picks.nextEventPick(originTime, epicenter,
+					eventPicks++);
+				producer.sendString(topic, pick);
+
+				sentCount++;
+				sent.increment();
+				if (sentBytes != null) {
+					sentBytes.add(pick.length());
+				}
+			}
+
+			LoadTest.sleepUntil(now + 1000000L);
+		}
+	}
+
+	/**
+	 * Starts a new event, either an aftershock near the mainshock or a
+	 * background event at a random station
+	 *
+	 * @param elapsedSeconds
+	 *            - A double containing the time since traffic started in
+	 *            seconds
+	 */
+	private void startEvent(double elapsedSeconds) {
+		// a new sequence has a new mainshock
+		long currentSequence = shape.getSequence(elapsedSeconds);
+		if (currentSequence != sequence) {
+			sequence = currentSequence;
+			mainshock = picks.nextStation();
+		}
+
+		double rate = shape.getRate(elapsedSeconds);
+		double aftershockRate = shape.getAftershockRate(elapsedSeconds);
+		if ((rate > 0) && (random.nextDouble() < (aftershockRate / rate))) {
+			epicenter = picks.nextStationNear(mainshock, aftershockZone);
+		} else {
+			epicenter = picks.nextStation();
+		}
+
+		originTime = System.currentTimeMillis();
+		eventPicks = 0;
+	}
+
+	/**
+	 * Tells the generator to stop sending
+	 */
+	public void stop() {
+		sending = false;
+	}
+
+	/**
+	 * @return the number of messages the traffic shape has called for so far
+	 */
+	public double getOffered() {
+		return offered;
+	}
+
+	/**
+	 * Reads the traffic shape from the configuration
+	 *
+	 * @param configJSON
+	 *            - A JSONObject containing the configuration
+	 * @return Returns the TrafficShape, null if the shape is not supported
+	 */
+	public static TrafficShape readTrafficShape(JSONObject configJSON) {
+		TrafficShape shape = new TrafficShape(
+			LoadTest.getString(configJSON, SHAPE, TrafficShape.CONSTANT),
+			LoadTest.getDouble(configJSON, RATE, 1000),
+			LoadTest.getDouble(configJSON, BURST_RATE, 10000),
+			LoadTest.getDouble(configJSON, BURST_SECONDS, 10),
+			LoadTest.getDouble(configJSON, BURST_INTERVAL, 60));
+		if (!shape.isValid()) {
+			logger.error("Error, invalid Shape in configuration: " +
+				shape.getShape());
+			return (null);
+		}
+
+		if (TrafficShape.AFTERSHOCK.equals(shape.getShape())) {
+			shape.setOmoriParameters(
+				LoadTest.getDouble(configJSON, OMORI_C,
+					TrafficShape.DEFAULT_OMORI_C),
+				LoadTest.getDouble(configJSON, OMORI_P,
+					TrafficShape.DEFAULT_OMORI_P));
+		}
+
+		logger.info("Using traffic shape: " + shape.toString());
+		return (shape);
+	}
+
+	/**
+	 * Reads the pick generator and its message size distribution from the
+	 * configuration
+	 *
+	 * @param configJSON
+	 *            - A JSONObject containing the configuration
+	 * @param seed
+	 *            - A long containing the random seed
+	 * @return Returns the PickGenerator, null if the message size
+	 *         distribution is not supported
+	 */
+	public static PickGenerator readPickGenerator(JSONObject configJSON,
+		long seed) {
+		PickGenerator picks = new PickGenerator((int) LoadTest.getLong(
+			configJSON, STATION_COUNT, 1000), seed);
+
+		MessageSizeDistribution messageSizes = new MessageSizeDistribution(
+			LoadTest.getString(configJSON, MESSAGE_SIZE_DISTRIBUTION,
+				MessageSizeDistribution.NATURAL),
+			(int) LoadTest.getLong(configJSON, MESSAGE_SIZE, 400),
+			(int) LoadTest.getLong(configJSON, MAX_MESSAGE_SIZE, 4000),
+			LoadTest.getDouble(configJSON, MESSAGE_SIZE_SIGMA, 0.5));
+		if (!messageSizes.isValid()) {
+			logger.error("Error, invalid MessageSizeDistribution in " +
+				"configuration: " + messageSizes.getDistribution());
+			return (null);
+		}
+
+		if (!MessageSizeDistribution.NATURAL.equals(
+			messageSizes.getDistribution())) {
+			picks.setMessageSizes(messageSizes);
+		}
+
+		logger.info("Using message sizes: " + messageSizes.toString());
+		return (picks);
+	}
+
+	/**
+	 * main function for TrafficGenerator
+	 *
+	 * @param args
+	 *            - A String[] containing the command line arguments.
+	 */
+	public static void main(String[] args) {
+
+		// check number of arguments
+		if (args.length == 0) {
+			System.out.println(
+				"Usage: hazdev-broker TrafficGenerator <configfile>");
+			System.exit(1);
+		}
+
+		// parse config file into json
+		JSONObject configJSON = Utility.readConfigurationFromFile(args[0]);
+
+		// nullcheck
+		if (configJSON == null) {
+			System.out.println("Error, invalid json from configuration.");
+			System.exit(1);
+		}
+
+		// type check
+		if (configJSON.containsKey(TYPE_KEY)) {
+			String type = configJSON.get(TYPE_KEY).toString();
+			if (!type.equals("TrafficGenerator")) {
+				System.out.println("Error, wrong configuration.");
+				System.exit(1);
+			}
+		} else {
+			System.out.println("Error, missing type in configuration.");
+			System.exit(1);
+		}
+
+		// get log4j config
+		if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
+			System.out.println("Using custom logging configuration");
+			PropertyConfigurator.configure(
+				(String) configJSON.get(LOG4J_CONFIGFILE));
+		} else {
+			System.out.println("Using default logging configuration");
+			BasicConfigurator.configure();
+		}
+
+		logger.info("----------Traffic Generator Startup----------");
+
+		// get topic
+		String topic = null;
+		if (configJSON.containsKey(TOPIC)) {
+			topic = (String) configJSON.get(TOPIC);
+			logger.info("Using configured topic of: " + topic);
+		} else {
+			logger.error("Error, did not find Topic in configuration.");
+			System.exit(1);
+		}
+
+		// get heartbeat interval
+		Long heartbeatInterval = null;
+		if (configJSON.containsKey(HEARTBEAT_INTERVAL)) {
+			heartbeatInterval = (Long) configJSON.get(HEARTBEAT_INTERVAL);
+			logger.info("Using configured heartbeatInterval of: " +
+				heartbeatInterval.toString());
+		} else {
+			logger.info("Not sending heartbeats.");
+		}
+
+		boolean stampHeaders = LoadTest.getBoolean(configJSON, STAMP_HEADERS,
+			true);
+		long durationSeconds = LoadTest.getLong(configJSON, DURATION_SECONDS,
+			0);
+		long reportInterval = LoadTest.getLong(configJSON, REPORT_INTERVAL,
+			10);
+		long picksPerEvent = LoadTest.getLong(configJSON, PICKS_PER_EVENT,
+			10);
+		long aftershockZone = LoadTest.getLong(configJSON,
+			AFTERSHOCK_ZONE_STATIONS, 10);
+
+		TrafficShape shape = readTrafficShape(configJSON);
+		if (shape == null) {
+			System.exit(1);
+		}
+
+		long startTime = System.nanoTime();
+		PickGenerator picks = readPickGenerator(configJSON, startTime);
+		if (picks == null) {
+			System.exit(1);
+		}
+
+		// get broker config
+		JSONObject brokerConfig = null;
+		if (configJSON.containsKey(BROKER_CONFIG)) {
+			brokerConfig = (JSONObject) configJSON.get(BROKER_CONFIG);
+		} else {
+			logger.error(
+				"Error, did not find HazdevBrokerConfig in configuration.");
+			System.exit(1);
+		}
+
+		logger.info("----------Processed Config----------");
+
+		Producer producer = new Producer(brokerConfig, heartbeatInterval);
+		producer.setStampHeaders(stampHeaders);
+
+		// set up metrics
+		MetricsRegistry registry = MetricsRegistry.getDefault();
+		producer.setMetricsRegistry(registry);
+		Counter sent = registry.counter(
+			"hazdev_trafficgenerator_messages_sent_total",
+			"Messages sent by the traffic generator");
+		Counter sentBytes = registry.counter(
+			"hazdev_trafficgenerator_bytes_sent_total",
+			"Message bytes sent by the traffic generator");
+		Gauge offeredRate = registry.gauge(
+			"hazdev_trafficgenerator_offered_rate",
+			"Messages per second the traffic shape currently calls for");
+
+		// serve metrics if configured
+		if (configJSON.containsKey(METRICS_PORT)) {
+			MetricsHttpServer metricsServer = new MetricsHttpServer(registry);
+			try {
+				metricsServer.start(
+					((Long) configJSON.get(METRICS_PORT)).intValue());
+			} catch (IOException e) {
+				logger.error("Error starting metrics server: " + e.toString());
+			}
+		}
+
+		// start sending
+		TrafficGenerator generator = new TrafficGenerator(producer, topic,
+			shape, picks, (int) picksPerEvent, (int) aftershockZone, sent,
+			sentBytes, startTime);
+		Thread generatorThread = new Thread(generator, "TrafficGenerator");
+		generatorThread.start();
+
+		// report until the duration is up, or forever if there isn't one
+		long lastReportTime = startTime;
+		long lastSent = 0;
+		long lastSentBytes = 0;
+		double lastOffered = 0;
+		long endTime = startTime + (long) (durationSeconds * NANOS_PER_SECOND);
+
+		while ((durationSeconds <= 0) || (System.nanoTime() < endTime)) {
+			long reportTime = lastReportTime +
+				(long) (reportInterval * NANOS_PER_SECOND);
+			if (durationSeconds > 0) {
+				reportTime = Math.min(endTime, reportTime);
+			}
+			LoadTest.sleepUntil(reportTime);
+
+			long now = System.nanoTime();
+			double elapsedSeconds = (now - startTime) / NANOS_PER_SECOND;
+			double intervalSeconds = (now - lastReportTime) / NANOS_PER_SECOND;
+			double currentOffered = generator.getOffered();
+			long currentSent = sent.getCount();
+			long currentSentBytes = sentBytes.getCount();
+			double currentRate = shape.getRate(elapsedSeconds);
+			offeredRate.set(currentRate);
+
+			logger.info(String.format("Interval %.1fs: shape %.0f msgs/sec " +
+				"(aftershocks %.0f), offered %.0f msgs/sec, sent %.0f " +
+				"msgs/sec %.0f KB/sec, average %.0f bytes, behind %.0f msgs",
+				elapsedSeconds, currentRate,
+				shape.getAftershockRate(elapsedSeconds),
+				(currentOffered - lastOffered) / intervalSeconds,
+				(currentSent - lastSent) / intervalSeconds,
+				(currentSentBytes - lastSentBytes) / (intervalSeconds * 1024),
+				(currentSent > lastSent) ? ((double) (currentSentBytes -
+				lastSentBytes) / (currentSent - lastSent)) : 0.0,
+				Math.max(0, currentOffered - currentSent)));
+
+			lastReportTime = now;
+			lastSent = currentSent;
+			lastSentBytes = currentSentBytes;
+			lastOffered = currentOffered;
+		}
+
+		// stop sending
+		generator.stop();
+		try {
+			generatorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long sendEndTime = System.nanoTime();
+		producer.close(10000);
+
+		double sendSeconds = (sendEndTime - startTime) / NANOS_PER_SECOND;
+		logger.info("----------Traffic Generator Results----------");
+		logger.info(String.format("Sent %d msgs, %d bytes in %.1fs, %.0f " +
+			"msgs/sec", sent.getCount(), sentBytes.getCount(), sendSeconds,
+			sent.getCount() / sendSeconds));
+
+		System.exit(0);
+	}
+}
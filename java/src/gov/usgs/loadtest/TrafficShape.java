@@ -0,0 +1,229 @@
+package gov.usgs.loadtest;
+
+/**
+ * a class describing the shape of the synthetic traffic sent by the load test
+ * harness, as a message rate that varies over time. Supported shapes are:
+ * Constant - a steady rate.
+ * Burst - a steady rate, with bursts at the burst rate lasting burst seconds
+ * every burst interval seconds.
+ * Ramp - a rate rising linearly from the rate to the burst rate over the
+ * burst seconds, and then holding at the burst rate.
+ * Aftershock - a steady rate, plus a sequence starting at the burst rate and
+ * decaying following the modified Omori law, burst rate * (c / (c + t))^p,
+ * restarting every burst interval seconds (if the burst interval is greater
+ * than zero) as if there were a new mainshock.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class TrafficShape {
+
+	/**
+	 * Shape type strings
+	 */
+	public static final String CONSTANT = "Constant";
+	public static final String BURST = "Burst";
+	public static final String RAMP = "Ramp";
+	public static final String AFTERSHOCK = "Aftershock";
+
+	/**
+	 * Double constant containing the default Omori law c value in seconds
+	 */
+	public static final double DEFAULT_OMORI_C = 30.0;
+
+	/**
+	 * Double constant containing the default Omori law p value
+	 */
+	public static final double DEFAULT_OMORI_P = 1.1;
+
+	/**
+	 * The shape type
+	 */
+	private String shape;
+
+	/**
+	 * The base rate in messages per second
+	 */
+	private double rate;
+
+	/**
+	 * The burst (or ramp target) rate in messages per second
+	 */
+	private double burstRate;
+
+	/**
+	 * The length of each burst (or of the ramp) in seconds
+	 */
+	private double burstSeconds;
+
+	/**
+	 * The time between the start of each burst in seconds
+	 */
+	private double burstInterval;
+
+	/**
+	 * The Omori law c value in seconds, the time at which the aftershock rate
+	 * has decayed by about half
+	 */
+	private double omoriC;
+
+	/**
+	 * The Omori law p value, controlling how quickly the aftershock rate 
+	 * decays
+	 */
+	private double omoriP;
+
+	/**
+	 * The constructor for the TrafficShape class.
+	 *
+	 * @param newShape
+	 *            - A String containing the shape type, Constant, Burst,
+	 *            Ramp, or Aftershock
+	 * @param newRate
+	 *            - A double containing the base rate in messages per second
+	 * @param newBurstRate
+	 *            - A double containing the burst (or ramp target) rate in
+	 *            messages per second
+	 * @param newBurstSeconds
+	 *            - A double containing the length of each burst (or of the
+	 *            ramp) in seconds
+	 * @param newBurstInterval
+	 *            - A double containing the time between the start of each
+	 *            burst in seconds
+	 */
+	public TrafficShape(String newShape, double newRate, double newBurstRate,
+		double newBurstSeconds, double newBurstInterval) {
+		shape = newShape;
+		rate = newRate;
+		burstRate = newBurstRate;
+		burstSeconds = newBurstSeconds;
+		burstInterval = newBurstInterval;
+		omoriC = DEFAULT_OMORI_C;
+		omoriP = DEFAULT_OMORI_P;
+	}
+
+	/**
+	 * Sets the Omori law parameters used by the Aftershock shape
+	 *
+	 * @param newOmoriC
+	 *            - A double containing the c value in seconds
+	 * @param newOmoriP
+	 *            - A double containing the p value
+	 */
+	public void setOmoriParameters(double newOmoriC, double newOmoriP) {
+		omoriC = newOmoriC;
+		omoriP = newOmoriP;
+	}
+
+	/**
+	 * Gets the message rate at the provided time
+	 *
+	 * @param elapsedSeconds
+	 *            - A double containing the time since traffic started in
+	 *            seconds
+	 * @return Returns the message rate in messages per second
+	 */
+	public double getRate(double elapsedSeconds) {
+		if (BURST.equals(shape)) {
+			if ((burstInterval > 0) &&
+				((elapsedSeconds % burstInterval) < burstSeconds)) {
+				return (burstRate);
+			}
+			return (rate);
+		} else if (RAMP.equals(shape)) {
+			if ((burstSeconds <= 0) || (elapsedSeconds >= burstSeconds)) {
+				return (burstRate);
+			}
+			return (rate + ((burstRate - rate) *
+				(elapsedSeconds / burstSeconds)));
+		} else if (AFTERSHOCK.equals(shape)) {
+			return (rate + getAftershockRate(elapsedSeconds));
+		}
+
+		return (rate);
+	}
+
+	/**
+	 * Gets the rate of the aftershock sequence alone at the provided time, 
+	 * zero for shapes other than Aftershock
+	 *
+	 * @param elapsedSeconds
+	 *            - A double containing the time since traffic started in
+	 *            seconds
+	 * @return Returns the aftershock message rate in messages per second
+	 */
+	public double getAftershockRate(double elapsedSeconds) {
+		if (!AFTERSHOCK.equals(shape)) {
+			return (0);
+		}
+
+		// time since the last mainshock
+		double sequenceSeconds = elapsedSeconds;
+		if (burstInterval > 0) {
+			sequenceSeconds = elapsedSeconds % burstInterval;
+		}
+
+		if (omoriC <= 0) {
+			return (0);
+		}
+		return (burstRate * Math.pow(omoriC / (omoriC + sequenceSeconds),
+			omoriP));
+	}
+
+	/**
+	 * Gets the number of the aftershock sequence at the provided time, which
+	 * changes every time the sequence restarts
+	 *
+	 * @param elapsedSeconds
+	 *            - A double containing the time since traffic started in
+	 *            seconds
+	 * @return Returns the sequence number
+	 */
+	public long getSequence(double elapsedSeconds) {
+		if (!AFTERSHOCK.equals(shape) || (burstInterval <= 0)) {
+			return (0);
+		}
+		return ((long) (elapsedSeconds / burstInterval));
+	}
+
+	/**
+	 * Checks that the shape type is supported
+	 *
+	 * @return Returns true if the shape type is supported, false otherwise
+	 */
+	public boolean isValid() {
+		return (CONSTANT.equals(shape) || BURST.equals(shape) ||
+			RAMP.equals(shape) || AFTERSHOCK.equals(shape));
+	}
+
+	/**
+	 * @return the shape type
+	 */
+	public String getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return a description of the shape for logging
+	 */
+	@Override
+	public String toString() {
+		if (BURST.equals(shape)) {
+			return (shape + " " + String.valueOf(rate) + " msgs/sec with " +
+				String.valueOf(burstSeconds) + " second bursts at " +
+				String.valueOf(burstRate) + " msgs/sec every " +
+				String.valueOf(burstInterval) + " seconds");
+		} else if (AFTERSHOCK.equals(shape)) {
+			return (shape + " " + String.valueOf(rate) + " msgs/sec with " +
+				"sequences starting at " + String.valueOf(burstRate) + 
+				" msgs/sec, decaying with Omori c " + String.valueOf(omoriC) + 
+				" seconds and p " + String.valueOf(omoriP) + ((burstInterval > 0)
+				? (", every " + String.valueOf(burstInterval) + " seconds") 
+				: ""));
+		} else if (RAMP.equals(shape)) {
+			return (shape + " from " + String.valueOf(rate) + " to " +
+				String.valueOf(burstRate) + " msgs/sec over " +
+				String.valueOf(burstSeconds) + " seconds");
+		}
+		return (shape + " " + String.valueOf(rate) + " msgs/sec");
+	}
+}
@@ -0,0 +1,424 @@
+package gov.usgs.multiclient;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.PropertyConfigurator;
+
+import gov.usgs.hazdevbroker.Utility;
+import gov.usgs.hazdevbroker.ClientThreads;
+import gov.usgs.hazdevbroker.MetricsHttpServer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
+import gov.usgs.hazdevbroker.SharedProducers;
+import gov.usgs.hazdevbroker.SharedScheduler;
+
+import java.util.*;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * a client class used to run many ConsumerClient, ProducerClient, and
+ * ArchiveClient pipelines in one JVM, each from its own configuration file,
+ * instead of one JVM per pipeline. The clients keep their state in static
+ * members, so each pipeline loads its own copy of the client classes, while
+ * the hazdev broker, kafka, and logging classes are shared. This way every
+ * pipeline shares one heap, one metrics registry (served on one port and
+ * logged once), one background scheduler for heartbeats, and, where their
+ * kafka properties match, one kafka producer. Every client configuration is
+ * checked before any pipeline is started, and a pipeline that fails stops
+ * on its own without stopping the others. With the Virtual ThreadMode (JDK
+ * 21 or newer) each pipeline runs on a virtual thread.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class MultiClient {
+
+	/**
+	 * JSON Configuration Keys
+	 */
+	public static final String TYPE_KEY = "Type";
+	public static final String LOG4J_CONFIGFILE = "Log4JConfigFile";
+	public static final String CLIENTS = "Clients";
+	public static final String SHARE_PRODUCERS = "ShareProducers";
+	public static final String METRICS_PORT = "MetricsPort";
+	public static final String THREAD_MODE = "ThreadMode";
+
+	/**
+	 * The packages each pipeline loads its own copy of, so that the static
+	 * state of each client is kept separate
+	 */
+	public static final String[] PIPELINE_PACKAGES = {
+		"gov.usgs.consumerclient.",
+		"gov.usgs.producerclient.",
+		"gov.usgs.archiveclient."
+	};
+
+	/**
+	 * The client types that can be run as pipelines, and their main classes
+	 */
+	public static final String[][] CLIENT_TYPES = {
+		{"ConsumerClient", "gov.usgs.consumerclient.ConsumerClient"},
+		{"ProducerClient", "gov.usgs.producerclient.ProducerClient"},
+		{"ArchiveClient", "gov.usgs.archiveclient.ArchiveClient"}
+	};
+
+	/**
+	 * Long constant containing the number of seconds between logging the 
+	 * shared metrics
+	 */
+	public static final long METRIC_INTERVAL = 30L;
+
+	/**
+	 * Optional configuration Boolean defining whether producer pipelines
+	 * share kafka producers, default is true
+	 */
+	private static Boolean shareProducers;
+
+	/**
+	 * Optional configuration Long defining the port to serve metrics on,
+	 * default is null
+	 */
+	private static Long metricsPort;
+
+	/**
+	 * Log4J logger for MultiClient
+	 */
+	static Logger logger = Logger.getLogger(MultiClient.class);
+
+	/**
+	 * A class loader that loads its own copy of the client classes, and
+	 * leaves everything else to the parent class loader so it is shared
+	 */
+	static class PipelineClassLoader extends URLClassLoader {
+
+		/**
+		 * The constructor for the PipelineClassLoader class.
+		 *
+		 * @param urls
+		 *            - A URL[] containing where to load the client classes
+		 *            from
+		 * @param parent
+		 *            - The ClassLoader to load every other class from
+		 */
+		PipelineClassLoader(URL[] urls, ClassLoader parent) {
+			super(urls, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve)
+			throws ClassNotFoundException {
+			if (!isPipelineClass(name)) {
+				return (super.loadClass(name, resolve));
+			}
+
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> loadedClass = findLoadedClass(name);
+				if (loadedClass == null) {
+					loadedClass = findClass(name);
+				}
+				if (resolve) {
+					resolveClass(loadedClass);
+				}
+				return (loadedClass);
+			}
+		}
+
+		/**
+		 * Checks whether a class is one of the client classes
+		 *
+		 * @param name
+		 *            - A String containing the class name
+		 * @return Returns true if each pipeline loads its own copy
+		 */
+		private static boolean isPipelineClass(String name) {
+			for (String pipelinePackage : PIPELINE_PACKAGES) {
+				if (name.startsWith(pipelinePackage)) {
+					return (true);
+				}
+			}
+			return (false);
+		}
+	}
+
+	/**
+	 * main function for MultiClient
+	 *
+	 * @param args
+	 *            - A String[] containing the command line arguments.
+	 */
+	public static void main(String[] args) {
+
+		// check number of arguments
+		if (args.length == 0) {
+			System.out.println(
+					"Usage: hazdev-broker MultiClient <configfile>");
+			System.exit(1);
+		}
+
+		// init to default values
+		shareProducers = (boolean) true;
+		metricsPort = null;
+
+		// parse config file into json
+		JSONObject configJSON = Utility.readConfigurationFromFile(args[0]);
+
+		// nullcheck
+		if (configJSON == null) {
+			System.out.println("Error, invalid json from configuration.");
+			System.exit(1);
+		}
+
+		// type check
+		if (configJSON.containsKey(TYPE_KEY)) {
+			String type = configJSON.get(TYPE_KEY).toString();
+			if (!type.equals("MultiClient")) {
+				System.out.println("Error, wrong configuration.");
+				System.exit(1);
+			}
+		} else {
+			System.out.println("Error, missing type in configuration.");
+			System.exit(1);
+		}
+
+		// get log4j config
+		String logConfigString = null;
+		if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
+			logConfigString = (String) configJSON.get(LOG4J_CONFIGFILE);
+			System.out.println("Using custom logging configuration");
+			PropertyConfigurator.configure(logConfigString);
+		} else {
+			System.out.println("Using default logging configuration");
+			BasicConfigurator.configure();
+		}
+
+		logger.info("----------Multi Client Startup----------");
+
+		// get share producers
+		if (configJSON.containsKey(SHARE_PRODUCERS)) {
+			shareProducers = (Boolean) configJSON.get(SHARE_PRODUCERS);
+			logger.info("Using configured shareProducers of: "
+					+ shareProducers.toString());
+		} else {
+			logger.info("Using default shareProducers of: "
+					+ shareProducers.toString());
+		}
+
+		// get thread mode, before any pipeline is started
+		if (configJSON.containsKey(THREAD_MODE)) {
+			String threadMode = (String) configJSON.get(THREAD_MODE);
+			ClientThreads.setMode(threadMode);
+			logger.info("Using configured threadMode of: "
+					+ ClientThreads.getMode());
+		} else {
+			logger.info("Using default threadMode of: "
+					+ ClientThreads.getMode());
+		}
+
+		// get metrics port
+		if (configJSON.containsKey(METRICS_PORT)) {
+			metricsPort = (Long) configJSON.get(METRICS_PORT);
+			logger.info("Using configured metricsPort of: "
+					+ metricsPort.toString());
+		} else {
+			logger.info("Not using metricsPort, not serving metrics.");
+		}
+
+		// get client configuration files
+		ArrayList<String> clientConfigs = null;
+		if (configJSON.containsKey(CLIENTS)) {
+			clientConfigs = new ArrayList<String>();
+			JSONArray clientArray = (JSONArray) configJSON.get(CLIENTS);
+			// convert to string collection
+			for (int i = 0; i < clientArray.size(); i++) {
+
+				// get the String
+				String clientConfig = (String) clientArray.get(i);
+				clientConfigs.add(clientConfig);
+			}
+		} else {
+			logger.error("Error, did not find Clients in configuration.");
+			System.exit(1);
+		}
+
+		// nullcheck
+		if ((clientConfigs == null) || clientConfigs.isEmpty()) {
+			logger.error("Error, invalid Clients from configuration.");
+			System.exit(1);
+		}
+
+		logger.info("----------Processed Config----------");
+
+		SharedProducers.setEnabled(shareProducers);
+
+		// configure every pipeline before starting any of them, so a bad
+		// client configuration is found up front
+		URL[] classPath = new URL[] {
+			MultiClient.class.getProtectionDomain().getCodeSource()
+				.getLocation()
+		};
+		ArrayList<Method> runMethods = new ArrayList<Method>();
+		for (String clientConfig : clientConfigs) {
+			Method runMethod = configurePipeline(clientConfig, classPath);
+			if (runMethod == null) {
+				logger.error("Error, invalid client configuration: " +
+					clientConfig);
+				System.exit(1);
+			}
+			runMethods.add(runMethod);
+		}
+
+		// serve the shared metrics if configured
+		MetricsHttpServer metricsServer = null;
+		if (metricsPort != null) {
+			metricsServer = new MetricsHttpServer(
+				MetricsRegistry.getDefault());
+			try {
+				metricsServer.start(metricsPort.intValue());
+			} catch (IOException e) {
+				logger.error("Error starting metrics server: " + e.toString());
+			}
+		}
+
+		// log the shared metrics once for every pipeline
+		ScheduledFuture<?> metricsLogging = SharedScheduler.get()
+			.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					MetricsRegistry.getDefault().logMetrics(logger);
+				}
+			}, METRIC_INTERVAL, METRIC_INTERVAL, TimeUnit.SECONDS);
+
+		// start each pipeline on its own thread
+		ArrayList<Thread> pipelines = new ArrayList<Thread>();
+		for (int i = 0; i < clientConfigs.size(); i++) {
+			pipelines.add(startPipeline(i, runMethods.get(i),
+				clientConfigs.get(i)));
+		}
+
+		logger.info("Started " + String.valueOf(pipelines.size()) +
+			" pipeline(s).");
+
+		// run until every pipeline has stopped
+		for (Thread pipeline : pipelines) {
+			try {
+				pipeline.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		metricsLogging.cancel(false);
+		if (metricsServer != null) {
+			metricsServer.stop();
+		}
+
+		logger.info("MultiClient stopped.");
+	}
+
+	/**
+	 * Function to get the main class of a client configuration
+	 *
+	 * @param clientConfig
+	 *            - A String containing the client configuration file
+	 * @return Returns the name of the client's main class, null if the
+	 *         configuration could not be read or is not a supported type
+	 */
+	public static String getClientClass(String clientConfig) {
+		JSONObject configJSON = Utility.readConfigurationFromFile(
+			clientConfig);
+		if ((configJSON == null) || !configJSON.containsKey(TYPE_KEY)) {
+			return (null);
+		}
+
+		String type = configJSON.get(TYPE_KEY).toString();
+		for (String[] clientType : CLIENT_TYPES) {
+			if (clientType[0].equals(type)) {
+				return (clientType[1]);
+			}
+		}
+		return (null);
+	}
+
+	/**
+	 * Function to configure a pipeline, loading its own copy of the client
+	 * classes and reading the client configuration into them
+	 *
+	 * @param clientConfig
+	 *            - A String containing the client configuration file
+	 * @param classPath
+	 *            - A URL[] containing where to load the client classes from
+	 * @return Returns the client's run method, null if the client could not
+	 *         be loaded or its configuration is not valid
+	 */
+	public static Method configurePipeline(String clientConfig,
+		URL[] classPath) {
+		String clientClass = getClientClass(clientConfig);
+		if (clientClass == null) {
+			return (null);
+		}
+
+		try {
+			ClassLoader loader = new PipelineClassLoader(classPath,
+				MultiClient.class.getClassLoader());
+			Class<?> client = loader.loadClass(clientClass);
+			Method configureMethod = client.getMethod("configure",
+				String.class, boolean.class);
+			if (!((Boolean) configureMethod.invoke(null, clientConfig,
+				true))) {
+				return (null);
+			}
+			return (client.getMethod("run"));
+		} catch (InvocationTargetException e) {
+			logger.error("Error configuring " + clientClass + " for " +
+				clientConfig + ": " + e.getCause().toString());
+		} catch (Exception e) {
+			logger.error("Error loading " + clientClass + " for " +
+				clientConfig + ": " + e.toString());
+		}
+		return (null);
+	}
+
+	/**
+	 * Function to start a configured pipeline, running the client's run 
+	 * function on a new thread
+	 *
+	 * @param index
+	 *            - An int containing the index of the pipeline
+	 * @param runMethod
+	 *            - A Method containing the client's run function
+	 * @param clientConfig
+	 *            - A String containing the client configuration file
+	 * @return Returns the started pipeline thread
+	 */
+	public static Thread startPipeline(int index, final Method runMethod,
+		final String clientConfig) {
+		String shortName = runMethod.getDeclaringClass().getSimpleName();
+		Thread pipeline = ClientThreads.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runMethod.invoke(null);
+				} catch (InvocationTargetException e) {
+					logger.error("Pipeline " + clientConfig + " failed: " +
+						e.getCause().toString());
+				} catch (Exception e) {
+					logger.error("Pipeline " + clientConfig + " failed: " +
+						e.toString());
+				}
+			}
+		}, "pipeline-" + String.valueOf(index) + "-" + shortName);
+
+		logger.info("Starting " + shortName + " pipeline " +
+			String.valueOf(index) + " from " + clientConfig);
+		pipeline.start();
+		return (pipeline);
+	}
+}
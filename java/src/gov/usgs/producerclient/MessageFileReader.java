@@ -0,0 +1,317 @@
+package gov.usgs.producerclient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * a reader class used by the ProducerClient to stream messages out of an
+ * input file one line at a time. The reader reuses its byte buffers between
+ * lines and between files, so memory use does not depend on the size of the
+ * file being read, and lines are returned as raw bytes without building a
+ * String.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class MessageFileReader {
+
+	/**
+	 * Integer constant containing the default read buffer size in bytes
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+	/**
+	 * Integer constant containing the initial line buffer size in bytes
+	 */
+	public static final int INITIAL_LINE_SIZE = 1024;
+
+	/**
+	 * The stream being read, null if no file is open
+	 */
+	private InputStream inputStream;
+
+	/**
+	 * The buffer data is read from the file into
+	 */
+	private byte[] readBuffer;
+
+	/**
+	 * The position of the next unread byte in the read buffer
+	 */
+	private int readPosition;
+
+	/**
+	 * The number of valid bytes in the read buffer
+	 */
+	private int readLimit;
+
+	/**
+	 * The buffer holding the current line, grows to fit the longest line seen
+	 */
+	private byte[] lineBuffer;
+
+	/**
+	 * The length of the current line in bytes
+	 */
+	private int lineLength;
+
+	/**
+	 * Flag indicating that the last line ended with a carriage return, so a
+	 * following line feed should be skipped
+	 */
+	private boolean skipLineFeed;
+
+	/**
+	 * The read error that ended iteration over the lines of the open file,
+	 * null if none
+	 */
+	private IOException lineError;
+
+	/**
+	 * a buffer over the line buffer returned when iterating over lines,
+	 * rewrapped whenever the line buffer grows
+	 */
+	private ByteBuffer lineView;
+
+	/**
+	 * The constructor for the MessageFileReader class. Initializes the buffers
+	 * using the default read buffer size.
+	 */
+	public MessageFileReader() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * The advanced constructor for the MessageFileReader class. Initializes
+	 * the buffers using the provided read buffer size.
+	 *
+	 * @param bufferSize
+	 *            - An int containing the read buffer size in bytes
+	 */
+	public MessageFileReader(int bufferSize) {
+		inputStream = null;
+		readBuffer = new byte[bufferSize];
+		lineBuffer = new byte[INITIAL_LINE_SIZE];
+		readPosition = 0;
+		readLimit = 0;
+		lineLength = 0;
+		skipLineFeed = false;
+		lineError = null;
+		lineView = null;
+	}
+
+	/**
+	 * Opens the provided file for reading, closing any previously open file
+	 *
+	 * @param inputFile
+	 *            - A File containing the file to read
+	 * @throws java.io.IOException
+	 *             if the file could not be opened
+	 */
+	public void open(File inputFile) throws IOException {
+		close();
+
+		inputStream = new FileInputStream(inputFile);
+		readPosition = 0;
+		readLimit = 0;
+		lineLength = 0;
+		skipLineFeed = false;
+		lineError = null;
+	}
+
+	/**
+	 * Gets an iterator over the non empty lines of the open file, each as a
+	 * ByteBuffer over the line buffer, so no copy of the line is made. The
+	 * contents of each buffer are overwritten when the next line is read.
+	 * Since iterators can't throw an IOException, a read error ends the 
+	 * iteration and is kept for getLineError().
+	 *
+	 * @return Returns an Iterator&lt;ByteBuffer&gt; over the lines
+	 */
+	public Iterator<ByteBuffer> lines() {
+		return (new Iterator<ByteBuffer>() {
+			/**
+			 * Flag indicating that the next line has been read
+			 */
+			private boolean fetched = false;
+
+			/**
+			 * Flag indicating that there is a next line
+			 */
+			private boolean hasLine = false;
+
+			@Override
+			public boolean hasNext() {
+				if (!fetched) {
+					fetched = true;
+					try {
+						// skip empty lines
+						do {
+							hasLine = nextLine();
+						} while (hasLine && (lineLength == 0));
+					} catch (IOException e) {
+						lineError = e;
+						hasLine = false;
+					}
+				}
+				return (hasLine);
+			}
+
+			@Override
+			public ByteBuffer next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				fetched = false;
+
+				if ((lineView == null) || (lineView.array() != lineBuffer)) {
+					lineView = ByteBuffer.wrap(lineBuffer);
+				}
+				lineView.clear();
+				lineView.limit(lineLength);
+				return (lineView);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+	}
+
+	/**
+	 * Reads the next line from the open file into the line buffer. Lines may
+	 * be terminated by a line feed, a carriage return, or a carriage return
+	 * followed by a line feed, the terminator is not included in the line.
+	 *
+	 * @return Returns true if a line was read, false at the end of the file
+	 * @throws java.io.IOException
+	 *             if a read error occurs
+	 */
+	public boolean nextLine() throws IOException {
+		if (inputStream == null) {
+			return (false);
+		}
+
+		lineLength = 0;
+		boolean haveData = false;
+
+		while (true) {
+			// refill the read buffer if we've used it up
+			if (readPosition >= readLimit) {
+				readLimit = inputStream.read(readBuffer, 0, readBuffer.length);
+				readPosition = 0;
+
+				// end of file, return whatever is left as the last line
+				if (readLimit <= 0) {
+					readLimit = 0;
+					return (haveData);
+				}
+			}
+
+			// skip the line feed half of a carriage return/line feed pair
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (readBuffer[readPosition] == '\n') {
+					readPosition++;
+					continue;
+				}
+			}
+
+			// look for the end of the line in what we've read
+			int start = readPosition;
+			while (readPosition < readLimit) {
+				byte current = readBuffer[readPosition];
+
+				if ((current == '\n') || (current == '\r')) {
+					appendToLine(start, readPosition - start);
+					readPosition++;
+
+					if (current == '\r') {
+						skipLineFeed = true;
+					}
+					return (true);
+				}
+
+				readPosition++;
+			}
+
+			// no end of line yet, keep what we have and read some more
+			appendToLine(start, readPosition - start);
+			haveData = true;
+		}
+	}
+
+	/**
+	 * Copies a section of the read buffer onto the end of the current line
+	 *
+	 * @param start
+	 *            - An int containing the start of the section
+	 * @param length
+	 *            - An int containing the length of the section
+	 */
+	private void appendToLine(int start, int length) {
+		if (length <= 0) {
+			return;
+		}
+
+		// grow the line buffer if we need to
+		if (lineLength + length > lineBuffer.length) {
+			lineBuffer = Arrays.copyOf(lineBuffer,
+				Math.max(lineBuffer.length * 2, lineLength + length));
+		}
+
+		System.arraycopy(readBuffer, start, lineBuffer, lineLength, length);
+		lineLength += length;
+	}
+
+	/**
+	 * Closes the open file, the buffers are kept for the next file
+	 */
+	public void close() {
+		if (inputStream != null) {
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				// nothing we can do about it
+			}
+			inputStream = null;
+		}
+	}
+
+	/**
+	 * @return the line buffer, only the first getLineLength() bytes are part
+	 * of the current line, and the contents are overwritten by the next call
+	 * to nextLine()
+	 */
+	public byte[] getLineBuffer() {
+		return lineBuffer;
+	}
+
+	/**
+	 * @return the length of the current line in bytes
+	 */
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	/**
+	 * @return the read error that ended iteration over the lines of the open
+	 * file, null if none
+	 */
+	public IOException getLineError() {
+		return lineError;
+	}
+
+	/**
+	 * @return a copy of the current line as a byte[]
+	 */
+	public byte[] copyLine() {
+		return Arrays.copyOf(lineBuffer, lineLength);
+	}
+}
@@ -0,0 +1,182 @@
+package gov.usgs.producerclient;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * a class used by the ProducerClient to track the delivery of the messages
+ * read from a single input file. The messages are sent in batches (normally
+ * one batch for the whole file), each batch sent from the file is counted, and
+ * once every batch has been acknowledged by the broker cluster (or has failed)
+ * and the whole file has been read, the ProducerClient is told to finish the
+ * file.
+ *
+ * @author U.S. Geological Survey &lt;jpatton at usgs.gov&gt;
+ */
+public class PendingInputFile implements Callback {
+
+	/**
+	 * The input file as found in the input directory
+	 */
+	private File inputFile;
+
+	/**
+	 * The file actually being read, differs from the input file when the
+	 * input file has been claimed
+	 */
+	private File readFile;
+
+	/**
+	 * The time this file was started, from System.nanoTime()
+	 */
+	private long startTime;
+
+	/**
+	 * The number of batches sent that have not yet completed
+	 */
+	private AtomicLong pendingBatches;
+
+	/**
+	 * The number of messages sent from the file
+	 */
+	private volatile long sentMessages;
+
+	/**
+	 * Flag indicating that the whole file has been read
+	 */
+	private volatile boolean readComplete;
+
+	/**
+	 * Flag indicating that a message failed to send, or the file could not be
+	 * completely read
+	 */
+	private AtomicBoolean failed;
+
+	/**
+	 * Flag indicating that the file has been finished, used to make sure the
+	 * file is only finished once
+	 */
+	private AtomicBoolean finished;
+
+	/**
+	 * The constructor for the PendingInputFile class.
+	 *
+	 * @param newInputFile
+	 *            - A File containing the input file as found in the input
+	 *            directory
+	 * @param newReadFile
+	 *            - A File containing the file to read
+	 */
+	public PendingInputFile(File newInputFile, File newReadFile) {
+		inputFile = newInputFile;
+		readFile = newReadFile;
+		startTime = System.nanoTime();
+		pendingBatches = new AtomicLong(0);
+		sentMessages = 0;
+		readComplete = false;
+		failed = new AtomicBoolean(false);
+		finished = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Counts a batch as sent, must be called before the batch is handed to
+	 * the producer
+	 */
+	public void batchSent() {
+		pendingBatches.incrementAndGet();
+	}
+
+	/**
+	 * Marks the file as completely read, the file is finished once all the
+	 * sent batches have completed
+	 *
+	 * @param success
+	 *            - A boolean, false if the file could not be completely read
+	 * @param messages
+	 *            - A long containing the number of messages sent from the 
+	 *            file
+	 */
+	public void readComplete(boolean success, long messages) {
+		sentMessages = messages;
+		if (!success) {
+			failed.set(true);
+		}
+
+		readComplete = true;
+		checkFinished();
+	}
+
+	/**
+	 * Batch send completion callback, counts the batch as completed
+	 *
+	 * @param metadata
+	 *            - The RecordMetadata of the last message acknowledged, null
+	 *            on error
+	 * @param exception
+	 *            - The first Exception that occurred while sending the batch,
+	 *            null on success
+	 */
+	@Override
+	public void onCompletion(RecordMetadata metadata, Exception exception) {
+		if (exception != null) {
+			failed.set(true);
+		}
+
+		pendingBatches.decrementAndGet();
+		checkFinished();
+	}
+
+	/**
+	 * Finishes the file if it has been completely read and all sent batches
+	 * have completed
+	 */
+	private void checkFinished() {
+		if (!readComplete || (pendingBatches.get() > 0)) {
+			return;
+		}
+
+		// only finish once
+		if (finished.compareAndSet(false, true)) {
+			ProducerClient.finishInputFile(this);
+		}
+	}
+
+	/**
+	 * @return the input file as found in the input directory
+	 */
+	public File getInputFile() {
+		return inputFile;
+	}
+
+	/**
+	 * @return the file being read
+	 */
+	public File getReadFile() {
+		return readFile;
+	}
+
+	/**
+	 * @return the time this file was started, from System.nanoTime()
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the number of messages sent from the file
+	 */
+	public long getSentMessages() {
+		return sentMessages;
+	}
+
+	/**
+	 * @return true if a message failed to send or the file could not be read
+	 */
+	public boolean hasFailed() {
+		return failed.get();
+	}
+}
@@ -6,14 +6,38 @@ import org.apache.log4j.PropertyConfigurator;
 
 import gov.usgs.hazdevbroker.Utility;
 import gov.usgs.hazdevbroker.Producer;
+import gov.usgs.hazdevbroker.BatchSendFuture;
+import gov.usgs.hazdevbroker.ClientThreads;
+import gov.usgs.hazdevbroker.Counter;
+import gov.usgs.hazdevbroker.Gauge;
+import gov.usgs.hazdevbroker.GracefulShutdown;
+import gov.usgs.hazdevbroker.JSONKeyExtractor;
+import gov.usgs.hazdevbroker.LatencyHistogram;
+import gov.usgs.hazdevbroker.MetricsHttpServer;
+import gov.usgs.hazdevbroker.MetricsRegistry;
 
 import java.util.*;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -37,12 +61,52 @@ public class ProducerClient {
 	public static final String INPUT_DIRECTORY = "InputDirectory";
 	public static final String ARCHIVE_DIRECTORY = "ArchiveDirectory";
 	public static final String HEARTBEAT_INTERVAL = "HeartbeatInterval";
+	public static final String WATCH_INPUT_DIRECTORY = "WatchInputDirectory";
+	public static final String READ_THREADS = "ReadThreads";
+	public static final String INSTANCE_ID = "InstanceId";
+	public static final String MAX_IN_FLIGHT_FILES = "MaxInFlightFiles";
+	public static final String METRICS_PORT = "MetricsPort";
+	public static final String STAMP_HEADERS = "StampHeaders";
+	public static final String KEY_FIELDS = "KeyFields";
+	public static final String SHUTDOWN_TIMEOUT = "ShutdownTimeout";
+	public static final String THREAD_MODE = "ThreadMode";
+
+	/**
+	 * Long constant containing the default maximum number of input files that
+	 * can be waiting for their messages to be acknowledged at once.
+	 */
+	public static final Long DEFAULT_MAX_IN_FLIGHT_FILES = 16L;
+
+	/**
+	 * String constant containing the name of the directory under the input
+	 * directory that claimed input files are moved to while being processed
+	 */
+	public static final String PROCESSING_DIRECTORY = "processing";
+
+	/**
+	 * Long constant containing the default time in seconds between fallback 
+	 * scans of the input directory when watching the input directory.
+	 */
+	public static final Long WATCH_RESCAN_SECONDS = 30L;
 
 	/**
 	 * Required configuration string defining the input directory
 	 */
 	private static String inputDirectory;
 
+	/**
+	 * Optional configuration string defining the id of this producer client
+	 * instance, when set input files are claimed before they are read so 
+	 * multiple instances can share the input directory, default is null
+	 */
+	private static String instanceId;
+
+	/**
+	 * Directory claimed input files are moved to while being processed, null
+	 * if not claiming input files
+	 */
+	private static String processingDirectory;
+
 	/**
 	 * Optional configuration string defining the archive directory
 	 */
@@ -59,6 +123,93 @@ public class ProducerClient {
 	 */
 	private static Long timePerFile;
 
+	/**
+	 * Optional configuration Boolean defining whether to watch the input 
+	 * directory for new files rather than polling it, default is false
+	 */
+	private static Boolean watchInputDirectory;
+
+	/**
+	 * Optional configuration Long defining the number of threads used to read
+	 * input files, when set all pending input files are processed each cycle, 
+	 * default is null
+	 */
+	private static Long readThreads;
+
+	/**
+	 * Thread pool used to read input files, null if not reading in parallel
+	 */
+	private static ExecutorService readerPool;
+
+	/**
+	 * Optional configuration Long defining the maximum number of input files
+	 * that can be waiting for their messages to be acknowledged at once, 
+	 * default is DEFAULT_MAX_IN_FLIGHT_FILES
+	 */
+	private static Long maxInFlightFiles;
+
+	/**
+	 * Semaphore limiting the number of input files in flight
+	 */
+	private static Semaphore inFlightFiles;
+
+	/**
+	 * The set of input file paths currently in flight or waiting to be, so
+	 * they are not picked up again before they are finished
+	 */
+	private static Set<String> inFlightPaths;
+
+	/**
+	 * Optional configuration Boolean defining whether to stamp each message 
+	 * with send time and client id headers, default is false
+	 */
+	private static Boolean stampHeaders;
+
+	/**
+	 * Optional configuration List of json field names to key messages by, so
+	 * messages with the same field values stay in order on one partition,
+	 * default is null (messages are not keyed)
+	 */
+	private static List<String> keyFields;
+
+	/**
+	 * Optional configuration Long defining the port to serve metrics on,
+	 * default is null
+	 */
+	private static Long metricsPort;
+
+	/**
+	 * The server used to serve metrics, null if not serving metrics
+	 */
+	private static MetricsHttpServer metricsServer;
+
+	/**
+	 * Histogram of the time taken from starting to read an input file until
+	 * all of its messages were acknowledged
+	 */
+	private static LatencyHistogram fileDeliveryLatency;
+
+	/**
+	 * Counter of the input files delivered
+	 */
+	private static Counter filesDelivered;
+
+	/**
+	 * Counter of the input files that failed and will be retried
+	 */
+	private static Counter filesFailed;
+
+	/**
+	 * Per thread input file reader, so read buffers are reused between files
+	 */
+	private static final ThreadLocal<MessageFileReader> fileReader = 
+		new ThreadLocal<MessageFileReader>() {
+			@Override
+			protected MessageFileReader initialValue() {
+				return (new MessageFileReader());
+			}
+		};
+
 	/**
 	 * Optional configuration Long defining the number seconds between sending
 	 * heartbeat messages, default is null
@@ -70,22 +221,50 @@ public class ProducerClient {
 	 */
 	private static Long lastHeartbeatTime;
 
+	/**
+	 * Optional configuration Long defining the time allowed to finish the
+	 * files being read and deliver buffered messages when shutting down in
+	 * seconds, default is GracefulShutdown.DEFAULT_TIMEOUT
+	 */
+	private static Long shutdownTimeout;
+
+	/**
+	 * The graceful shutdown of the main loop
+	 */
+	private static GracefulShutdown shutdown;
+
 	/**
 	 * Long defining the number seconds between logging kafka metrics, 
 	 * default is 30 seconds
 	 */
-	private static Long metricInterval;
+	private static long metricInterval;
 
 	/**
-	 * Variable containing time the last time metrics were logged.
+	 * Variable containing the System.nanoTime() metrics were last logged.
 	 */
-	private static Long lastMetricTime;
+	private static long lastMetricNanos;
 
 	/**
 	 * Log4J logger for ProducerClient
 	 */
 	static Logger logger = Logger.getLogger(ProducerClient.class);
 
+	/**
+	 * Required configuration JSONObject containing the broker configuration
+	 */
+	private static JSONObject brokerConfig;
+
+	/**
+	 * Required configuration string defining the topic to send to
+	 */
+	private static String topic;
+
+	/**
+	 * Flag indicating whether the client is hosted by MultiClient, which sets
+	 * up logging and logs the shared metrics itself
+	 */
+	private static boolean hosted;
+
 	/**
 	 * main function for ConsumerClient
 	 *
@@ -101,25 +280,62 @@ public class ProducerClient {
 			System.exit(1);
 		}
 
+		if (!configure(args[0], false)) {
+			System.exit(1);
+		}
+
+		run();
+	}
+
+	/**
+	 * configuration function for ProducerClient, reads the provided
+	 * configuration file into the client settings
+	 *
+	 * @param configFile
+	 *            - A String containing the configuration file
+	 * @param isHosted
+	 *            - A boolean flag indicating whether the client is hosted by
+	 *            MultiClient, in which case logging is already set up and 
+	 *            the shared metrics are not logged by the client
+	 * @return Returns true if the configuration is valid, false otherwise
+	 */
+	public static boolean configure(String configFile, boolean isHosted) {
+
 		// init to default values
+		hosted = isHosted;
+		brokerConfig = null;
+		topic = null;
 		inputDirectory = null;
 		archiveDirectory = null;
+		instanceId = null;
+		processingDirectory = null;
 		fileExtension = null;
 		timePerFile = null;
+		watchInputDirectory = (boolean) false;
+		readThreads = null;
+		readerPool = null;
+		maxInFlightFiles = DEFAULT_MAX_IN_FLIGHT_FILES;
+		inFlightPaths = Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
 		heartbeatInterval = null;
 		metricInterval = 30L;
-		lastMetricTime = (Long) (System.currentTimeMillis() / 1000);
+		metricsPort = null;
+		stampHeaders = (boolean) false;
+		keyFields = null;
+		metricsServer = null;
+		shutdownTimeout = GracefulShutdown.DEFAULT_TIMEOUT;
+		lastMetricNanos = System.nanoTime();
 
 		// init last heartbeat time to now
 		lastHeartbeatTime = (Long) (System.currentTimeMillis() / 1000);
 
 		// parse config file into json
-		JSONObject configJSON = Utility.readConfigurationFromFile(args[0]);
+		JSONObject configJSON = Utility.readConfigurationFromFile(configFile);
 
 		// nullcheck
 		if (configJSON == null) {
 			System.out.println("Error, invalid json from configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// type check
@@ -127,16 +343,18 @@ public class ProducerClient {
 			String type = configJSON.get(TYPE_KEY).toString();
 			if (!type.equals("ProducerClient")) {
 				System.out.println("Error, wrong configuration.");
-				System.exit(1);
+				return (false);
 			}
 		} else {
 			System.out.println("Error, missing type in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
-		// get log4j config
+		// get log4j config, unless hosted
 		String logConfigString = null;
-		if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
+		if (hosted) {
+			logger.info("Using hosted logging configuration");
+		} else if (configJSON.containsKey(LOG4J_CONFIGFILE)) {
 			logConfigString = (String) configJSON.get(LOG4J_CONFIGFILE);
 			System.out.println("Using custom logging configuration");
 			PropertyConfigurator.configure(logConfigString);
@@ -153,7 +371,7 @@ public class ProducerClient {
 			logger.info("Using configured fileExtension of: " + fileExtension);
 		} else {
 			logger.error("Error, did not find FileExtension in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get input directory
@@ -164,7 +382,7 @@ public class ProducerClient {
 		} else {
 			logger.error(
 					"Error, did not find InputDirectory in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get archive directory
@@ -182,6 +400,30 @@ public class ProducerClient {
 			logger.info("Not using archiveDirectory.");
 		}
 
+		// get instance id
+		if (configJSON.containsKey(INSTANCE_ID)) {
+			instanceId = (String) configJSON.get(INSTANCE_ID);
+			logger.info("Using configured instanceId of: " + instanceId);
+
+			// each instance gets its own processing directory
+			processingDirectory = inputDirectory + File.separatorChar + 
+				PROCESSING_DIRECTORY + File.separatorChar + instanceId;
+			logger.info("Claiming input files into processingDirectory of: " 
+				+ processingDirectory);
+
+			// create processing directory if it doesn't exist
+			File procDir = new File(processingDirectory);
+			if (!procDir.exists()) {
+				procDir.mkdirs();
+			}
+
+			// put back anything left over from the last time this instance
+			// ran so it gets processed again
+			recoverClaimedFiles();
+		} else {
+			logger.info("Not using instanceId, not claiming input files.");
+		}
+
 		// get time per file
 		if (configJSON.containsKey(TIME_PER_FILE)) {
 			timePerFile = (Long) configJSON.get(TIME_PER_FILE);
@@ -191,6 +433,64 @@ public class ProducerClient {
 			logger.info("Not using timePerFile.");
 		}
 
+		// get watch input directory
+		if (configJSON.containsKey(WATCH_INPUT_DIRECTORY)) {
+			watchInputDirectory = (Boolean) configJSON.get(
+				WATCH_INPUT_DIRECTORY);
+			logger.info("Using configured watchInputDirectory of: "
+					+ watchInputDirectory.toString());
+		} else {
+			logger.info("Not using watchInputDirectory, polling for input "
+						+ "files.");
+		}
+
+		// get thread mode, before any threads are created, when hosted the
+		// MultiClient thread mode applies to every pipeline
+		if (hosted) {
+			logger.info("Using hosted threadMode of: "
+					+ ClientThreads.getMode());
+		} else if (configJSON.containsKey(THREAD_MODE)) {
+			String threadMode = (String) configJSON.get(THREAD_MODE);
+			ClientThreads.setMode(threadMode);
+			logger.info("Using configured threadMode of: "
+					+ ClientThreads.getMode());
+		} else {
+			logger.info("Using default threadMode of: "
+					+ ClientThreads.getMode());
+		}
+
+		// get read threads
+		if (configJSON.containsKey(READ_THREADS)) {
+			readThreads = (Long) configJSON.get(READ_THREADS);
+			logger.info("Using configured readThreads of: "
+					+ readThreads.toString());
+
+			if (readThreads <= 0) {
+				logger.error("Error, ReadThreads must be greater than zero.");
+				return (false);
+			}
+		} else {
+			logger.info("Not using readThreads, processing one input file " 
+						+ "per cycle.");
+		}
+
+		// get max in flight files
+		if (configJSON.containsKey(MAX_IN_FLIGHT_FILES)) {
+			maxInFlightFiles = (Long) configJSON.get(MAX_IN_FLIGHT_FILES);
+			logger.info("Using configured maxInFlightFiles of: "
+					+ maxInFlightFiles.toString());
+
+			if (maxInFlightFiles <= 0) {
+				logger.error(
+					"Error, MaxInFlightFiles must be greater than zero.");
+				return (false);
+			}
+		} else {
+			logger.info("Using default maxInFlightFiles of: "
+					+ maxInFlightFiles.toString());
+		}
+		inFlightFiles = new Semaphore(maxInFlightFiles.intValue());
+
 		// get hearbeat interval
 		if (configJSON.containsKey(HEARTBEAT_INTERVAL)) {
 			heartbeatInterval = (Long) configJSON.get(HEARTBEAT_INTERVAL);
@@ -201,28 +501,85 @@ public class ProducerClient {
 						+ "messages.");
 		}	
 
+		// get stamp headers
+		if (configJSON.containsKey(STAMP_HEADERS)) {
+			stampHeaders = (Boolean) configJSON.get(STAMP_HEADERS);
+			logger.info("Using configured stampHeaders of: "
+					+ stampHeaders.toString());
+		} else {
+			logger.info("Not using stampHeaders, not stamping messages.");
+		}
+
+		// get key fields
+		if (configJSON.containsKey(KEY_FIELDS)) {
+			keyFields = new ArrayList<String>();
+			JSONArray keyFieldArray = (JSONArray) configJSON.get(KEY_FIELDS);
+			// convert to string collection
+			for (int i = 0; i < keyFieldArray.size(); i++) {
+
+				// get the String
+				String keyField = (String) keyFieldArray.get(i);
+				keyFields.add(keyField);
+			}
+			logger.info("Using configured keyFields of: "
+					+ keyFields.toString());
+		} else {
+			logger.info("Not using keyFields, not keying messages.");
+		}
+
+		// get shutdown timeout
+		if (configJSON.containsKey(SHUTDOWN_TIMEOUT)) {
+			shutdownTimeout = (Long) configJSON.get(SHUTDOWN_TIMEOUT);
+			logger.info("Using configured shutdownTimeout of: "
+					+ shutdownTimeout.toString());
+		} else {
+			logger.info("Using default shutdownTimeout of: "
+					+ shutdownTimeout.toString());
+		}
+
+		// get metrics port
+		if (configJSON.containsKey(METRICS_PORT)) {
+			metricsPort = (Long) configJSON.get(METRICS_PORT);
+			logger.info("Using configured metricsPort of: "
+					+ metricsPort.toString());
+		} else {
+			logger.info("Not using metricsPort, not serving metrics.");
+		}
+
 		// get broker config
-		JSONObject brokerConfig = null;
 		if (configJSON.containsKey(BROKER_CONFIG)) {
 			brokerConfig = (JSONObject) configJSON.get(BROKER_CONFIG);
 		} else {
 			logger.error(
 					"Error, did not find HazdevBrokerConfig in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		// get topic
-		String topic = null;
 		if (configJSON.containsKey(TOPIC)) {
 			topic = (String) configJSON.get(TOPIC);
 
 			logger.info("Using configured Topic of: " + topic);
 		} else {
 			logger.error("Error, did not find Topic in configuration.");
-			System.exit(1);
+			return (false);
 		}
 
 		logger.info("----------Processed Config----------");
+		return (true);
+	}
+
+	/**
+	 * run function for ProducerClient, sends the messages from the input 
+	 * files until stopped, must be called after a successful configure
+	 */
+	public static void run() {
+
+		// create the reader pool if configured
+		if (readThreads != null) {
+			readerPool = ClientThreads.newExecutor(readThreads.intValue(), 
+				"hazdev-file-reader");
+		}
 
 		// get client id
 		JSONObject brokerProps = (JSONObject) brokerConfig.get("Properties");
@@ -230,179 +587,632 @@ public class ProducerClient {
 
 		// create producer
 		Producer m_Producer = new Producer(brokerConfig, heartbeatInterval);
+		m_Producer.setStampHeaders(stampHeaders);
+		if ((keyFields != null) && !keyFields.isEmpty()) {
+			m_Producer.setKeyExtractor(new JSONKeyExtractor(keyFields));
+		}
+
+		// send heartbeats on time whether or not there are files to send
+		m_Producer.scheduleHeartbeats(topic);
+
+		// set up metrics
+		MetricsRegistry registry = MetricsRegistry.getDefault();
+		m_Producer.setMetricsRegistry(registry);
+		String metricsClientId = String.valueOf(clientID);
+		fileDeliveryLatency = registry.histogram(
+			"hazdev_producerclient_file_delivery_latency", 
+			"Time from starting to read an input file until all of its " + 
+			"messages were acknowledged", "client_id", metricsClientId);
+		filesDelivered = registry.counter(
+			"hazdev_producerclient_files_delivered_total", 
+			"Input files delivered", "client_id", metricsClientId);
+		filesFailed = registry.counter(
+			"hazdev_producerclient_files_failed_total", 
+			"Input files that failed to send and will be retried", 
+			"client_id", metricsClientId);
+		registry.register(new Gauge("hazdev_producerclient_files_in_flight", 
+			"Input files waiting for their messages to be acknowledged", 
+			"client_id", metricsClientId) {
+				@Override
+				public double getValue() {
+					return (maxInFlightFiles.intValue() - 
+						inFlightFiles.availablePermits());
+				}
+			});
+
+		// serve metrics if configured
+		if (metricsPort != null) {
+			metricsServer = new MetricsHttpServer(registry);
+			try {
+				metricsServer.start(metricsPort.intValue());
+			} catch (IOException e) {
+				logger.error("Error starting metrics server: " + e.toString());
+			}
+		}
 
 		logger.info("Broker version: " + 
 			m_Producer.VERSION_MAJOR + "." + m_Producer.VERSION_MINOR + "." + 
 			m_Producer.VERSION_PATCH);
 
+		// finish the files being read and deliver buffered messages when
+		// stopped
+		shutdown = new GracefulShutdown("ProducerClient", 
+			shutdownTimeout.longValue());
+		shutdown.install();
+
+		// watch the input directory if configured, falls back to polling
+		// if the directory could not be watched
+		if (watchInputDirectory == true) {
+			watchForMessages(m_Producer, topic);
+		}
+
 		// run until stopped
-		while (true) {
+		while (!shutdown.isStopping()) {
 
-			ArrayList<String> messageList = readMessagesFromFile();
+			// when using read threads, process everything that is pending,
+			// otherwise just process the next file
+			int filesRead = 0;
+			if (readerPool != null) {
+				filesRead = sendPendingFiles(m_Producer, topic);
+			} else {
+				filesRead = sendNextFile(m_Producer, topic);
+			}
 
-			logKafkaMetrics(m_Producer, clientID);
+			logMetrics();
 
-			// if we have anything to send
-			if (messageList != null) {
+			if (filesRead > 0) {
+				logger.debug("Processed " + String.valueOf(filesRead) + 
+					" file(s).");
+			}
 
-				// send each message
-				for (int i = 0; i < messageList.size(); i++) {
+			// wait a bit before the next file, waking up early if stopped
+			if (timePerFile != null) {
+				shutdown.sleep(timePerFile * 1000);
+			}
+		}
 
-					// get message
-					String message = messageList.get(i);
+		// let the read threads finish the files they have claimed
+		if (readerPool != null) {
+			readerPool.shutdown();
+			try {
+				if (!readerPool.awaitTermination(shutdown.getRemainingMillis(), 
+					TimeUnit.MILLISECONDS)) {
+					logger.warn("Read threads did not finish in time.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 
-					// nullcheck
-					if (message == null) {
-						continue;
-					}
-					if (message.length() == 0) {
-						continue;
+		// deliver buffered messages, archiving or deleting each file once
+		// all of its messages are acknowledged, files that were not
+		// acknowledged in time are left to be recovered at the next start
+		m_Producer.close(shutdown.getRemainingMillis());
+
+		if (metricsServer != null) {
+			metricsServer.stop();
+		}
+
+		logger.info("ProducerClient stopped, " + 
+			String.valueOf(inFlightPaths.size()) + " file(s) not delivered.");
+		shutdown.finished();
+	}
+
+	/**
+	 * Input directory watching function for ProducerClient, waits for new 
+	 * files to be created in the input directory and sends every pending file
+	 * each time it wakes up. The input directory is also rescanned every 
+	 * TimePerFile seconds (or WATCH_RESCAN_SECONDS if not configured) to 
+	 * pick up any files the watch service missed. Returns when stopped, or if
+	 * the input directory could not be watched, in which case the caller 
+	 * should fall back to polling.
+	 *
+	 * @param myProducer
+	 *            - A Producer used to send the messages
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 */
+	public static void watchForMessages(Producer myProducer, String topic) {
+
+		// figure out how long to wait before rescanning the directory
+		long rescanSeconds = WATCH_RESCAN_SECONDS;
+		if (timePerFile != null) {
+			rescanSeconds = timePerFile;
+		}
+
+		// don't spin if the rescan time is zero
+		if (rescanSeconds <= 0) {
+			rescanSeconds = 1;
+		}
+
+		WatchService watcher = null;
+		try {
+			// register for new files in the input directory, renaming a file 
+			// into the directory also shows up as a create
+			watcher = FileSystems.getDefault().newWatchService();
+			final WatchService stopWatcher = watcher;
+			shutdown.addWakeup(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						stopWatcher.close();
+					} catch (IOException e) {
+						logger.error("watchForMessages: " + e.toString());
 					}
+				}
+			});
+			Path inputPath = new File(inputDirectory).toPath();
+			inputPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+
+			logger.info("Watching inputDirectory, rescanning every " + 
+				String.valueOf(rescanSeconds) + " seconds.");
+
+			// run until stopped
+			while (!shutdown.isStopping()) {
 
-					// log it
-					logger.debug("Sending message: " + message);
+				// send everything that is currently pending, this also picks 
+				// up any files that were there before we started watching
+				int filesRead = sendPendingFiles(myProducer, topic);
 
-					// send message
-					m_Producer.sendString(topic, message);
+				logMetrics();
+
+				if (filesRead > 0) {
+					logger.debug("Processed " + String.valueOf(filesRead) + 
+						" file(s).");
 				}
-			} else {
 
-				logger.debug("Sending idle heartbeat");
-				
-				// send a heartbeat
-				m_Producer.sendHeartbeat(topic);
+				// wait for something to show up, or for the rescan time
+				WatchKey key = watcher.poll(rescanSeconds, TimeUnit.SECONDS);
+
+				if (key != null) {
+
+					// we don't care what the events were, we rescan the 
+					// directory either way, an overflow just means we missed 
+					// some
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							logger.debug("Watch event overflow, rescanning.");
+						}
+					}
+
+					// re-arm the key, if it is no longer valid the directory
+					// is gone and we can't watch it anymore
+					if (!key.reset()) {
+						logger.error("Input directory is no longer " + 
+							"watchable, falling back to polling.");
+						break;
+					}
+				}
 			}
+		} catch (ClosedWatchServiceException e) {
+			// closed to shut down
+		} catch (InterruptedException e) {
+			logger.error("watchForMessages: " + e.toString());
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("watchForMessages: " + e.toString() + 
+				", falling back to polling.");
+		} finally {
+			try {
+				if (watcher != null) {
+					watcher.close();
+				}
+			} catch (IOException e) {
+				logger.error("watchForMessages: " + e.toString());
+			}
+		}
+	}
 
-			// wait a bit before the next file
-			if (timePerFile != null) {
+	/**
+	 * Next file sending function for ProducerClient, sends the messages from
+	 * the oldest input file in the input directory that is not already in 
+	 * flight, moving on to the next oldest if a file can not be read
+	 *
+	 * @param myProducer
+	 *            - A Producer used to send the messages
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @return Returns the number of files processed
+	 */
+	public static int sendNextFile(Producer myProducer, String topic) {
+
+		// only handle one file at a time, oldest first
+		ArrayList<File> inputFiles = sortByModifiedTime(listInputFiles());
+		for (File inputFile : inputFiles) {
+			if (sendMessagesFromFile(myProducer, topic, inputFile) >= 0) {
+				return (1);
+			}
+
+			// don't keep trying files once we've been told to stop
+			if (shutdown.isStopping()) {
+				break;
+			}
+		}
 
-				try {
-					Thread.sleep(timePerFile * 1000);
-				} catch (InterruptedException ex) {
-					logger.error(ex.toString());
-					Thread.currentThread().interrupt();
+		return (0);
+	}
+
+	/**
+	 * Pending file sending function for ProducerClient, lists the input 
+	 * directory once and sends the messages from every input file found, 
+	 * oldest file first. If a reader pool is configured, the files are read
+	 * and sent in parallel, each file's messages are still sent in order.
+	 *
+	 * @param myProducer
+	 *            - A Producer used to send the messages
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @return Returns the number of files processed
+	 */
+	public static int sendPendingFiles(final Producer myProducer, 
+		final String topic) {
+
+		// list once, oldest first
+		ArrayList<File> inputFiles = sortByModifiedTime(listInputFiles());
+		if (inputFiles.isEmpty()) {
+			return (0);
+		}
+
+		int filesRead = 0;
+
+		// no reader pool, just send each file in turn
+		if (readerPool == null) {
+			for (File inputFile : inputFiles) {
+				if (sendMessagesFromFile(myProducer, topic, inputFile) >= 0) {
+					filesRead++;
 				}
 			}
+
+			return (filesRead);
+		}
+
+		// hand the files to the reader pool in order, each file is streamed
+		// into the producer by a single reader thread
+		ArrayList<Future<Long>> pendingReads = new ArrayList<Future<Long>>();
+		for (final File inputFile : inputFiles) {
+			pendingReads.add(readerPool.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return (sendMessagesFromFile(myProducer, topic, inputFile));
+				}
+			}));
+		}
+
+		// wait for all of them to finish
+		try {
+			for (Future<Long> pendingRead : pendingReads) {
+				if (pendingRead.get() >= 0) {
+					filesRead++;
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.error("sendPendingFiles: " + e.toString());
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error("sendPendingFiles: " + e.toString());
 		}
+
+		return (filesRead);
 	}
 
 	/**
-	 * File reading function for ProducerClient
+	 * File sorting function for ProducerClient
 	 *
-	 * @return Returns an ArrayList of messages as Strings, null otherwise
+	 * @param inputFiles
+	 *            - An ArrayList of Files to sort
+	 * @return Returns the provided ArrayList sorted by last modified time, 
+	 * oldest first
 	 */
-	public static ArrayList<String> readMessagesFromFile() {
+	public static ArrayList<File> sortByModifiedTime(
+		ArrayList<File> inputFiles) {
+
+		// look up each modified time once rather than on every comparison
+		final HashMap<File, Long> modifiedTimes = new HashMap<File, Long>();
+		for (File inputFile : inputFiles) {
+			modifiedTimes.put(inputFile, inputFile.lastModified());
+		}
+
+		Collections.sort(inputFiles, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				int result = modifiedTimes.get(file1).compareTo(
+					modifiedTimes.get(file2));
+
+				// fall back to the name so the order is stable
+				if (result == 0) {
+					result = file1.getName().compareTo(file2.getName());
+				}
+				return (result);
+			}
+		});
 
-		ArrayList<String> messageList = null;
+		return (inputFiles);
+	}
+
+	/**
+	 * Input file listing function for ProducerClient
+	 *
+	 * @return Returns an ArrayList of Files in the input directory with the 
+	 * configured extension that are not already in flight, empty if there are
+	 * none
+	 */
+	public static ArrayList<File> listInputFiles() {
+
+		ArrayList<File> inputFiles = new ArrayList<File>();
 		try {
 			// set up to search the input directory
 			File dir = new File(inputDirectory);
 
 			// list all the files in the directory
-			for (File inputFile : dir.listFiles()) {
+			File[] dirFiles = dir.listFiles();
+			if (dirFiles == null) {
+				logger.error("listInputFiles: unable to list " + 
+					inputDirectory);
+				return (inputFiles);
+			}
+
+			for (File inputFile : dirFiles) {
+				// skip directories
+				if (!inputFile.isFile()) {
+					continue;
+				}
+
+				// skip files waiting for their messages to be acknowledged
+				if (inFlightPaths.contains(inputFile.getAbsolutePath())) {
+					continue;
+				}
+
 				// if the file has the right extension
 				if (inputFile.getName().endsWith((fileExtension))) {
+					inputFiles.add(inputFile);
+				}
+			}
+		} catch (Exception e) {
 
-					logger.debug("Found File: " + inputFile.getName());
+			// log exception
+			logger.error("listInputFiles: " + e.toString());
+		}
 
-					// create message list
-					messageList = new ArrayList<String>();
+		return (inputFiles);
+	}
 
-					// read the file
-					BufferedReader inputReader = null;
+	/**
+	 * File sending function for ProducerClient, streams the provided input 
+	 * file into the producer as a single batch, one line (message) at a 
+	 * time, so the heartbeat check and send time are done once per file. 
+	 * Each reading thread
+	 * reuses its own read buffers, so memory use does not depend on the size 
+	 * of the input file. The file is deleted or archived once every message 
+	 * has been acknowledged by the broker cluster, if any message fails the 
+	 * file is left in the input directory to be sent again. At most 
+	 * MaxInFlightFiles files are sent and waiting to be acknowledged at once, 
+	 * this function blocks until another file finishes if needed.
+	 *
+	 * @param myProducer
+	 *            - A Producer used to send the messages
+	 * @param topic
+	 *            - A String containing the topic to send to
+	 * @param inputFile
+	 *            - A File containing the input file to send
+	 * @return Returns the number of messages sent, -1 if the file could not
+	 * be read
+	 */
+	public static long sendMessagesFromFile(Producer myProducer, String topic,
+		File inputFile) {
+
+		// make sure we don't pick this file up again while it's in flight,
+		// before waiting on a permit so a file that is already in flight 
+		// doesn't hold up the caller
+		if (!inFlightPaths.add(inputFile.getAbsolutePath())) {
+			return (-1);
+		}
 
-					try {
-						inputReader = new BufferedReader(
-								new FileReader(inputFile));
-						String text = null;
+		// wait until we're allowed another file in flight
+		try {
+			inFlightFiles.acquire();
+		} catch (InterruptedException e) {
+			logger.error("sendMessagesFromFile: " + e.toString());
+			inFlightPaths.remove(inputFile.getAbsolutePath());
+			Thread.currentThread().interrupt();
+			return (-1);
+		}
 
-						// each line is assumed to be a message
-						while ((text = inputReader.readLine()) != null) {
-							messageList.add(text);
-						}
-					} catch (FileNotFoundException e) {
-						logger.error("readMessagesFromFile: " + e.toString());
-					} catch (IOException e) {
-						logger.error("readMessagesFromFile: " + e.toString());
-					} finally {
-						try {
-							if (inputReader != null) {
-								inputReader.close();
-							}
-						} catch (IOException e) {
-							logger.error("readMessagesFromFile: " + 
-								e.toString());
-						}
-					}
+		// claim the file so no other instance reads it
+		File readFile = inputFile;
+		if (processingDirectory != null) {
+			readFile = claimInputFile(inputFile);
+
+			// someone else got it first
+			if (readFile == null) {
+				inFlightPaths.remove(inputFile.getAbsolutePath());
+				inFlightFiles.release();
+				return (-1);
+			}
+		}
 
-					// done with the file
-					if (archiveDirectory == null) {
+		PendingInputFile pendingFile = new PendingInputFile(inputFile, 
+			readFile);
+		MessageFileReader inputReader = fileReader.get();
+		boolean readSuccess = false;
+		long sentMessages = 0;
 
-						// not archiving, just delete it
-						inputFile.delete();
-					} else {
-						// Move file to archive directory
-						inputFile.renameTo(new File(
-								archiveDirectory + File.separatorChar + 
-								inputFile.getName()));
-					}
+		try {
+			logger.debug("Found File: " + inputFile.getName());
+
+			inputReader.open(readFile);
+
+			// each line is assumed to be a message, send the raw bytes of 
+			// every line as one batch, the pending file is notified when the
+			// whole batch completes
+			pendingFile.batchSent();
+			BatchSendFuture batch = myProducer.sendBatch(topic, 
+				inputReader.lines(), pendingFile);
+			sentMessages = batch.getSentMessages();
+
+			logger.debug("Sent " + String.valueOf(sentMessages) + 
+				" messages from " + inputFile.getName());
+
+			// a read error ends the batch early
+			if (inputReader.getLineError() != null) {
+				throw inputReader.getLineError();
+			}
+
+			readSuccess = true;
+		} catch (FileNotFoundException e) {
+			// the file went away before we could read it, nothing to finish
+			logger.error("sendMessagesFromFile: " + e.toString());
+			inFlightPaths.remove(inputFile.getAbsolutePath());
+			inFlightFiles.release();
+			return (-1);
+		} catch (Exception e) {
+			logger.error("sendMessagesFromFile: " + e.toString());
+		} finally {
+			inputReader.close();
+		}
+
+		// done reading, the file is finished when the sends complete
+		pendingFile.readComplete(readSuccess, sentMessages);
+
+		return (pendingFile.getSentMessages());
+	}
+
+	/**
+	 * File finishing function for ProducerClient, called once every message
+	 * sent from an input file has completed. Deletes or archives the file if 
+	 * all the messages were delivered, otherwise leaves the file in the input
+	 * directory to be sent again.
+	 *
+	 * @param pendingFile
+	 *            - A PendingInputFile containing the file to finish
+	 */
+	public static void finishInputFile(PendingInputFile pendingFile) {
+
+		File inputFile = pendingFile.getInputFile();
+		File readFile = pendingFile.getReadFile();
 
-					// only handle one file at a time
-					break;
+		try {
+			// count it
+			if (fileDeliveryLatency != null) {
+				if (pendingFile.hasFailed()) {
+					filesFailed.increment();
+				} else {
+					fileDeliveryLatency.record(System.nanoTime() - 
+						pendingFile.getStartTime());
+					filesDelivered.increment();
+				}
+			}
+
+			if (pendingFile.hasFailed()) {
+				logger.error("Failed to send all messages from " + 
+					inputFile.getName() + ", will retry.");
+
+				// put a claimed file back in the input directory
+				if (!readFile.equals(inputFile)) {
+					Files.move(readFile.toPath(), inputFile.toPath(), 
+						StandardCopyOption.ATOMIC_MOVE);
 				}
+			} else if (archiveDirectory == null) {
+
+				// not archiving, just delete it
+				readFile.delete();
+			} else {
+				// Move file to archive directory
+				readFile.renameTo(new File(
+						archiveDirectory + File.separatorChar + 
+						inputFile.getName()));
 			}
 		} catch (Exception e) {
 
 			// log exception
-			logger.error("readMessagesFromFile: " + e.toString());
+			logger.error("finishInputFile: " + e.toString());
+		} finally {
+			// let the next file go
+			inFlightPaths.remove(inputFile.getAbsolutePath());
+			inFlightFiles.release();
+		}
+	}
+
+	/**
+	 * File claiming function for ProducerClient, atomically moves the 
+	 * provided input file into this instance's processing directory. Since the
+	 * move is atomic, only one instance sharing the input directory can claim
+	 * a given file.
+	 *
+	 * @param inputFile
+	 *            - A File containing the input file to claim
+	 * @return Returns the claimed File in the processing directory, null if 
+	 * the file could not be claimed
+	 */
+	public static File claimInputFile(File inputFile) {
+
+		Path claimedPath = new File(processingDirectory).toPath().resolve(
+			inputFile.getName());
+
+		try {
+			Files.move(inputFile.toPath(), claimedPath, 
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			// another instance claimed it first
+			logger.debug("File already claimed: " + inputFile.getName());
+			return (null);
+		} catch (Exception e) {
+			logger.error("claimInputFile: " + e.toString());
 			return (null);
 		}
 
-		return (messageList);
+		return (claimedPath.toFile());
 	}
 
-	public static void logKafkaMetrics(Producer myProducer, 
-		String clientID) {
-
-	// get current time in seconds
-	Long timeNow = System.currentTimeMillis() / 1000;
-
-	// calculate elapsed time
-	Long elapsedTime = timeNow - lastMetricTime;
-
-	if (elapsedTime >= metricInterval) {
-		ArrayList<String> responseRate = myProducer.getKafkaMetric(
-			"kafka.producer:type=producer-metrics,client-id=" + 
-			clientID, "response-rate");
-		logger.info("KafkaMetric - " + responseRate.toString());
-
-		ArrayList<String> requestRate = myProducer.getKafkaMetric(
-			"kafka.producer:type=producer-metrics,client-id=" + 
-			clientID, "request-rate");
-		logger.info("KafkaMetric - " + requestRate.toString());
-
-		ArrayList<String> requestLatencyAvg = myProducer.getKafkaMetric(
-			"kafka.producer:type=producer-metrics,client-id=" + 
-			clientID, "request-latency-avg");
-		logger.info("KafkaMetric - " + requestLatencyAvg.toString());
-
-		ArrayList<String> outgoingByteRate = myProducer.getKafkaMetric(
-			"kafka.producer:type=producer-metrics,client-id=" + 
-			clientID, "outgoing-byte-rate");
-		logger.info("KafkaMetric - " + outgoingByteRate.toString());		
-
-		ArrayList<String> ioWaitTime = myProducer.getKafkaMetric(
-			"kafka.producer:type=producer-metrics,client-id=" + 
-			clientID, "io-wait-time-ns-avg");
-		logger.info("KafkaMetric - " + ioWaitTime.toString());
-		
-		ArrayList<String> batchSizeAvg = myProducer.getKafkaMetric(
-			"kafka.producer:type=producer-metrics,client-id=" + 
-			clientID, "batch-size-avg");
-		logger.info("KafkaMetric - " + batchSizeAvg.toString());		
-
-		lastMetricTime = timeNow;
+	/**
+	 * Claimed file recovery function for ProducerClient, moves any files left 
+	 * in this instance's processing directory (from a previous run that was 
+	 * stopped while processing) back into the input directory.
+	 */
+	public static void recoverClaimedFiles() {
+
+		File[] claimedFiles = new File(processingDirectory).listFiles();
+		if (claimedFiles == null) {
+			return;
+		}
+
+		Path inputPath = new File(inputDirectory).toPath();
+		for (File claimedFile : claimedFiles) {
+			if (!claimedFile.isFile()) {
+				continue;
+			}
+
+			try {
+				Files.move(claimedFile.toPath(), 
+					inputPath.resolve(claimedFile.getName()), 
+					StandardCopyOption.ATOMIC_MOVE);
+				logger.info("Recovered claimed file: " + 
+					claimedFile.getName());
+			} catch (Exception e) {
+				logger.error("recoverClaimedFiles: " + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Metrics logging function for ProducerClient, logs every metric in the 
+	 * metrics registry, including the kafka client metrics, once every 
+	 * metricInterval seconds, unless hosted by MultiClient, which logs the
+	 * shared metrics once itself
+	 */
+	public static void logMetrics() {
+		if (hosted) {
+			return;
+		}
+
+		// calculate elapsed time
+		long timeNow = System.nanoTime();
+		long elapsedNanos = timeNow - lastMetricNanos;
+
+		if (elapsedNanos >= (metricInterval * 1000000000L)) {
+			MetricsRegistry.getDefault().logMetrics(logger);
+
+			lastMetricNanos = timeNow;
+		}
 	}
-}
 
 }